@@ -0,0 +1,147 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ConfigurationBenchmark.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.apache.commons.configuration2.INIConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks reading (parsing and cached) and writing of configurations
+ * with many sessions. Uses a temporary home directory.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigurationBenchmark {
+
+  /** the number of sessions in the configuration. */
+  @Param({"10", "100", "1000"})
+  public int numSessions;
+
+  /** the temporary home directory. */
+  protected File m_Home;
+
+  /** the original home directory. */
+  protected String m_OrigHome;
+
+  /** the configuration to write. */
+  protected INIConfiguration m_Config;
+
+  /** the configuration file. */
+  protected File m_File;
+
+  /**
+   * Generates the configuration and writes it to the temporary home.
+   *
+   * @throws Exception	if setup fails
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    String	session;
+    int		i;
+
+    m_Home     = Files.createTempDirectory("jrsync-jmh").toFile();
+    m_OrigHome = System.getProperty("user.home");
+    System.setProperty("user.home", m_Home.getAbsolutePath());
+
+    m_Config = new INIConfiguration();
+    for (i = 0; i < numSessions; i++) {
+      session = "session-" + i;
+      Configuration.newSession(m_Config, session);
+      m_Config.setProperty(session + ".text_source", "/data/source/" + i + "/");
+      m_Config.setProperty(session + ".text_dest", "backup@host:/data/dest/" + i);
+      m_Config.setProperty(session + ".text_notes", "Nightly backup of dataset #" + i);
+    }
+    Configuration.write(m_Config);
+    m_File = new File(Configuration.configurationFile());
+  }
+
+  /**
+   * Removes the temporary home directory.
+   *
+   * @throws Exception	if removing fails
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.setProperty("user.home", m_OrigHome);
+    try (Stream<Path> walk = Files.walk(m_Home.toPath())) {
+      walk.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+    }
+  }
+
+  /**
+   * Parses the file (ie uncached read).
+   *
+   * @return		the configuration
+   */
+  @Benchmark
+  public INIConfiguration parse() {
+    return Configuration.parse(m_File);
+  }
+
+  /**
+   * Reads the configuration, which is unchanged and therefore cached.
+   *
+   * @return		the configuration
+   */
+  @Benchmark
+  public INIConfiguration readCached() {
+    return Configuration.read();
+  }
+
+  /**
+   * Writes the configuration (atomic replace, including fsync).
+   *
+   * @return		null if successful, otherwise error message
+   */
+  @Benchmark
+  public String write() {
+    return Configuration.write(m_Config);
+  }
+
+  /**
+   * Creates a snapshot of a single session from the cached configuration.
+   *
+   * @return		the session
+   */
+  @Benchmark
+  public Session session() {
+    return new Session(Configuration.read(), "session-" + (numSessions / 2));
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ConfigureRsyncBenchmark.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.rsync4j.RSync;
+import org.apache.commons.configuration2.INIConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks turning a session into rsync arguments.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigureRsyncBenchmark {
+
+  /** whether to enable most of the options. */
+  @Param({"false", "true"})
+  public boolean allOptions;
+
+  /** the executor to configure. */
+  protected Execute m_Execute;
+
+  /**
+   * Sets up the session.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    INIConfiguration	config;
+
+    config = new INIConfiguration();
+    Configuration.newSession(config, "bench");
+    config.setProperty("bench.text_source", "/data/source/");
+    config.setProperty("bench.text_dest", "backup@host:/data/dest");
+    if (allOptions) {
+      for (String key: new String[]{"check_time", "check_perm", "check_owner", "check_group", "check_verbose",
+	"check_progr", "check_delete", "check_sum", "check_symlink", "check_hardlink", "check_compr", "check_itemized"})
+	config.setProperty("bench." + key, true);
+      config.setProperty("bench.text_addit", "--exclude=*.tmp --exclude=.cache");
+    }
+
+    m_Execute            = new Execute();
+    m_Execute.m_Settings = new Session(config, "bench");
+  }
+
+  /**
+   * Configures the rsync instance.
+   *
+   * @return		the instance
+   * @throws Exception	if configuring fails
+   */
+  @Benchmark
+  public RSync configure() throws Exception {
+    return m_Execute.configureRsync();
+  }
+
+  /**
+   * Configures the rsync instance and generates the arguments.
+   *
+   * @return		the arguments
+   * @throws Exception	if configuring fails
+   */
+  @Benchmark
+  public List<String> options() throws Exception {
+    return m_Execute.configureRsync().options();
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DatasetGenerator.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates deterministic synthetic directory trees for benchmarking and
+ * applies deterministic mutations to them. The same profile, scale and seed
+ * always result in the same files, contents and modification times.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class DatasetGenerator {
+
+  /**
+   * The available dataset profiles.
+   */
+  public enum Profile {
+    /** many tiny files (0-4KB). */
+    TINY,
+    /** few huge files (128MB). */
+    HUGE,
+    /** files spread across a deep hierarchy (up to 24 levels). */
+    DEEP,
+    /** mix of tiny, medium and huge files. */
+    MIXED,
+  }
+
+  /**
+   * Container for the number of files and bytes.
+   */
+  public static class Stats {
+
+    /** the number of files. */
+    public long files;
+
+    /** the number of bytes. */
+    public long bytes;
+
+    /**
+     * Returns a short description.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return files + " files, " + ProgressTracker.formatBytes(bytes);
+    }
+  }
+
+  /** the base modification time of generated files (2020-01-01T00:00:00Z). */
+  public final static long BASE_TIME = 1577836800000L;
+
+  /** the buffer size for writing. */
+  public final static int BUFFER_SIZE = 65536;
+
+  /** the words for compressible content. */
+  protected final static String[] WORDS = {
+    "rsync", "session", "source", "destination", "backup", "delta", "checksum", "block",
+    "transfer", "file", "directory", "archive", "option", "remote", "local", "data"};
+
+  /** the profile. */
+  protected Profile m_Profile;
+
+  /** the scale factor for the number (and for huge files, size) of files. */
+  protected double m_Scale;
+
+  /** the seed. */
+  protected long m_Seed;
+
+  /**
+   * Initializes the generator.
+   *
+   * @param profile	the profile to generate
+   * @param scale	the scale factor
+   * @param seed	the seed for the random numbers
+   */
+  public DatasetGenerator(Profile profile, double scale, long seed) {
+    m_Profile = profile;
+    m_Scale   = scale;
+    m_Seed    = seed;
+  }
+
+  /**
+   * Returns the scaled count, at least 1.
+   *
+   * @param count	the count to scale
+   * @return		the scaled count
+   */
+  protected int scale(int count) {
+    return Math.max(1, (int) Math.round(count * m_Scale));
+  }
+
+  /**
+   * Writes a file with deterministic content.
+   *
+   * @param file	the file to write
+   * @param size	the size in bytes
+   * @param seed	the seed for the content
+   * @param mtime	the modification time to set
+   * @param stats	the statistics to update
+   * @throws IOException	if writing fails
+   */
+  protected void write(File file, long size, long seed, long mtime, Stats stats) throws IOException {
+    Random	rnd;
+    byte[]	buffer;
+    long	remaining;
+    int		len;
+
+    if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+      throw new IOException("Failed to create directory: " + file.getParentFile());
+
+    rnd       = new Random(seed);
+    buffer    = new byte[BUFFER_SIZE];
+    remaining = size;
+    try (OutputStream out = Files.newOutputStream(file.toPath())) {
+      while (remaining > 0) {
+	len = (int) Math.min(buffer.length, remaining);
+	fill(buffer, len, rnd);
+	out.write(buffer, 0, len);
+	remaining -= len;
+      }
+    }
+    if (!file.setLastModified(mtime))
+      throw new IOException("Failed to set modification time: " + file);
+
+    stats.files++;
+    stats.bytes += size;
+  }
+
+  /**
+   * Fills the buffer with either compressible (words) or random content.
+   *
+   * @param buffer	the buffer to fill
+   * @param len		the number of bytes to fill
+   * @param rnd		the random number generator to use
+   */
+  protected static void fill(byte[] buffer, int len, Random rnd) {
+    byte[]	word;
+    int		pos;
+    int		i;
+
+    if (rnd.nextBoolean()) {
+      pos = 0;
+      while (pos < len) {
+	word = (WORDS[rnd.nextInt(WORDS.length)] + " ").getBytes(StandardCharsets.US_ASCII);
+	for (i = 0; (i < word.length) && (pos < len); i++, pos++)
+	  buffer[pos] = word[i];
+      }
+    }
+    else {
+      rnd.nextBytes(buffer);
+    }
+  }
+
+  /**
+   * Generates the dataset in the specified directory.
+   *
+   * @param dir		the directory to generate the files in
+   * @return		the statistics
+   * @throws IOException	if generating fails
+   */
+  public Stats generate(File dir) throws IOException {
+    Stats	result;
+    Random	rnd;
+    String	path;
+    int		depth;
+    int		i;
+    int		n;
+
+    result = new Stats();
+    rnd    = new Random(m_Seed);
+    switch (m_Profile) {
+      case TINY:
+	n = scale(20000);
+	for (i = 0; i < n; i++)
+	  write(new File(dir, String.format("d%04d/f%06d.dat", i / 100, i)), rnd.nextInt(4097), rnd.nextLong(), BASE_TIME + i * 1000L, result);
+	break;
+
+      case HUGE:
+	n = scale(4);
+	for (i = 0; i < n; i++)
+	  write(new File(dir, String.format("huge%02d.bin", i)), 128L * 1024 * 1024, rnd.nextLong(), BASE_TIME + i * 1000L, result);
+	break;
+
+      case DEEP:
+	n = scale(5000);
+	for (i = 0; i < n; i++) {
+	  depth = 1 + rnd.nextInt(24);
+	  path  = "";
+	  while (depth-- > 0)
+	    path += "l" + rnd.nextInt(3) + "/";
+	  write(new File(dir, path + String.format("f%06d.dat", i)), 1 + rnd.nextInt(65536), rnd.nextLong(), BASE_TIME + i * 1000L, result);
+	}
+	break;
+
+      case MIXED:
+	n = scale(5000);
+	for (i = 0; i < n; i++)
+	  write(new File(dir, String.format("tiny/d%03d/f%06d.dat", i / 100, i)), rnd.nextInt(4097), rnd.nextLong(), BASE_TIME + i * 1000L, result);
+	n = scale(200);
+	for (i = 0; i < n; i++)
+	  write(new File(dir, String.format("medium/f%04d.dat", i)), 1024 * 1024 + rnd.nextInt(7 * 1024 * 1024), rnd.nextLong(), BASE_TIME + i * 1000L, result);
+	write(new File(dir, "huge.bin"), (long) (64L * 1024 * 1024 * Math.max(0.01, m_Scale)), rnd.nextLong(), BASE_TIME, result);
+	break;
+
+      default:
+	throw new IllegalStateException("Unhandled profile: " + m_Profile);
+    }
+
+    return result;
+  }
+
+  /**
+   * Mutates the dataset: of the selected fraction of files, 60% get modified
+   * (content and mtime), 20% get modified silently (content only, size and
+   * mtime unchanged, only detectable via checksums) and 20% get deleted.
+   * In addition, new files get added (10% of the selected fraction).
+   *
+   * @param dir		the directory with the dataset
+   * @param ratio	the fraction of files to mutate (0-1)
+   * @return		the statistics of the affected files
+   * @throws IOException	if mutating fails
+   */
+  public Stats mutate(File dir, double ratio) throws IOException {
+    Stats	result;
+    Random	rnd;
+    List<Path>	files;
+    File	file;
+    double	r;
+    long	size;
+    long	mtime;
+    int		added;
+    int		i;
+
+    try (Stream<Path> walk = Files.walk(dir.toPath())) {
+      files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+
+    result = new Stats();
+    rnd    = new Random(m_Seed + 1);
+    added  = 0;
+    for (Path path: files) {
+      if (rnd.nextDouble() >= ratio)
+	continue;
+      file  = path.toFile();
+      size  = file.length();
+      mtime = file.lastModified();
+      r     = rnd.nextDouble();
+      if (r < 0.2) {
+	if (!file.delete())
+	  throw new IOException("Failed to delete: " + file);
+	result.files++;
+      }
+      else {
+	modify(file, size, rnd.nextLong());
+	if (r < 0.4)
+	  file.setLastModified(mtime);
+	else
+	  file.setLastModified(mtime + 3600 * 1000L);
+	result.files++;
+	result.bytes += Math.min(size, BUFFER_SIZE);
+      }
+      if (rnd.nextDouble() < 0.1)
+	added++;
+    }
+    for (i = 0; i < added; i++)
+      write(new File(dir, String.format("added/f%06d.dat", i)), rnd.nextInt(65536), rnd.nextLong(), BASE_TIME + i * 1000L, result);
+
+    return result;
+  }
+
+  /**
+   * Overwrites a block in the middle of the file, keeping its size.
+   *
+   * @param file	the file to modify
+   * @param size	the size of the file
+   * @param seed	the seed for the new content
+   * @throws IOException	if modifying fails
+   */
+  protected void modify(File file, long size, long seed) throws IOException {
+    byte[]	buffer;
+    int		len;
+
+    if (size == 0)
+      return;
+    len    = (int) Math.min(size, BUFFER_SIZE);
+    buffer = new byte[len];
+    fill(buffer, len, new Random(seed));
+    // make sure the content actually differs
+    buffer[0] = (byte) ~readByte(file, (size - len) / 2);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek((size - len) / 2);
+      raf.write(buffer);
+    }
+  }
+
+  /**
+   * Reads a single byte from the file.
+   *
+   * @param file	the file to read from
+   * @param pos		the position
+   * @return		the byte
+   * @throws IOException	if reading fails
+   */
+  protected static int readByte(File file, long pos) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(pos);
+      return raf.read();
+    }
+  }
+}
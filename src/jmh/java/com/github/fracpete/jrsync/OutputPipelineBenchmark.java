@@ -0,0 +1,156 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OutputPipelineBenchmark.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.BufferedOutputListener.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the line pipeline from {@link Execute#processOutput(String, boolean)}
+ * through the itemized parser, progress tracker and run log to the listener,
+ * using typical rsync output lines.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutputPipelineBenchmark {
+
+  /** the number of lines per invocation. */
+  public final static int LINES = 1000;
+
+  /** the listener: none, direct or buffered (like the GUI). */
+  @Param({"none", "direct", "buffered"})
+  public String listener;
+
+  /** whether to parse itemized changes and progress. */
+  @Param({"false", "true"})
+  public boolean parse;
+
+  /** whether to spool the output to a log. */
+  @Param({"false", "true"})
+  public boolean log;
+
+  /** the lines to feed in. */
+  protected String[] m_Lines;
+
+  /** the executor receiving the output. */
+  protected Execute m_Execute;
+
+  /** the buffered listener, if any. */
+  protected BufferedOutputListener m_Buffered;
+
+  /** the number of lines that reached the end of the pipeline. */
+  protected AtomicLong m_Received;
+
+  /** the temporary home directory. */
+  protected File m_Home;
+
+  /** the original home directory. */
+  protected String m_OrigHome;
+
+  /**
+   * Sets up the pipeline.
+   *
+   * @throws Exception	if setup fails
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    int		i;
+
+    m_Lines = new String[LINES];
+    for (i = 0; i < LINES; i++) {
+      if (i % 2 == 0)
+	m_Lines[i] = ">f+++++++++ data/set-" + (i / 100) + "/file-" + i + ".bin";
+      else
+	m_Lines[i] = "     " + (i * 32768L) + "  " + (i % 100) + "%   42.17MB/s    0:00:0" + (i % 10) + " (xfr#" + (i / 2) + ", to-chk=" + (LINES - i) + "/" + LINES + ")";
+    }
+
+    m_Received = new AtomicLong();
+    m_Execute  = new Execute();
+    if (listener.equals("direct")) {
+      m_Execute.m_Listener = (String line, boolean stdout) -> m_Received.incrementAndGet();
+    }
+    else if (listener.equals("buffered")) {
+      m_Buffered = new BufferedOutputListener(
+	(String[] lines, boolean[] stdout, int count) -> m_Received.addAndGet(count),
+	BufferedOutputListener.DEFAULT_CAPACITY, BufferedOutputListener.DEFAULT_FPS, OverflowPolicy.SUMMARIZE);
+      m_Execute.m_Listener = m_Buffered;
+    }
+    if (parse) {
+      m_Execute.m_ItemizedParser  = new ItemizedChangesParser();
+      m_Execute.m_ProgressTracker = new ProgressTracker(false);
+    }
+    if (log) {
+      m_Home     = Files.createTempDirectory("jrsync-jmh").toFile();
+      m_OrigHome = System.getProperty("user.home");
+      System.setProperty("user.home", m_Home.getAbsolutePath());
+      m_Execute.m_RunLog = new RunLog("bench", false);
+    }
+  }
+
+  /**
+   * Closes the pipeline.
+   *
+   * @throws Exception	if closing fails
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    if (m_Buffered != null)
+      m_Buffered.close();
+    if (m_Execute.m_RunLog != null) {
+      m_Execute.m_RunLog.close();
+      System.setProperty("user.home", m_OrigHome);
+      try (Stream<Path> walk = Files.walk(m_Home.toPath())) {
+	walk.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+      }
+    }
+  }
+
+  /**
+   * Feeds the lines through the pipeline.
+   */
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public void process() {
+    for (String line: m_Lines)
+      m_Execute.processOutput(line, true);
+  }
+}
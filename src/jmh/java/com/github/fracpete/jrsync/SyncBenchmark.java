@@ -0,0 +1,399 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SyncBenchmark.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.DatasetGenerator.Profile;
+import com.github.fracpete.jrsync.DatasetGenerator.Stats;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.commons.configuration2.INIConfiguration;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end benchmark: generates synthetic datasets, synchronizes them
+ * local-to-local through {@link Execute} with different option sets (an
+ * initial run and an incremental run after mutating the source) and reports
+ * wall time, CPU time, bytes read/written and files/sec as CSV or JSON.
+ * <br>
+ * CPU time and I/O are obtained from /proc/self (Linux only, -1 otherwise);
+ * these include the terminated rsync child processes.
+ * <br>
+ * Configurations are specified as 'name:key=value,key=value', using the
+ * keys of the session settings, e.g., 'checksum:check_time=true,check_sum=true'.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class SyncBenchmark {
+
+  /** the default configurations. */
+  public final static String[] DEFAULT_CONFIGS = {
+    "times:check_time=true,text_addit=--recursive",
+    "checksum:check_time=true,check_sum=true,text_addit=--recursive",
+    "size:check_size=true,text_addit=--recursive",
+    "compress:check_time=true,check_compr=true,text_addit=--recursive",
+    "hardlink:check_time=true,check_hardlink=true,text_addit=--recursive",
+    "native:check_time=true,check_native_engine=true,text_addit=--recursive",
+  };
+
+  /** the assumed clock ticks per second of /proc/self/stat. */
+  public final static int CLOCK_TICKS = 100;
+
+  /**
+   * Container for a single measurement.
+   */
+  public static class Measurement {
+
+    /** the profile. */
+    public String profile;
+
+    /** the configuration. */
+    public String config;
+
+    /** the phase (initial/incremental). */
+    public String phase;
+
+    /** the wall time in msec. */
+    public long wallTime;
+
+    /** the CPU time in msec (JVM and children), -1 if not available. */
+    public long cpuTime;
+
+    /** the bytes read, -1 if not available. */
+    public long bytesRead;
+
+    /** the bytes written, -1 if not available. */
+    public long bytesWritten;
+
+    /** the number of transferred files. */
+    public long files;
+
+    /** the error, null if successful. */
+    public String error;
+
+    /**
+     * Returns the transferred files per second.
+     *
+     * @return		the files/sec
+     */
+    public double getFilesPerSecond() {
+      return (wallTime == 0) ? 0 : files * 1000.0 / wallTime;
+    }
+  }
+
+  /**
+   * Returns the CPU time of the JVM and its terminated children.
+   *
+   * @return		the time in msec, -1 if not available
+   */
+  protected static long cpuTime() {
+    long	result;
+    String	stat;
+    String[]	parts;
+
+    try {
+      result = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime() / 1000000;
+      // cutime and cstime (fields 16 and 17) of the reaped children
+      stat   = new String(Files.readAllBytes(new File("/proc/self/stat").toPath()));
+      parts  = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      result += (Long.parseLong(parts[13]) + Long.parseLong(parts[14])) * 1000 / CLOCK_TICKS;
+      return result;
+    }
+    catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the bytes read and written by the JVM and its terminated children.
+   *
+   * @return		the bytes read/written, -1 if not available
+   */
+  protected static long[] io() {
+    long[]	result;
+
+    result = new long[]{-1, -1};
+    try {
+      for (String line: Files.readAllLines(new File("/proc/self/io").toPath())) {
+	if (line.startsWith("rchar:"))
+	  result[0] = Long.parseLong(line.substring(6).trim());
+	else if (line.startsWith("wchar:"))
+	  result[1] = Long.parseLong(line.substring(6).trim());
+      }
+    }
+    catch (Exception e) {
+      // not available
+    }
+
+    return result;
+  }
+
+  /**
+   * Deletes the directory recursively.
+   *
+   * @param dir		the directory to delete
+   * @throws Exception	if deleting fails
+   */
+  protected static void delete(File dir) throws Exception {
+    if (!dir.exists())
+      return;
+    try (Stream<Path> walk = Files.walk(dir.toPath())) {
+      walk.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+    }
+  }
+
+  /**
+   * Generates the session from the configuration string.
+   *
+   * @param config	the configuration ('name:key=value,...')
+   * @param source	the source directory
+   * @param dest	the destination directory
+   * @return		the session
+   */
+  protected static Session session(String config, File source, File dest) {
+    INIConfiguration	ini;
+    String		name;
+    String		pairs;
+    int			pos;
+
+    pos   = config.indexOf(':');
+    name  = (pos == -1) ? config : config.substring(0, pos);
+    pairs = (pos == -1) ? "" : config.substring(pos + 1);
+    ini   = new INIConfiguration();
+    Configuration.newSession(ini, name);
+    ini.setProperty(name + ".text_source", source.getAbsolutePath() + "/");
+    ini.setProperty(name + ".text_dest", dest.getAbsolutePath());
+    ini.setProperty(name + ".check_itemized", true);
+    ini.setProperty(name + ".check_delete", true);
+    for (String pair: pairs.split(",")) {
+      if (pair.trim().isEmpty())
+	continue;
+      pos = pair.indexOf('=');
+      if (pos == -1)
+	throw new IllegalArgumentException("Invalid key=value pair in configuration '" + config + "': " + pair);
+      ini.setProperty(name + "." + pair.substring(0, pos).trim(), pair.substring(pos + 1).trim());
+    }
+
+    return new Session(ini, name);
+  }
+
+  /**
+   * Executes the session and measures it.
+   *
+   * @param settings	the session to execute
+   * @param profile	the profile
+   * @param phase	the phase
+   * @return		the measurement
+   */
+  protected static Measurement measure(Session settings, Profile profile, String phase) {
+    Measurement		result;
+    Execute		exec;
+    long		start;
+    long		cpu;
+    long[]		io;
+    long[]		ioEnd;
+
+    result              = new Measurement();
+    result.profile      = profile.toString().toLowerCase();
+    result.config       = settings.getName();
+    result.phase        = phase;
+    exec                = new Execute();
+    cpu                 = cpuTime();
+    io                  = io();
+    start               = System.nanoTime();
+    result.error        = exec.execute(settings, false, null);
+    result.wallTime     = (System.nanoTime() - start) / 1000000;
+    result.cpuTime      = (cpu == -1) ? -1 : cpuTime() - cpu;
+    ioEnd               = io();
+    result.bytesRead    = (io[0] == -1) ? -1 : ioEnd[0] - io[0];
+    result.bytesWritten = (io[1] == -1) ? -1 : ioEnd[1] - io[1];
+    if (exec.getItemizedStatistics() != null)
+      result.files = exec.getItemizedStatistics().getTransferred();
+
+    return result;
+  }
+
+  /**
+   * Escapes the string for JSON.
+   *
+   * @param s		the string to escape
+   * @return		the quoted string or null
+   */
+  protected static String json(String s) {
+    if (s == null)
+      return "null";
+    return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\t", "\\t") + "\"";
+  }
+
+  /**
+   * Outputs the measurements.
+   *
+   * @param measurements	the measurements
+   * @param format		the format (csv/json)
+   * @param out			the stream to write to
+   */
+  protected static void output(List<Measurement> measurements, String format, PrintStream out) {
+    Measurement		m;
+    int			i;
+
+    if (format.equals("json")) {
+      out.println("[");
+      for (i = 0; i < measurements.size(); i++) {
+	m = measurements.get(i);
+	out.println(String.format(Locale.US,
+	  "  {\"profile\": %s, \"config\": %s, \"phase\": %s, \"wall_ms\": %d, \"cpu_ms\": %d, \"bytes_read\": %d, \"bytes_written\": %d, \"files\": %d, \"files_per_sec\": %.1f, \"error\": %s}%s",
+	  json(m.profile), json(m.config), json(m.phase), m.wallTime, m.cpuTime, m.bytesRead, m.bytesWritten, m.files, m.getFilesPerSecond(), json(m.error),
+	  (i < measurements.size() - 1) ? "," : ""));
+      }
+      out.println("]");
+    }
+    else {
+      out.println("profile,config,phase,wall_ms,cpu_ms,bytes_read,bytes_written,files,files_per_sec,error");
+      for (Measurement me: measurements)
+	out.println(String.format(Locale.US, "%s,%s,%s,%d,%d,%d,%d,%d,%.1f,%s",
+	  me.profile, me.config, me.phase, me.wallTime, me.cpuTime, me.bytesRead, me.bytesWritten, me.files, me.getFilesPerSecond(),
+	  (me.error == null) ? "" : "\"" + me.error.replace("\"", "\"\"").replace("\n", " ") + "\""));
+    }
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args	the command-line options, use -h for help
+   * @throws Exception	if the benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    ArgumentParser 	parser;
+    Namespace 		ns;
+    List<Measurement>	measurements;
+    List<String>	configs;
+    File		work;
+    File		source;
+    File		dest;
+    Session		settings;
+    DatasetGenerator	generator;
+    Stats		stats;
+    String		output;
+    PrintStream		out;
+
+    parser = ArgumentParsers.newFor(SyncBenchmark.class.getName()).build();
+    parser.description("End-to-end benchmark of local-to-local sessions on synthetic datasets.");
+    parser.addArgument("-d")
+      .required(false)
+      .dest("dir")
+      .help("The working directory for the datasets, uses a temporary directory if omitted.");
+    parser.addArgument("-p")
+      .type(Profile.class)
+      .nargs("+")
+      .setDefault(Arrays.asList(Profile.TINY, Profile.MIXED))
+      .dest("profiles")
+      .help("The dataset profile(s) to generate.");
+    parser.addArgument("-s")
+      .type(Double.class)
+      .setDefault(1.0)
+      .dest("scale")
+      .help("The scale factor for the datasets.");
+    parser.addArgument("-m")
+      .type(Double.class)
+      .setDefault(0.1)
+      .dest("mutation")
+      .help("The fraction of files to mutate between the initial and the incremental run.");
+    parser.addArgument("--seed")
+      .type(Long.class)
+      .setDefault(42L)
+      .dest("seed")
+      .help("The seed for generating the datasets.");
+    parser.addArgument("-c")
+      .nargs("+")
+      .setDefault(Arrays.asList(DEFAULT_CONFIGS))
+      .dest("configs")
+      .help("The configuration(s) to compare, format: 'name:key=value,key=value'.");
+    parser.addArgument("-f")
+      .choices("csv", "json")
+      .setDefault("csv")
+      .dest("format")
+      .help("The output format.");
+    parser.addArgument("-o")
+      .required(false)
+      .dest("output")
+      .help("The file to write the results to, stdout if omitted.");
+
+    try {
+      ns = parser.parseArgs(args);
+    }
+    catch (ArgumentParserException e) {
+      parser.handleError(e);
+      return;
+    }
+
+    if (ns.getString("dir") != null)
+      work = new File(ns.getString("dir"));
+    else
+      work = Files.createTempDirectory("jrsync-bench").toFile();
+    // keep run logs etc out of the user's configuration
+    System.setProperty("user.home", new File(work, "home").getAbsolutePath());
+
+    configs      = ns.getList("configs");
+    measurements = new ArrayList<>();
+    for (Object p: ns.getList("profiles")) {
+      generator = new DatasetGenerator((Profile) p, ns.getDouble("scale"), ns.getLong("seed"));
+      for (String config: configs) {
+	source = new File(work, "source");
+	dest   = new File(work, "dest");
+	delete(source);
+	delete(dest);
+	stats = generator.generate(source);
+	System.err.println(p + "/" + config + ": generated " + stats);
+	settings = session(config, source, dest);
+	measurements.add(measure(settings, (Profile) p, "initial"));
+	stats = generator.mutate(source, ns.getDouble("mutation"));
+	System.err.println(p + "/" + config + ": mutated " + stats);
+	measurements.add(measure(settings, (Profile) p, "incremental"));
+	delete(source);
+	delete(dest);
+      }
+    }
+    if (ns.getString("dir") == null)
+      delete(work);
+
+    output = ns.getString("output");
+    if (output == null) {
+      output(measurements, ns.getString("format"), System.out);
+    }
+    else {
+      out = new PrintStream(new File(output));
+      output(measurements, ns.getString("format"), out);
+      out.close();
+    }
+  }
+}
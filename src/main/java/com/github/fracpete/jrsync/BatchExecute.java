@@ -0,0 +1,424 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BatchExecute.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+import org.apache.commons.configuration2.INIConfiguration;
+import org.apache.commons.configuration2.sync.ReadWriteSynchronizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Executes multiple sessions on a bounded pool of worker threads, sharing
+ * a single parsed configuration.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BatchExecute {
+
+  /** the placeholder for selecting all sessions. */
+  public final static String ALL = "all";
+
+  /**
+   * Container for the outcome of a single session.
+   */
+  public static class Result {
+
+    /** the session. */
+    protected String m_Session;
+
+    /** the error message, null if successful. */
+    protected String m_Message;
+
+    /** the start time (msec). */
+    protected long m_Start;
+
+    /** the end time (msec). */
+    protected long m_End;
+
+    /**
+     * Initializes the result.
+     *
+     * @param session	the session
+     * @param msg	the error message, null if successful
+     * @param start	the start time (msec)
+     * @param end	the end time (msec)
+     */
+    public Result(String session, String msg, long start, long end) {
+      m_Session = session;
+      m_Message = msg;
+      m_Start   = start;
+      m_End     = end;
+    }
+
+    /**
+     * Returns the session.
+     *
+     * @return		the session
+     */
+    public String getSession() {
+      return m_Session;
+    }
+
+    /**
+     * Returns the error message.
+     *
+     * @return		the error message, null if successful
+     */
+    public String getMessage() {
+      return m_Message;
+    }
+
+    /**
+     * Returns whether the session was executed successfully.
+     *
+     * @return		true if successful
+     */
+    public boolean isSuccess() {
+      return (m_Message == null);
+    }
+
+    /**
+     * Returns the wall time of the execution.
+     *
+     * @return		the duration in msec
+     */
+    public long getDuration() {
+      return m_End - m_Start;
+    }
+  }
+
+  /**
+   * Output listener that prefixes each line with the session name and
+   * serializes the output of concurrently running sessions.
+   */
+  public static class PrefixedOutputListener
+    implements OutputListener {
+
+    /** the session. */
+    protected String m_Session;
+
+    /** the base listener. */
+    protected OutputListener m_Owner;
+
+    /**
+     * Initializes the listener.
+     *
+     * @param session	the session to use as prefix
+     * @param owner	the listener to forward the output to
+     */
+    public PrefixedOutputListener(String session, OutputListener owner) {
+      m_Session = session;
+      m_Owner   = owner;
+    }
+
+    /**
+     * Gets called whenever rsync generates output.
+     *
+     * @param line	the generated output
+     * @param stdout	true if stdout, stderr otherwise
+     */
+    public void outputOccurred(String line, boolean stdout) {
+      synchronized(m_Owner) {
+	m_Owner.outputOccurred("[" + m_Session + "] " + line, stdout);
+      }
+    }
+  }
+
+  /** the number of sessions to execute concurrently. */
+  protected int m_NumThreads;
+
+  /** the metrics to record the runs in, null if not recording. */
+  protected Metrics m_Metrics;
+
+  /** the global I/O budgets, null if not used. */
+  protected List<Budget> m_Budgets;
+
+  /** the currently running executions. */
+  protected final List<Execute> m_Running;
+
+  /** the reason for cancelling the batch, null if not cancelled. */
+  protected volatile String m_Cancelled;
+
+  /**
+   * Initializes the batch execution with one thread per available processor.
+   */
+  public BatchExecute() {
+    setNumThreads(Runtime.getRuntime().availableProcessors());
+    m_Running = new ArrayList<>();
+  }
+
+  /**
+   * Sets the number of sessions to execute in parallel.
+   *
+   * @param value	the number of threads, values less than 1 use 1
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = Math.max(1, value);
+  }
+
+  /**
+   * Returns the number of sessions to execute in parallel.
+   *
+   * @return		the number of threads
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Sets the metrics to record the runs in.
+   *
+   * @param value	the metrics, null to not record
+   */
+  public void setMetrics(Metrics value) {
+    m_Metrics = value;
+  }
+
+  /**
+   * Returns the metrics to record the runs in.
+   *
+   * @return		the metrics, null if not recording
+   */
+  public Metrics getMetrics() {
+    return m_Metrics;
+  }
+
+  /**
+   * Sets the global I/O budgets shared by the runs.
+   *
+   * @param value	the budgets, null to not use any
+   */
+  public void setBudgets(List<Budget> value) {
+    m_Budgets = value;
+  }
+
+  /**
+   * Returns the global I/O budgets shared by the runs.
+   *
+   * @return		the budgets, null if not used
+   */
+  public List<Budget> getBudgets() {
+    return m_Budgets;
+  }
+
+  /**
+   * Turns a glob pattern ('*' and '?' wildcards) into a regular expression.
+   *
+   * @param glob	the glob pattern
+   * @return		the compiled pattern
+   */
+  protected static Pattern globToPattern(String glob) {
+    StringBuilder	regexp;
+    StringBuilder	literal;
+    int			i;
+    char		c;
+
+    regexp  = new StringBuilder();
+    literal = new StringBuilder();
+    for (i = 0; i < glob.length(); i++) {
+      c = glob.charAt(i);
+      if ((c == '*') || (c == '?')) {
+	if (literal.length() > 0) {
+	  regexp.append(Pattern.quote(literal.toString()));
+	  literal.setLength(0);
+	}
+	regexp.append((c == '*') ? ".*" : ".");
+      }
+      else {
+	literal.append(c);
+      }
+    }
+    if (literal.length() > 0)
+      regexp.append(Pattern.quote(literal.toString()));
+
+    return Pattern.compile(regexp.toString());
+  }
+
+  /**
+   * Checks whether the session name is a glob or the 'all' placeholder.
+   *
+   * @param name	the name to check
+   * @return		true if it can match multiple sessions
+   */
+  public static boolean isBatch(String name) {
+    return name.equals(ALL) || name.contains("*") || name.contains("?");
+  }
+
+  /**
+   * Expands the session names, globs (using '*' and '?') and the 'all'
+   * placeholder into the list of actual sessions.
+   *
+   * @param config	the configuration to obtain the sessions from
+   * @param names	the names/globs to expand
+   * @return		the sessions, in order of first occurrence
+   */
+  public static List<String> expand(INIConfiguration config, List<String> names) {
+    Set<String>		result;
+    Pattern		pattern;
+
+    result = new LinkedHashSet<>();
+    for (String name: names) {
+      if (name.equals(ALL)) {
+	for (String section: config.getSections()) {
+	  if (section != null)
+	    result.add(section);
+	}
+      }
+      else if (isBatch(name)) {
+	pattern = globToPattern(name);
+	for (String section: config.getSections()) {
+	  if ((section != null) && pattern.matcher(section).matches())
+	    result.add(section);
+	}
+      }
+      else {
+	result.add(name);
+      }
+    }
+
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * Cancels the running sessions and skips the ones that haven't started yet.
+   *
+   * @param reason	the reason for cancelling
+   */
+  public void cancel(String reason) {
+    m_Cancelled = reason;
+    synchronized(m_Running) {
+      for (Execute exec: m_Running)
+	exec.getHandle().cancel(reason);
+    }
+  }
+
+  /**
+   * Executes the specified sessions.
+   *
+   * @param config	the configuration to use, gets shared by all sessions
+   * @param sessions	the sessions to execute
+   * @param dryRun	whether to only simulate
+   * @param listener	the listener for rsync output, null to ignore
+   * @return		the results, in the same order as the sessions
+   */
+  public List<Result> execute(final INIConfiguration config, List<String> sessions, final boolean dryRun, final OutputListener listener) {
+    List<Result>		result;
+    ExecutorService		executor;
+    List<Future<Result>>	futures;
+
+    // sessions only read from the configuration, but the node tree is not
+    // guaranteed to be safe for concurrent access without a synchronizer
+    config.setSynchronizer(new ReadWriteSynchronizer());
+
+    result   = new ArrayList<>();
+    futures  = new ArrayList<>();
+    executor = Executors.newFixedThreadPool(Math.min(m_NumThreads, Math.max(1, sessions.size())));
+    try {
+      for (final String session: sessions) {
+	futures.add(executor.submit(() -> {
+	  long start = System.currentTimeMillis();
+	  String msg;
+	  if (!config.getSections().contains(session)) {
+	    msg = "Unknown session: " + session;
+	  }
+	  else if (m_Cancelled != null) {
+	    msg = "Cancelled: " + m_Cancelled;
+	  }
+	  else {
+	    Execute exec = new Execute();
+	    synchronized(m_Running) {
+	      m_Running.add(exec);
+	    }
+	    try {
+	      exec.setStatistics(m_Metrics != null);
+	      exec.setBudgets(m_Budgets);
+	      msg = exec.execute(config, session, dryRun, (listener == null) ? null : new PrefixedOutputListener(session, listener));
+	      if (m_Metrics != null)
+		m_Metrics.record(exec.getMetrics());
+	    }
+	    catch (Throwable t) {
+	      msg = "Failed to execute session '" + session + "': " + t;
+	    }
+	    finally {
+	      synchronized(m_Running) {
+		m_Running.remove(exec);
+	      }
+	    }
+	  }
+	  return new Result(session, msg, start, System.currentTimeMillis());
+	}));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+	try {
+	  result.add(futures.get(i).get());
+	}
+	catch (Exception e) {
+	  result.add(new Result(sessions.get(i), "Failed to obtain result: " + e, 0, 0));
+	}
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return result;
+  }
+
+  /**
+   * Generates a textual summary of the results.
+   *
+   * @param results	the results to summarize
+   * @return		the summary
+   */
+  public static String summary(List<Result> results) {
+    StringBuilder	result;
+    int			failed;
+    int			width;
+
+    width = 7;
+    for (Result r: results)
+      width = Math.max(width, r.getSession().length());
+
+    failed = 0;
+    result = new StringBuilder();
+    result.append(String.format("%-" + width + "s  %-6s  %10s%n", "session", "status", "time (s)"));
+    for (Result r: results) {
+      if (!r.isSuccess())
+	failed++;
+      result.append(String.format("%-" + width + "s  %-6s  %10.1f%n", r.getSession(), r.isSuccess() ? "OK" : "FAILED", r.getDuration() / 1000.0));
+    }
+    result.append(String.format("%d session(s), %d failed%n", results.size(), failed));
+    for (Result r: results) {
+      if (!r.isSuccess())
+	result.append(String.format("%n%s: %s%n", r.getSession(), r.getMessage()));
+    }
+
+    return result.toString();
+  }
+}
@@ -0,0 +1,402 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Budget.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.INIConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+import java.io.File;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Global I/O budget shared by all sessions whose destination lies on the
+ * same device or below the same path prefix (eg 'nas:' for a remote host).
+ * Limits the number of concurrent runs (admission slots) and splits the
+ * bandwidth among the running sessions, assigning each run a --bwlimit
+ * when it gets admitted. As the limit of a run is fixed once rsync starts,
+ * the assigned limits never exceed the budget: if not enough bandwidth is
+ * left, the admitted run waits until other runs finish.
+ * <br>
+ * The budgets are defined in 'budgets.ini' in the
+ * {@link Configuration#configurationDirectory()}, one section per budget:
+ * <pre>
+ * [nas]
+ * prefix=/mnt/nas
+ * bandwidth=50
+ * slots=2
+ *
+ * [usb]
+ * device=/media/backup
+ * slots=1
+ * </pre>
+ * 'prefix' matches destinations starting with it, 'device' matches all
+ * destinations on the same file system as the path, 'bandwidth' is in MB/s
+ * (0 = unlimited) and 'slots' the maximum number of concurrent runs
+ * (0 = unlimited). Budgets only coordinate runs within the same process.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Budget {
+
+  /** the name of the budgets file. */
+  public final static String FILENAME = "budgets.ini";
+
+  /** the minimum fraction of the fair share a run has to get to start. */
+  public final static double MIN_SHARE = 0.5;
+
+  /** the maximum msec to wait before re-evaluating the available bandwidth. */
+  public final static long WAIT_INTERVAL = 1000;
+
+  /** the name of the budget (section). */
+  protected String m_Name;
+
+  /** the destination prefix, empty if not used. */
+  protected String m_Prefix;
+
+  /** the path identifying the device, empty if not used. */
+  protected String m_Device;
+
+  /** the file system of the device, null if not available. */
+  protected FileStore m_DeviceStore;
+
+  /** the bandwidth in MB/s, 0 for unlimited. */
+  protected double m_Bandwidth;
+
+  /** the maximum number of concurrent runs, 0 for unlimited. */
+  protected int m_Slots;
+
+  /** the admission slots, null if unlimited. */
+  protected Semaphore m_Semaphore;
+
+  /** the currently admitted runs. */
+  protected List<Execute> m_Active;
+
+  /** the limits (KiB/s) assigned to the admitted runs. */
+  protected Map<Execute,Long> m_Assigned;
+
+  /**
+   * Initializes the budget.
+   *
+   * @param name	the name of the budget
+   * @param prefix	the destination prefix, empty if not used
+   * @param device	the path identifying the device, empty if not used
+   * @param bandwidth	the bandwidth in MB/s, 0 for unlimited
+   * @param slots	the maximum number of concurrent runs, 0 for unlimited
+   */
+  public Budget(String name, String prefix, String device, double bandwidth, int slots) {
+    m_Name      = name;
+    m_Prefix    = prefix;
+    m_Device    = device;
+    m_Bandwidth = Math.max(0, bandwidth);
+    m_Slots     = Math.max(0, slots);
+    m_Semaphore = (m_Slots > 0) ? new Semaphore(m_Slots, true) : null;
+    m_Active    = new ArrayList<>();
+    m_Assigned  = new HashMap<>();
+    if (!m_Device.isEmpty())
+      m_DeviceStore = fileStore(m_Device);
+  }
+
+  /**
+   * Returns the name of the budget.
+   *
+   * @return		the name
+   */
+  public String getName() {
+    return m_Name;
+  }
+
+  /**
+   * Returns the bandwidth.
+   *
+   * @return		the bandwidth in MB/s, 0 if unlimited
+   */
+  public double getBandwidth() {
+    return m_Bandwidth;
+  }
+
+  /**
+   * Returns the maximum number of concurrent runs.
+   *
+   * @return		the number of slots, 0 if unlimited
+   */
+  public int getSlots() {
+    return m_Slots;
+  }
+
+  /**
+   * Returns the file with the budgets.
+   *
+   * @return		the file
+   */
+  public static String budgetsFile() {
+    return Configuration.configurationDirectory() + File.separator + FILENAME;
+  }
+
+  /**
+   * Reads the budgets from {@link #budgetsFile()}.
+   *
+   * @return		the budgets, empty if none defined or failed to read
+   */
+  public static List<Budget> read() {
+    List<Budget>				result;
+    File					file;
+    INIConfiguration				config;
+    HierarchicalConfiguration<ImmutableNode>	section;
+
+    result = new ArrayList<>();
+    file   = new File(budgetsFile());
+    if (!file.exists())
+      return result;
+
+    config = Configuration.parse(file);
+    if (config == null)
+      return result;
+
+    for (String name: config.getSections()) {
+      if (name == null)
+	continue;
+      section = config.getSection(name);
+      try {
+	result.add(new Budget(
+	  name,
+	  section.getString("prefix", ""),
+	  section.getString("device", ""),
+	  section.getDouble("bandwidth", 0.0),
+	  section.getInt("slots", 0)));
+      }
+      catch (Exception e) {
+	System.err.println("Invalid budget '" + name + "' in: " + file);
+	e.printStackTrace();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the file system of the path or its closest existing parent.
+   *
+   * @param path	the path to get the file system for
+   * @return		the file system, null if not available
+   */
+  protected static FileStore fileStore(String path) {
+    File	file;
+
+    file = new File(path).getAbsoluteFile();
+    while ((file != null) && !file.exists())
+      file = file.getParentFile();
+    if (file == null)
+      return null;
+    try {
+      return Files.getFileStore(file.toPath());
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the length of the match of the destination.
+   *
+   * @param dest	the destination to check
+   * @return		the length of the prefix or 0 for a device match, -1 if no match
+   */
+  protected int match(String dest) {
+    FileStore	store;
+
+    if (!m_Prefix.isEmpty() && dest.startsWith(m_Prefix))
+      return m_Prefix.length();
+    if ((m_DeviceStore != null) && Execute.isLocal(dest)) {
+      store = fileStore(dest);
+      if (m_DeviceStore.equals(store))
+	return 0;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the budget that applies to the session's destination. Prefix
+   * matches take precedence over device matches, longer prefixes over
+   * shorter ones.
+   *
+   * @param budgets	the budgets to choose from
+   * @param settings	the session
+   * @return		the budget, null if none applies
+   */
+  public static Budget find(List<Budget> budgets, Session settings) {
+    Budget	result;
+    int		best;
+    int		len;
+
+    result = null;
+    best   = -1;
+    for (Budget budget: budgets) {
+      len = budget.match(settings.getDestination());
+      if (len > best) {
+	best   = len;
+	result = budget;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Attempts to admit the run without blocking.
+   *
+   * @param exec	the run to admit
+   * @return		true if admitted
+   */
+  public boolean tryAcquire(Execute exec) {
+    if ((m_Semaphore != null) && !m_Semaphore.tryAcquire())
+      return false;
+    synchronized(this) {
+      m_Active.add(exec);
+    }
+    return true;
+  }
+
+  /**
+   * Admits the run, blocking until a slot is available.
+   *
+   * @param exec	the run to admit
+   * @throws InterruptedException	if interrupted while waiting
+   */
+  public void acquire(Execute exec) throws InterruptedException {
+    if (m_Semaphore != null)
+      m_Semaphore.acquire();
+    synchronized(this) {
+      m_Active.add(exec);
+    }
+  }
+
+  /**
+   * Releases the slot of the run.
+   *
+   * @param exec	the run that finished
+   */
+  public void release(Execute exec) {
+    boolean	removed;
+
+    synchronized(this) {
+      removed = m_Active.remove(exec);
+      m_Assigned.remove(exec);
+      notifyAll();
+    }
+    if (removed && (m_Semaphore != null))
+      m_Semaphore.release();
+  }
+
+  /**
+   * Returns the total bandwidth.
+   *
+   * @return		the bandwidth in KiB/s, 0 if unlimited
+   */
+  protected long total() {
+    return (long) (m_Bandwidth * 1000 * 1000 / 1024);
+  }
+
+  /**
+   * Returns the fair share of the bandwidth among the admitted runs.
+   *
+   * @return		the share in KiB/s, 0 if unlimited
+   */
+  protected synchronized long fair() {
+    return total() / Math.max(1, m_Active.size());
+  }
+
+  /**
+   * Returns the minimum bandwidth a run requires to get started.
+   *
+   * @return		the minimum in KiB/s, 0 if unlimited
+   * @see		#MIN_SHARE
+   */
+  public synchronized long minimum() {
+    if (m_Bandwidth <= 0)
+      return 0;
+    return Math.max(1, (long) (fair() * MIN_SHARE));
+  }
+
+  /**
+   * Returns the bandwidth not assigned to the other admitted runs. Runs
+   * without a limit yet (eg still waiting) count with the fair share.
+   *
+   * @param exec	the run to determine the bandwidth for
+   * @return		the available bandwidth in KiB/s, 0 if none left or unlimited
+   */
+  public synchronized long available(Execute exec) {
+    long	fair;
+    long	used;
+
+    if (m_Bandwidth <= 0)
+      return 0;
+
+    fair = fair();
+    used = 0;
+    for (Execute other: m_Active) {
+      if (other != exec)
+	used += m_Assigned.getOrDefault(other, fair);
+    }
+
+    return Math.max(0, total() - used);
+  }
+
+  /**
+   * Assigns the bandwidth limit for the admitted run: the bandwidth not
+   * assigned to the other runs. Waits until at least the {@link #minimum()}
+   * is available, ie the limits never exceed the budget.
+   *
+   * @param exec	the admitted run
+   * @return		the limit in KiB/s, 0 if unlimited
+   * @throws InterruptedException	if interrupted while waiting for bandwidth
+   */
+  public synchronized long assign(Execute exec) throws InterruptedException {
+    long	result;
+
+    if (m_Bandwidth <= 0)
+      return 0;
+
+    while ((result = available(exec)) < minimum())
+      wait(WAIT_INTERVAL);
+    m_Assigned.put(exec, result);
+
+    return result;
+  }
+
+  /**
+   * Returns a short description of the budget.
+   *
+   * @return		the description
+   */
+  @Override
+  public String toString() {
+    return m_Name
+      + ((m_Bandwidth > 0) ? ", " + m_Bandwidth + " MB/s" : "")
+      + ((m_Slots > 0) ? ", " + m_Slots + " slot(s)" : "");
+  }
+}
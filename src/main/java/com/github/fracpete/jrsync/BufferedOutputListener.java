@@ -0,0 +1,237 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BufferedOutputListener.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples rsync's output from (slow) consumers like GUI components.
+ * Lines get stored in a bounded ring buffer and are handed on in batches
+ * at a fixed frame rate from a separate thread. When the consumer falls
+ * behind, the overflow policy determines whether lines get dropped or the
+ * producer gets blocked.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BufferedOutputListener
+  implements OutputListener, AutoCloseable {
+
+  /**
+   * What to do when the buffer is full.
+   */
+  public enum OverflowPolicy {
+    /** block the producer until there is space (throttles rsync). */
+    BLOCK,
+    /** discard the oldest buffered lines. */
+    DROP_OLDEST,
+    /** discard new lines and output a line stating how many got dropped. */
+    SUMMARIZE,
+  }
+
+  /**
+   * Interface for consumers of batches of lines.
+   */
+  public interface BatchListener {
+
+    /**
+     * Gets called with the lines collected since the last flush.
+     *
+     * @param lines	the lines
+     * @param stdout	whether the corresponding line is from stdout or stderr
+     * @param count	the number of valid entries in the arrays
+     */
+    public void outputOccurred(String[] lines, boolean[] stdout, int count);
+  }
+
+  /** the default capacity. */
+  public final static int DEFAULT_CAPACITY = 10000;
+
+  /** the default frames per second. */
+  public final static int DEFAULT_FPS = 10;
+
+  /** the consumer. */
+  protected BatchListener m_Owner;
+
+  /** the overflow policy. */
+  protected OverflowPolicy m_Policy;
+
+  /** the buffered lines. */
+  protected String[] m_Lines;
+
+  /** the stdout flags. */
+  protected boolean[] m_Stdout;
+
+  /** the position of the oldest line. */
+  protected int m_Head;
+
+  /** the number of buffered lines. */
+  protected int m_Count;
+
+  /** the number of lines dropped since the last flush. */
+  protected long m_Dropped;
+
+  /** the total number of dropped lines. */
+  protected long m_TotalDropped;
+
+  /** the flushing thread. */
+  protected ScheduledExecutorService m_Flusher;
+
+  /**
+   * Initializes the listener with default capacity, frame rate and the
+   * {@link OverflowPolicy#SUMMARIZE} policy.
+   *
+   * @param owner	the consumer of the batches
+   */
+  public BufferedOutputListener(BatchListener owner) {
+    this(owner, DEFAULT_CAPACITY, DEFAULT_FPS, OverflowPolicy.SUMMARIZE);
+  }
+
+  /**
+   * Initializes the listener.
+   *
+   * @param owner	the consumer of the batches
+   * @param capacity	the maximum number of lines to buffer
+   * @param fps		the number of flushes per second
+   * @param policy	the overflow policy
+   */
+  public BufferedOutputListener(BatchListener owner, int capacity, int fps, OverflowPolicy policy) {
+    m_Owner   = owner;
+    m_Policy  = policy;
+    m_Lines   = new String[Math.max(1, capacity)];
+    m_Stdout  = new boolean[m_Lines.length];
+    m_Flusher = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread t = new Thread(r, "jrsync-output-flusher");
+      t.setDaemon(true);
+      return t;
+    });
+    m_Flusher.scheduleAtFixedRate(this::flush, 0, 1000 / Math.max(1, fps), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the total number of lines that got dropped.
+   *
+   * @return		the number of lines
+   */
+  public synchronized long getTotalDropped() {
+    return m_TotalDropped;
+  }
+
+  /**
+   * Gets called whenever rsync generates output.
+   *
+   * @param line	the generated output
+   * @param stdout	true if stdout, stderr otherwise
+   */
+  public synchronized void outputOccurred(String line, boolean stdout) {
+    int		pos;
+
+    if (m_Count == m_Lines.length) {
+      switch (m_Policy) {
+	case BLOCK:
+	  while (m_Count == m_Lines.length) {
+	    try {
+	      wait();
+	    }
+	    catch (InterruptedException e) {
+	      Thread.currentThread().interrupt();
+	      return;
+	    }
+	  }
+	  break;
+	case DROP_OLDEST:
+	  m_Head = (m_Head + 1) % m_Lines.length;
+	  m_Count--;
+	  m_Dropped++;
+	  m_TotalDropped++;
+	  break;
+	case SUMMARIZE:
+	  m_Dropped++;
+	  m_TotalDropped++;
+	  return;
+      }
+    }
+
+    pos           = (m_Head + m_Count) % m_Lines.length;
+    m_Lines[pos]  = line;
+    m_Stdout[pos] = stdout;
+    m_Count++;
+  }
+
+  /**
+   * Hands the buffered lines on to the consumer.
+   */
+  public void flush() {
+    String[]	lines;
+    boolean[]	stdout;
+    int		count;
+    int		pos;
+    int		i;
+
+    synchronized(this) {
+      if ((m_Count == 0) && (m_Dropped == 0))
+	return;
+      count  = m_Count + ((m_Dropped > 0) ? 1 : 0);
+      lines  = new String[count];
+      stdout = new boolean[count];
+      for (i = 0; i < m_Count; i++) {
+	pos           = (m_Head + i) % m_Lines.length;
+	lines[i]      = m_Lines[pos];
+	stdout[i]     = m_Stdout[pos];
+	m_Lines[pos]  = null;
+      }
+      if (m_Dropped > 0) {
+	lines[count - 1]  = "[... " + m_Dropped + " line(s) of output dropped ...]";
+	stdout[count - 1] = false;
+      }
+      m_Head    = 0;
+      m_Count   = 0;
+      m_Dropped = 0;
+      notifyAll();
+    }
+
+    try {
+      m_Owner.outputOccurred(lines, stdout, count);
+    }
+    catch (Exception e) {
+      System.err.println("Failed to flush output!");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stops the flushing thread and flushes any remaining lines.
+   */
+  @Override
+  public void close() {
+    m_Flusher.shutdown();
+    try {
+      m_Flusher.awaitTermination(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ChecksumCache.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Manifest that additionally stores a content hash per file, for sessions
+ * that always checksum. Files whose size, mtime and file key are unchanged
+ * since the last successful run are assumed to have unchanged content; only
+ * the remaining files get hashed (in parallel), and only files whose content
+ * actually changed (or whose attributes changed, if these are preserved)
+ * are handed to rsync. The hash combines CRC32C and CRC32 into 64 bits, both
+ * being hardware accelerated.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ChecksumCache
+  extends Manifest {
+
+  /** the magic number of the file format. */
+  public final static int MAGIC = 0x6A724373;
+
+  /** the buffer size for hashing. */
+  public final static int BUFFER_SIZE = 1024 * 1024;
+
+  /** whether changed attributes (without content change) require a transfer. */
+  protected boolean m_Attributes;
+
+  /** the number of files hashed in the last diff. */
+  protected int m_Hashed;
+
+  /**
+   * Initializes the cache.
+   *
+   * @param session	the session the cache belongs to
+   * @param source	the local source directory
+   * @param optionsHash	the hash of the session's options
+   * @param attributes	whether changed attributes (without content change) require a transfer
+   */
+  public ChecksumCache(String session, String source, String optionsHash, boolean attributes) {
+    super(session, source, optionsHash);
+    m_Attributes = attributes;
+  }
+
+  /**
+   * Returns the directory the caches are stored in.
+   *
+   * @return		the directory
+   */
+  @Override
+  public String getDirectory() {
+    return Configuration.configurationDirectory() + File.separator + "checksums";
+  }
+
+  /**
+   * Returns the magic number of the file format.
+   *
+   * @return		the magic number
+   */
+  @Override
+  protected int getMagic() {
+    return MAGIC;
+  }
+
+  /**
+   * Reads the next entry.
+   *
+   * @param in		the stream to read from
+   * @param prev	the previous path
+   * @return		the entry, null if no more available
+   * @throws IOException	if reading fails
+   */
+  @Override
+  protected Entry read(DataInputStream in, String prev) throws IOException {
+    Entry	result;
+
+    result = super.read(in, prev);
+    if (result != null)
+      result.hash = in.readLong();
+
+    return result;
+  }
+
+  /**
+   * Writes the entry.
+   *
+   * @param out		the stream to write to
+   * @param entry	the entry to write
+   * @param prev	the previous path
+   * @throws IOException	if writing fails
+   */
+  @Override
+  protected void write(DataOutputStream out, Entry entry, String prev) throws IOException {
+    super.write(out, entry, prev);
+    out.writeLong(entry.hash);
+  }
+
+  /**
+   * Hashes the content of the file.
+   *
+   * @param file	the file to hash
+   * @return		the hash, 0 if failed to read (eg a link)
+   */
+  public static long hash(File file) {
+    CRC32C	crc32c;
+    CRC32	crc32;
+    ByteBuffer	buffer;
+
+    crc32c = new CRC32C();
+    crc32  = new CRC32();
+    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+      while (in.read(buffer) > -1) {
+	buffer.flip();
+	crc32c.update(buffer.duplicate());
+	crc32.update(buffer);
+	buffer.clear();
+      }
+    }
+    catch (IOException e) {
+      return 0;
+    }
+
+    return (crc32c.getValue() << 32) | crc32.getValue();
+  }
+
+  /**
+   * Returns the number of files that got hashed in the last diff.
+   *
+   * @return		the number of files
+   */
+  public int getHashed() {
+    return m_Hashed;
+  }
+
+  /**
+   * Compares the scan with the stored cache and returns the paths that were
+   * added, removed or whose content (or attributes, if required) changed.
+   * Only files with changed size, mtime or file key get hashed.
+   *
+   * @return		the paths (relative to the source), null if no usable cache stored
+   * @throws IOException	if reading the cache fails
+   */
+  @Override
+  public List<String> diff() throws IOException {
+    List<String>	result;
+    List<Entry>		changed;
+    List<Entry>		previous;
+    Entry		old;
+    int			i;
+    int			cmp;
+
+    if (m_Entries == null)
+      throw new IllegalStateException("Source has not been scanned yet!");
+
+    result   = new ArrayList<>();
+    changed  = new ArrayList<>();
+    previous = new ArrayList<>();
+    try (DataInputStream in = open()) {
+      if (in == null)
+	return null;
+
+      // merge the two sorted lists
+      i   = 0;
+      old = read(in, "");
+      while ((old != null) || (i < m_Entries.length)) {
+	if (old == null)
+	  cmp = 1;
+	else if (i == m_Entries.length)
+	  cmp = -1;
+	else
+	  cmp = old.path.compareTo(m_Entries[i].path);
+
+	if (cmp < 0) {
+	  result.add(old.path);
+	  old = read(in, old.path);
+	}
+	else if (cmp > 0) {
+	  changed.add(m_Entries[i]);
+	  previous.add(null);
+	  i++;
+	}
+	else {
+	  if (old.isUnchanged(m_Entries[i])) {
+	    m_Entries[i].hash = old.hash;
+	  }
+	  else {
+	    changed.add(m_Entries[i]);
+	    previous.add(old);
+	  }
+	  old = read(in, old.path);
+	  i++;
+	}
+      }
+    }
+
+    // hash the changed files
+    m_Hashed = changed.size();
+    changed.parallelStream().forEach((Entry e) -> e.hash = hash(new File(m_Source, e.path)));
+    for (i = 0; i < changed.size(); i++) {
+      old = previous.get(i);
+      if ((old == null) || (old.hash == 0) || (old.hash != changed.get(i).hash) || m_Attributes)
+	result.add(changed.get(i).path);
+    }
+
+    return result;
+  }
+}
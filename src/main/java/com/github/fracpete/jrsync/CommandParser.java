@@ -0,0 +1,164 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CommandParser.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.apache.commons.lang3.SystemUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits command strings (eg the hooks before/after rsync) into commands and
+ * arguments, similar to a POSIX shell: whitespace separates arguments,
+ * single quotes preserve everything literally, double quotes preserve
+ * everything but backslash escapes. Outside of quotes, a backslash only
+ * escapes whitespace, quotes, semicolons and backslashes, so that other
+ * backslashes (eg in Windows paths) stay as they are. On Windows,
+ * backslashes are never treated as escapes. Multiple commands are separated
+ * by unquoted semicolons. No variables, globs or redirections are
+ * supported; use eg "sh -c '...'" for these.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CommandParser {
+
+  /** the help for the quoting rules, eg for tooltips. */
+  public final static String HELP =
+    "Multiple commands are separated by ';', arguments by whitespace; "
+      + "use single/double quotes for arguments with whitespace or ';'"
+      + (SystemUtils.IS_OS_WINDOWS ? "" : ", or escape these characters with '\\'")
+      + ". Runs without shell, use eg \"sh -c '...'\" for pipes or redirections.";
+
+  /**
+   * Parses the string into commands, each consisting of its arguments.
+   *
+   * @param commands	the command(s) to parse
+   * @return		the commands, empty commands get omitted
+   * @throws IllegalArgumentException	if a quote is not closed
+   */
+  public static List<List<String>> parse(String commands) {
+    return parse(commands, SystemUtils.IS_OS_WINDOWS);
+  }
+
+  /**
+   * Parses the string into commands, each consisting of its arguments.
+   *
+   * @param commands	the command(s) to parse
+   * @param windows	whether to keep all backslashes (Windows paths)
+   * @return		the commands, empty commands get omitted
+   * @throws IllegalArgumentException	if a quote is not closed
+   */
+  public static List<List<String>> parse(String commands, boolean windows) {
+    List<List<String>>	result;
+    List<String>	args;
+    StringBuilder	current;
+    boolean		inArg;
+    char		quote;
+    char		c;
+    int			i;
+
+    result  = new ArrayList<>();
+    args    = new ArrayList<>();
+    current = new StringBuilder();
+    inArg   = false;
+    quote   = 0;
+    for (i = 0; i < commands.length(); i++) {
+      c = commands.charAt(i);
+      if (quote == '\'') {
+	if (c == '\'')
+	  quote = 0;
+	else
+	  current.append(c);
+      }
+      else if (quote == '"') {
+	if (c == '"')
+	  quote = 0;
+	else if (!windows && (c == '\\') && (i < commands.length() - 1) && ("\"\\$`".indexOf(commands.charAt(i + 1)) > -1))
+	  current.append(commands.charAt(++i));
+	else
+	  current.append(c);
+      }
+      else if ((c == '\'') || (c == '"')) {
+	quote = c;
+	inArg = true;
+      }
+      else if (!windows && (c == '\\') && (i < commands.length() - 1) && isEscapable(commands.charAt(i + 1))) {
+	current.append(commands.charAt(++i));
+	inArg = true;
+      }
+      else if (Character.isWhitespace(c) || (c == ';')) {
+	if (inArg) {
+	  args.add(current.toString());
+	  current.setLength(0);
+	  inArg = false;
+	}
+	if ((c == ';') && !args.isEmpty()) {
+	  result.add(args);
+	  args = new ArrayList<>();
+	}
+      }
+      else {
+	current.append(c);
+	inArg = true;
+      }
+    }
+    if (quote != 0)
+      throw new IllegalArgumentException("Unclosed quote (" + quote + ") in: " + commands);
+    if (inArg)
+      args.add(current.toString());
+    if (!args.isEmpty())
+      result.add(args);
+
+    return result;
+  }
+
+  /**
+   * Returns whether a backslash outside of quotes escapes the character.
+   *
+   * @param c		the character following the backslash
+   * @return		true if escaped
+   */
+  protected static boolean isEscapable(char c) {
+    return Character.isWhitespace(c) || (c == '\'') || (c == '"') || (c == ';') || (c == '\\');
+  }
+
+  /**
+   * Turns the arguments back into a string for output.
+   *
+   * @param args	the arguments
+   * @return		the command string, with arguments quoted where necessary
+   */
+  public static String toString(List<String> args) {
+    StringBuilder	result;
+
+    result = new StringBuilder();
+    for (String arg: args) {
+      if (result.length() > 0)
+	result.append(" ");
+      if (arg.isEmpty() || !arg.matches("[A-Za-z0-9_@%+=:,./-]+"))
+	result.append("'").append(arg.replace("'", "'\\''")).append("'");
+      else
+	result.append(arg);
+    }
+
+    return result.toString();
+  }
+}
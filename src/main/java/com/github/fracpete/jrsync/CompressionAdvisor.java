@@ -0,0 +1,370 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CompressionAdvisor.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+/**
+ * Samples the files of a local source directory per file extension and
+ * measures how well they compress, in order to decide whether compression
+ * pays off at all and which extensions to exclude via --skip-compress.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CompressionAdvisor {
+
+  /** the maximum number of files to look at. */
+  public final static int MAX_FILES = 100000;
+
+  /** the maximum number of files to sample per extension. */
+  public final static int SAMPLES_PER_EXTENSION = 8;
+
+  /** the number of bytes to sample per file. */
+  public final static int SAMPLE_SIZE = 64 * 1024;
+
+  /** the ratio (compressed/original) above which an extension counts as incompressible. */
+  public final static double THRESHOLD = 0.9;
+
+  /** the minimum fraction of the bytes that compression has to save to get used at all. */
+  public final static double MIN_SAVING = 0.05;
+
+  /** the extensions rsync skips by default (replaced when using --skip-compress). */
+  public final static List<String> DEFAULT_SKIP = Arrays.asList(
+    "3g2", "3gp", "7z", "aac", "ace", "apk", "avi", "bz2", "deb", "dmg", "ear", "f4v", "flac", "flv",
+    "gpg", "gz", "iso", "jar", "jpeg", "jpg", "lrz", "lz", "lz4", "lzma", "lzo", "m1a", "m1v", "m2a",
+    "m2ts", "m2v", "m4a", "m4b", "m4p", "m4r", "m4v", "mka", "mkv", "mov", "mp1", "mp2", "mp3", "mp4",
+    "mpa", "mpeg", "mpg", "mpv", "mts", "odb", "odf", "odg", "odi", "odm", "odp", "ods", "odt", "oga",
+    "ogg", "ogm", "ogv", "ogx", "opus", "otg", "oth", "otp", "ots", "ott", "oxt", "png", "qt", "rar",
+    "rpm", "rz", "rzip", "spx", "squashfs", "sxc", "sxd", "sxg", "sxm", "sxw", "sz", "tbz", "tbz2",
+    "tgz", "tlz", "ts", "txz", "tzo", "vob", "war", "webm", "webp", "xz", "z", "zip", "zst");
+
+  /**
+   * The statistics for a single extension.
+   */
+  public static class Stats {
+
+    /** the number of files. */
+    public long files;
+
+    /** the total size of the files. */
+    public long bytes;
+
+    /** the number of sampled files. */
+    public int samples;
+
+    /** the number of sampled bytes. */
+    public long sampledBytes;
+
+    /** the number of bytes after compressing the samples. */
+    public long compressedBytes;
+
+    /** the time spent compressing the samples (nanoseconds). */
+    public long nanos;
+
+    /**
+     * Returns the compression ratio of the samples.
+     *
+     * @return		the ratio (compressed/original), 1 if not sampled
+     */
+    public double getRatio() {
+      if (sampledBytes == 0)
+	return 1.0;
+      return (double) compressedBytes / sampledBytes;
+    }
+
+    /**
+     * Returns whether the extension compresses well enough.
+     *
+     * @return		true if compressible
+     */
+    public boolean isCompressible() {
+      return (sampledBytes > 0) && (getRatio() < THRESHOLD);
+    }
+  }
+
+  /** the source directory. */
+  protected File m_Source;
+
+  /** the statistics per extension (lower case, empty for none). */
+  protected Map<String,Stats> m_Stats;
+
+  /** the number of files looked at. */
+  protected long m_Files;
+
+  /** the total size of the files. */
+  protected long m_Bytes;
+
+  /** the time the analysis took in msec. */
+  protected long m_Duration;
+
+  /** the buffer for reading samples. */
+  protected byte[] m_Buffer;
+
+  /** the buffer for compressing samples. */
+  protected byte[] m_Output;
+
+  /**
+   * Initializes the advisor.
+   *
+   * @param source	the local source directory
+   */
+  public CompressionAdvisor(File source) {
+    m_Source = source;
+    m_Stats  = new TreeMap<>();
+    m_Buffer = new byte[SAMPLE_SIZE];
+    m_Output = new byte[SAMPLE_SIZE + 1024];
+  }
+
+  /**
+   * Returns the lower case extension of the file name.
+   *
+   * @param name	the file name
+   * @return		the extension, empty if none or unsuitable for --skip-compress
+   */
+  protected static String extension(String name) {
+    String	result;
+    int		pos;
+
+    pos = name.lastIndexOf('.');
+    if ((pos <= 0) || (pos == name.length() - 1))
+      return "";
+    result = name.substring(pos + 1).toLowerCase();
+    if (!result.matches("[a-z0-9_+-]+"))
+      return "";
+    return result;
+  }
+
+  /**
+   * Compresses the start of the file and updates the statistics.
+   *
+   * @param file	the file to sample
+   * @param stats	the statistics to update
+   * @throws IOException	if reading fails
+   */
+  protected void sample(Path file, Stats stats) throws IOException {
+    Deflater	deflater;
+    int		len;
+    int		read;
+    long	start;
+    long	compressed;
+
+    len = 0;
+    try (InputStream in = Files.newInputStream(file)) {
+      while ((len < m_Buffer.length) && ((read = in.read(m_Buffer, len, m_Buffer.length - len)) > -1))
+	len += read;
+    }
+    if (len == 0)
+      return;
+
+    deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      start = System.nanoTime();
+      deflater.setInput(m_Buffer, 0, len);
+      deflater.finish();
+      compressed = 0;
+      while (!deflater.finished())
+	compressed += deflater.deflate(m_Output);
+      stats.nanos += System.nanoTime() - start;
+    }
+    finally {
+      deflater.end();
+    }
+    stats.samples++;
+    stats.sampledBytes    += len;
+    stats.compressedBytes += compressed;
+  }
+
+  /**
+   * Walks the source directory (up to {@link #MAX_FILES} files) and samples
+   * the files.
+   *
+   * @throws IOException	if walking the directory fails
+   */
+  public void analyze() throws IOException {
+    long	start;
+
+    start = System.currentTimeMillis();
+    Files.walkFileTree(m_Source.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+	Stats stats;
+	if (!attrs.isRegularFile())
+	  return FileVisitResult.CONTINUE;
+	stats = m_Stats.computeIfAbsent(extension(file.getFileName().toString()), (String k) -> new Stats());
+	stats.files++;
+	stats.bytes += attrs.size();
+	m_Files++;
+	m_Bytes += attrs.size();
+	if ((stats.samples < SAMPLES_PER_EXTENSION) && (attrs.size() > 0)) {
+	  try {
+	    sample(file, stats);
+	  }
+	  catch (IOException e) {
+	    // unreadable files get reported by rsync
+	  }
+	}
+	return (m_Files < MAX_FILES) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) {
+	return FileVisitResult.CONTINUE;
+      }
+    });
+    m_Duration = System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Returns the statistics per extension.
+   *
+   * @return		the statistics
+   */
+  public Map<String,Stats> getStats() {
+    return m_Stats;
+  }
+
+  /**
+   * Returns the estimated number of bytes that compression saves.
+   *
+   * @return		the bytes
+   */
+  public long getEstimatedBytesSaved() {
+    long	result;
+
+    result = 0;
+    for (Stats stats: m_Stats.values()) {
+      if (stats.isCompressible())
+	result += (long) (stats.bytes * (1.0 - stats.getRatio()));
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns whether compression pays off at all.
+   *
+   * @return		true if to compress
+   */
+  public boolean isCompress() {
+    return (m_Bytes > 0) && (getEstimatedBytesSaved() >= m_Bytes * MIN_SAVING);
+  }
+
+  /**
+   * Returns the extensions to skip when compressing: rsync's defaults plus
+   * the sampled incompressible ones, minus the sampled compressible ones.
+   *
+   * @return		the extensions, sorted
+   */
+  public List<String> getSkipCompress() {
+    TreeSet<String>	result;
+
+    result = new TreeSet<>(DEFAULT_SKIP);
+    for (Map.Entry<String,Stats> entry: m_Stats.entrySet()) {
+      if (entry.getKey().isEmpty() || (entry.getValue().sampledBytes == 0))
+	continue;
+      if (entry.getValue().isCompressible())
+	result.remove(entry.getKey());
+      else
+	result.add(entry.getKey());
+    }
+
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * Returns the number of bytes that get skipped for compression.
+   *
+   * @return		the bytes
+   */
+  public long getSkippedBytes() {
+    long	result;
+
+    result = 0;
+    for (Map.Entry<String,Stats> entry: m_Stats.entrySet()) {
+      if (!entry.getKey().isEmpty() && (entry.getValue().sampledBytes > 0) && !entry.getValue().isCompressible())
+	result += entry.getValue().bytes;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the estimated CPU time that skipping incompressible data saves,
+   * based on the speed of compressing the samples.
+   *
+   * @return		the time in msec
+   */
+  public long getEstimatedCpuSaved() {
+    long	nanos;
+    long	sampled;
+
+    nanos   = 0;
+    sampled = 0;
+    for (Stats stats: m_Stats.values()) {
+      nanos   += stats.nanos;
+      sampled += stats.sampledBytes;
+    }
+    if (sampled == 0)
+      return 0;
+    if (isCompress())
+      return (long) ((double) nanos / sampled * getSkippedBytes() / 1000000);
+    else
+      return (long) ((double) nanos / sampled * m_Bytes / 1000000);
+  }
+
+  /**
+   * Returns a summary of the analysis.
+   *
+   * @return		the summary
+   */
+  public String getSummary() {
+    int		incompressible;
+
+    incompressible = 0;
+    for (Map.Entry<String,Stats> entry: m_Stats.entrySet()) {
+      if (!entry.getKey().isEmpty() && (entry.getValue().sampledBytes > 0) && !entry.getValue().isCompressible())
+	incompressible++;
+    }
+
+    return "Sampled " + m_Files + " file(s) with " + m_Stats.size() + " extension(s) in " + m_Duration + "ms"
+      + ((m_Files >= MAX_FILES) ? " (stopped after " + MAX_FILES + " files)" : "") + ": "
+      + (isCompress()
+	? "compressing, skipping " + incompressible + " incompressible extension(s) ("
+	  + ProgressTracker.formatBytes(getSkippedBytes()) + " of " + ProgressTracker.formatBytes(m_Bytes) + ")"
+	: "not compressing (" + ProgressTracker.formatBytes(m_Bytes) + " mostly incompressible)")
+      + ", est. bytes saved: " + ProgressTracker.formatBytes(isCompress() ? getEstimatedBytesSaved() : 0)
+      + ", est. CPU saved: " + getEstimatedCpuSaved() + "ms";
+  }
+}
@@ -31,7 +31,11 @@ import org.apache.commons.lang3.SystemUtils;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Manages the configurations.
@@ -43,6 +47,15 @@ public class Configuration {
   /** the name of the default session. */
   public final static String DEFAULT = "default";
 
+  /** the last parsed configuration. */
+  protected static INIConfiguration m_Cache;
+
+  /** the modification time of the file when it was parsed. */
+  protected static long m_CacheModified;
+
+  /** the size of the file when it was parsed. */
+  protected static long m_CacheSize;
+
   /**
    * Returns the configuration directory to use.
    *
@@ -69,55 +82,93 @@ public class Configuration {
   }
 
   /**
-   * Reads the configuration.
+   * Returns the expression engine to use for the configuration.
+   *
+   * @return		the engine
+   */
+  protected static DefaultExpressionEngine newExpressionEngine() {
+    return new DefaultExpressionEngine(
+      DefaultExpressionEngineSymbols.DEFAULT_SYMBOLS,
+      NodeNameMatchers.EQUALS_IGNORE_CASE);
+  }
+
+  /**
+   * Reads the configuration. The parsed configuration gets cached and is
+   * only parsed again if the modification time or size of the file changed.
+   * Since the node tree is immutable, the returned copy of the cached
+   * configuration is cheap and can be modified freely.
    *
    * @return		null if failed to read, empty if not present (yet)
    */
-  public static INIConfiguration read() {
-    DefaultExpressionEngine 				engine;
-    Parameters 						params;
-    FileBasedConfigurationBuilder<INIConfiguration> 	builder;
-    File						file;
+  public static synchronized INIConfiguration read() {
+    File		file;
+    INIConfiguration	result;
 
     file = new File(configurationFile());
     if (!file.exists())
       return new INIConfiguration();
 
-    engine = new DefaultExpressionEngine(
-      DefaultExpressionEngineSymbols.DEFAULT_SYMBOLS,
-      NodeNameMatchers.EQUALS_IGNORE_CASE);
+    if ((m_Cache == null) || (file.lastModified() != m_CacheModified) || (file.length() != m_CacheSize)) {
+      m_CacheModified = file.lastModified();
+      m_CacheSize     = file.length();
+      m_Cache         = parse(file);
+      if (m_Cache == null)
+	return null;
+    }
+
+    result = new INIConfiguration(m_Cache);
+    result.setExpressionEngine(newExpressionEngine());
+    return result;
+  }
+
+  /**
+   * Parses the configuration file.
+   *
+   * @param file	the file to parse
+   * @return		the configuration, null if failed to parse
+   */
+  protected static INIConfiguration parse(File file) {
+    DefaultExpressionEngine 				engine;
+    Parameters 						params;
+    FileBasedConfigurationBuilder<INIConfiguration> 	builder;
 
+    engine = newExpressionEngine();
     params = new Parameters();
     builder =
       new FileBasedConfigurationBuilder<>(INIConfiguration.class)
 	.configure(params.hierarchical()
-	  .setFileName(configurationFile())
+	  .setFile(file)
 	  .setExpressionEngine(engine));
     try {
       return builder.getConfiguration();
     }
     catch (Exception e) {
-      System.err.println("Failed to parse: " + configurationFile());
+      System.err.println("Failed to parse: " + file);
       e.printStackTrace();
       return null;
     }
   }
 
   /**
-   * Writes the configuration to disk.
+   * Writes the configuration to disk. The configuration gets written to a
+   * temporary file first, which then replaces the actual file in an atomic
+   * move (if supported by the file system), i.e., a crash while writing
+   * never leaves a truncated configuration file behind.
    *
    * @param config	the configuration to write
    * @return		null if successfully written, otherwise error message
    */
   public static String write(INIConfiguration config) {
-    FileWriter		fwriter;
+    FileOutputStream	fos;
     BufferedWriter	bwriter;
     File		file;
+    File		tmp;
     File		dir;
 
-    fwriter = null;
+    fos     = null;
     bwriter = null;
     file    = new File(configurationFile());
+    tmp     = new File(configurationFile() + ".tmp");
     dir     = file.getParentFile();
     if (!dir.exists()) {
       if (!dir.mkdirs())
@@ -125,9 +176,25 @@ public class Configuration {
     }
 
     try {
-      fwriter = new FileWriter(file);
-      bwriter = new BufferedWriter(fwriter);
+      fos     = new FileOutputStream(tmp);
+      bwriter = new BufferedWriter(new OutputStreamWriter(fos));
       config.write(bwriter);
+      bwriter.flush();
+      fos.getFD().sync();
+      bwriter.close();
+      bwriter = null;
+      fos     = null;
+      try {
+	Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+	Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      synchronized(Configuration.class) {
+	m_Cache         = new INIConfiguration(config);
+	m_CacheModified = file.lastModified();
+	m_CacheSize     = file.length();
+      }
       return null;
     }
     catch (Exception e) {
@@ -137,7 +204,9 @@ public class Configuration {
     }
     finally {
       FileUtils.closeQuietly(bwriter);
-      FileUtils.closeQuietly(fwriter);
+      FileUtils.closeQuietly(fos);
+      if (tmp.exists() && !tmp.delete())
+	System.err.println("Failed to remove temporary configuration file: " + tmp);
     }
   }
 
@@ -154,6 +223,16 @@ public class Configuration {
     config.setProperty(session + ".text_com_before", "");
     config.setProperty(session + ".text_com_after", "");
     config.setProperty(session + ".text_addit", "");
+    config.setProperty(session + ".text_shards", "1");
+    config.setProperty(session + ".text_schedule", "");
+    config.setProperty(session + ".text_watch_delay", "5");
+    config.setProperty(session + ".text_manifest_full_hours", "24");
+    config.setProperty(session + ".text_stall_timeout", "0");
+    config.setProperty(session + ".text_retries", "0");
+    config.setProperty(session + ".text_retry_delay", "30");
+    config.setProperty(session + ".text_timeout", "0");
+    config.setProperty(session + ".text_dryrun_reuse", "0");
+    config.setProperty(session + ".text_fanout", "");
     config.setProperty(session + ".check_time", false);
     config.setProperty(session + ".check_perm", false);
     config.setProperty(session + ".check_owner", false);
@@ -178,10 +257,19 @@ public class Configuration {
     config.setProperty(session + ".check_itemized", false);
     config.setProperty(session + ".check_norecur", false);
     config.setProperty(session + ".check_protectargs", false);
+    config.setProperty(session + ".check_superuser", false);
     config.setProperty(session + ".check_com_before", false);
     config.setProperty(session + ".check_com_halt", false);
     config.setProperty(session + ".check_com_after", false);
     config.setProperty(session + ".check_com_onerror", false);
+    config.setProperty(session + ".check_com_parallel", false);
+    config.setProperty(session + ".text_com_timeout", "0");
     config.setProperty(session + ".check_browse_files", false);
+    config.setProperty(session + ".check_schedule_queue", false);
+    config.setProperty(session + ".check_watch", false);
+    config.setProperty(session + ".check_manifest", false);
+    config.setProperty(session + ".check_native_engine", false);
+    config.setProperty(session + ".check_checksum_cache", false);
+    config.setProperty(session + ".check_compr_auto", false);
   }
 }
\ No newline at end of file
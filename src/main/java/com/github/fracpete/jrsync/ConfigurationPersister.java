@@ -0,0 +1,146 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ConfigurationPersister.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.apache.commons.configuration2.INIConfiguration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debounced write-behind persistence of the configuration: edits get
+ * coalesced and the configuration is only written once no further changes
+ * occurred for the specified delay. Pending changes get written when
+ * flushing or when the JVM shuts down.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ConfigurationPersister {
+
+  /** the default delay in msec. */
+  public final static int DEFAULT_DELAY = 2000;
+
+  /** the delay in msec. */
+  protected int m_Delay;
+
+  /** the executor for writing. */
+  protected ScheduledExecutorService m_Executor;
+
+  /** the pending configuration to write, null if none. */
+  protected INIConfiguration m_Pending;
+
+  /** the scheduled write, null if none. */
+  protected ScheduledFuture<?> m_Scheduled;
+
+  /** the last error, null if none. */
+  protected String m_LastError;
+
+  /** for serializing the writes. */
+  protected final Object m_WriteLock = new Object();
+
+  /**
+   * Initializes the persister with the default delay.
+   */
+  public ConfigurationPersister() {
+    this(DEFAULT_DELAY);
+  }
+
+  /**
+   * Initializes the persister.
+   *
+   * @param delay	the delay in msec after the last change before writing
+   */
+  public ConfigurationPersister(int delay) {
+    m_Delay    = delay;
+    m_Executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread t = new Thread(r, "jrsync-config-persister");
+      t.setDaemon(true);
+      return t;
+    });
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "jrsync-config-persister-shutdown"));
+  }
+
+  /**
+   * Schedules the configuration to be written. Must be called from the
+   * thread that modifies the configuration; a (cheap) copy is taken
+   * immediately, so the configuration can continue to be modified.
+   *
+   * @param config	the configuration to write
+   */
+  public synchronized void schedule(INIConfiguration config) {
+    m_Pending = new INIConfiguration(config);
+    if (m_Scheduled != null)
+      m_Scheduled.cancel(false);
+    m_Scheduled = m_Executor.schedule(this::flush, m_Delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns whether there are changes that haven't been written yet.
+   *
+   * @return		true if changes pending
+   */
+  public synchronized boolean isPending() {
+    return (m_Pending != null);
+  }
+
+  /**
+   * Returns the error of the last write.
+   *
+   * @return		null if successful or nothing written yet, otherwise error message
+   */
+  public synchronized String getLastError() {
+    return m_LastError;
+  }
+
+  /**
+   * Writes any pending changes immediately.
+   *
+   * @return		null if successful or nothing to write, otherwise error message
+   */
+  public String flush() {
+    INIConfiguration	config;
+    String		result;
+
+    // only one write at a time; the pending copy is taken inside the lock,
+    // so an older copy can never overwrite a newer one
+    synchronized(m_WriteLock) {
+      synchronized(this) {
+	config    = m_Pending;
+	m_Pending = null;
+	if (m_Scheduled != null) {
+	  m_Scheduled.cancel(false);
+	  m_Scheduled = null;
+	}
+      }
+      if (config == null)
+	return null;
+
+      result = Configuration.write(config);
+      synchronized(this) {
+	m_LastError = result;
+      }
+    }
+
+    return result;
+  }
+}
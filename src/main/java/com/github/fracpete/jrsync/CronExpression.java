@@ -0,0 +1,187 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CronExpression.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+
+/**
+ * Standard 5-field cron expression: minute, hour, day of month, month and
+ * day of week. Supports '*', single values, ranges ('a-b'), steps ('*&#47;n',
+ * 'a-b/n') and comma-separated lists of these. Day of week is 0-7 (0 and 7
+ * are Sunday). If both day of month and day of week are restricted, either
+ * one has to match (like cron does); like cron, fields starting with '*'
+ * (eg '*&#47;2') don't count as restricted.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CronExpression {
+
+  /** the expression. */
+  protected String m_Expression;
+
+  /** the minutes. */
+  protected BitSet m_Minutes;
+
+  /** the hours. */
+  protected BitSet m_Hours;
+
+  /** the days of month. */
+  protected BitSet m_DaysOfMonth;
+
+  /** the months. */
+  protected BitSet m_Months;
+
+  /** the days of week (0=Sunday). */
+  protected BitSet m_DaysOfWeek;
+
+  /** whether day of month is restricted (ie not starting with '*'). */
+  protected boolean m_DayOfMonthRestricted;
+
+  /** whether day of week is restricted (ie not starting with '*'). */
+  protected boolean m_DayOfWeekRestricted;
+
+  /**
+   * Parses the expression.
+   *
+   * @param expression	the expression to parse
+   * @throws IllegalArgumentException	if the expression is invalid
+   */
+  public CronExpression(String expression) {
+    String[]	fields;
+
+    m_Expression = expression.trim();
+    fields       = m_Expression.split("\\s+");
+    if (fields.length != 5)
+      throw new IllegalArgumentException("Expected 5 fields (minute hour day-of-month month day-of-week): " + expression);
+
+    m_Minutes              = parse(fields[0], 0, 59);
+    m_Hours                = parse(fields[1], 0, 23);
+    m_DaysOfMonth          = parse(fields[2], 1, 31);
+    m_Months               = parse(fields[3], 1, 12);
+    m_DaysOfWeek           = parse(fields[4], 0, 7);
+    m_DayOfMonthRestricted = !fields[2].startsWith("*");
+    m_DayOfWeekRestricted  = !fields[4].startsWith("*");
+    if (m_DaysOfWeek.get(7))
+      m_DaysOfWeek.set(0);
+  }
+
+  /**
+   * Parses a single field.
+   *
+   * @param field	the field to parse
+   * @param min		the minimum value
+   * @param max		the maximum value
+   * @return		the allowed values
+   */
+  protected static BitSet parse(String field, int min, int max) {
+    BitSet	result;
+    String	range;
+    int		step;
+    int		from;
+    int		to;
+    int		pos;
+    int		i;
+
+    result = new BitSet(max + 1);
+    for (String part: field.split(",")) {
+      step  = 1;
+      range = part;
+      pos   = part.indexOf('/');
+      if (pos > -1) {
+	step  = parseValue(part.substring(pos + 1), 1, max, part);
+	range = part.substring(0, pos);
+      }
+      if (range.equals("*")) {
+	from = min;
+	to   = max;
+      }
+      else if (range.indexOf('-') > 0) {
+	from = parseValue(range.substring(0, range.indexOf('-')), min, max, part);
+	to   = parseValue(range.substring(range.indexOf('-') + 1), min, max, part);
+      }
+      else {
+	from = parseValue(range, min, max, part);
+	to   = (pos > -1) ? max : from;
+      }
+      if (from > to)
+	throw new IllegalArgumentException("Invalid range: " + part);
+      for (i = from; i <= to; i += step)
+	result.set(i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses a single value.
+   *
+   * @param value	the value to parse
+   * @param min		the minimum value
+   * @param max		the maximum value
+   * @param part	the part of the expression, for error messages
+   * @return		the value
+   */
+  protected static int parseValue(String value, int min, int max, String part) {
+    int		result;
+
+    try {
+      result = Integer.parseInt(value);
+    }
+    catch (Exception e) {
+      throw new IllegalArgumentException("Invalid value '" + value + "' in: " + part);
+    }
+    if ((result < min) || (result > max))
+      throw new IllegalArgumentException("Value " + result + " outside " + min + "-" + max + " in: " + part);
+
+    return result;
+  }
+
+  /**
+   * Checks whether the expression matches the minute of the time stamp.
+   *
+   * @param time	the time to check
+   * @return		true if matching
+   */
+  public boolean matches(LocalDateTime time) {
+    boolean	dom;
+    boolean	dow;
+
+    if (!m_Minutes.get(time.getMinute()) || !m_Hours.get(time.getHour()) || !m_Months.get(time.getMonthValue()))
+      return false;
+
+    dom = m_DaysOfMonth.get(time.getDayOfMonth());
+    dow = m_DaysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+    if (m_DayOfMonthRestricted && m_DayOfWeekRestricted)
+      return dom || dow;
+    return dom && dow;
+  }
+
+  /**
+   * Returns the expression.
+   *
+   * @return		the expression
+   */
+  @Override
+  public String toString() {
+    return m_Expression;
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Daemon.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.BatchExecute.PrefixedOutputListener;
+import com.github.fracpete.jrsync.Execute.OutputListener;
+import org.apache.commons.configuration2.INIConfiguration;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running process that executes sessions according to their cron
+ * schedules ('text_schedule'). A session never runs concurrently with
+ * itself: fires that occur while it is still running (or that were missed
+ * because the process was suspended) are either skipped or queued for a
+ * single follow-up run, depending on 'check_schedule_queue'. Sessions with
+ * 'check_watch' enabled get their source directories watched for changes;
+ * the transfers of the watchers take part in the overlap tracking, ie they
+ * wait for scheduled runs and vice versa.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Daemon {
+
+  /** the maximum number of minutes to look back for missed fires. */
+  public final static int MAX_CATCHUP = 60;
+
+  /** the number of sessions to execute concurrently. */
+  protected int m_NumThreads;
+
+  /** the listener for the output. */
+  protected OutputListener m_Listener;
+
+  /** the executor for the sessions. */
+  protected ExecutorService m_Executor;
+
+  /** the currently running sessions. */
+  protected Set<String> m_Running;
+
+  /** the executions of the currently running sessions. */
+  protected Map<String,Execute> m_Executions;
+
+  /** the sessions with a queued run (name -&gt; session). */
+  protected Map<String,Session> m_Queued;
+
+  /** the parsed schedules (expression -&gt; cron). */
+  protected Map<String,CronExpression> m_Schedules;
+
+  /** the watchers of sessions with 'check_watch' enabled. */
+  protected List<Watcher> m_Watchers;
+
+  /** the metrics to record the runs in, null if not recording. */
+  protected Metrics m_Metrics;
+
+  /** the global I/O budgets (read at startup). */
+  protected List<Budget> m_Budgets;
+
+  /** whether the daemon has been stopped. */
+  protected volatile boolean m_Stopped;
+
+  /**
+   * Initializes the daemon.
+   *
+   * @param numThreads	the maximum number of sessions to run concurrently
+   * @param listener	the listener for the rsync output, null to ignore
+   */
+  public Daemon(int numThreads, OutputListener listener) {
+    m_NumThreads = Math.max(1, numThreads);
+    m_Listener   = listener;
+    m_Running    = new HashSet<>();
+    m_Executions = new HashMap<>();
+    m_Queued     = new HashMap<>();
+    m_Schedules  = new HashMap<>();
+    m_Watchers   = new ArrayList<>();
+  }
+
+  /**
+   * Sets the metrics to record the runs in.
+   *
+   * @param value	the metrics, null to not record
+   */
+  public void setMetrics(Metrics value) {
+    m_Metrics = value;
+  }
+
+  /**
+   * Returns the metrics to record the runs in.
+   *
+   * @return		the metrics, null if not recording
+   */
+  public Metrics getMetrics() {
+    return m_Metrics;
+  }
+
+  /**
+   * Outputs the message.
+   *
+   * @param msg		the message
+   */
+  protected void log(String msg) {
+    System.out.println(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS) + " " + msg);
+  }
+
+  /**
+   * Returns the parsed schedule.
+   *
+   * @param expression	the cron expression
+   * @return		the parsed expression, null if invalid
+   */
+  protected CronExpression getSchedule(String expression) {
+    if (!m_Schedules.containsKey(expression)) {
+      try {
+	m_Schedules.put(expression, new CronExpression(expression));
+      }
+      catch (Exception e) {
+	log("Invalid schedule '" + expression + "': " + e.getMessage());
+	m_Schedules.put(expression, null);
+      }
+    }
+    return m_Schedules.get(expression);
+  }
+
+  /**
+   * Submits the session for execution unless it is already running.
+   *
+   * @param settings	the session to execute
+   * @param missed	whether the fire was missed
+   */
+  protected synchronized void fire(final Session settings, boolean missed) {
+    if (m_Running.contains(settings.getName())) {
+      if (settings.isScheduleQueue()) {
+	m_Queued.put(settings.getName(), settings);
+	log("Session still running, queued: " + settings.getName());
+      }
+      else {
+	log("Session still running, skipped: " + settings.getName());
+      }
+      return;
+    }
+    if (missed && !settings.isScheduleQueue()) {
+      log("Missed fire, skipped: " + settings.getName());
+      return;
+    }
+
+    m_Running.add(settings.getName());
+    m_Executor.submit(() -> run(settings));
+  }
+
+  /**
+   * Executes the session and, if queued in the meantime, runs it again.
+   *
+   * @param settings	the session to execute
+   */
+  protected void run(Session settings) {
+    Execute	exec;
+    long	start;
+    String	msg;
+
+    do {
+      log("Starting: " + settings.getName());
+      start = System.currentTimeMillis();
+      try {
+	exec = new Execute();
+	exec.setStatistics(m_Metrics != null);
+	exec.setBudgets(m_Budgets);
+	synchronized(this) {
+	  m_Executions.put(settings.getName(), exec);
+	}
+	msg  = exec.execute(settings, false, (m_Listener == null) ? null : new PrefixedOutputListener(settings.getName(), m_Listener));
+	if (m_Metrics != null)
+	  m_Metrics.record(exec.getMetrics());
+      }
+      catch (Throwable t) {
+	msg = t.toString();
+      }
+      log("Finished: " + settings.getName() + " (" + (System.currentTimeMillis() - start) / 1000 + "s)" + ((msg == null) ? "" : " - FAILED: " + msg));
+    }
+    while (!m_Stopped && ((settings = dequeue(settings.getName())) != null));
+  }
+
+  /**
+   * Removes the queued run of the session or marks the session as no longer
+   * running.
+   *
+   * @param session	the session
+   * @return		the session of the queued run, null if none queued
+   */
+  protected synchronized Session dequeue(String session) {
+    Session	result;
+
+    m_Executions.remove(session);
+    result = m_Queued.remove(session);
+    if (result == null)
+      m_Running.remove(session);
+    return result;
+  }
+
+  /**
+   * Marks the session as running for a run not started by the schedule
+   * (eg by a watcher), so that it doesn't overlap with scheduled runs.
+   *
+   * @param session	the session
+   * @param exec	the execution, for cancelling
+   * @return		true if marked, false if the session is already running
+   * @see		#end(String)
+   */
+  public synchronized boolean begin(String session, Execute exec) {
+    if (m_Running.contains(session))
+      return false;
+    m_Running.add(session);
+    m_Executions.put(session, exec);
+    return true;
+  }
+
+  /**
+   * Marks the run started via {@link #begin(String, Execute)} as finished
+   * and starts the scheduled run that got queued in the meantime.
+   *
+   * @param session	the session
+   */
+  public synchronized void end(String session) {
+    final Session	queued;
+
+    queued = dequeue(session);
+    if (queued == null)
+      return;
+    if (m_Stopped)
+      m_Running.remove(session);
+    else
+      m_Executor.submit(() -> run(queued));
+  }
+
+  /**
+   * Cancels the run of the session, if running.
+   *
+   * @param session	the session to cancel
+   * @param reason	the reason for cancelling
+   * @return		true if the session was running
+   */
+  public synchronized boolean cancel(String session, String reason) {
+    Execute	exec;
+
+    exec = m_Executions.get(session);
+    if (exec == null)
+      return false;
+    m_Queued.remove(session);
+    exec.getHandle().cancel(reason);
+    return true;
+  }
+
+  /**
+   * Checks the schedules of all sessions for the specified minute.
+   *
+   * @param config	the current configuration
+   * @param minute	the minute to check
+   * @param missed	whether the minute lies in the past
+   */
+  protected void check(INIConfiguration config, LocalDateTime minute, boolean missed) {
+    Session		settings;
+    CronExpression	cron;
+
+    for (String section: config.getSections()) {
+      if (section == null)
+	continue;
+      settings = new Session(config, section);
+      if (settings.getSchedule().isEmpty())
+	continue;
+      cron = getSchedule(settings.getSchedule());
+      if ((cron != null) && cron.matches(minute))
+	fire(settings, missed);
+    }
+  }
+
+  /**
+   * Starts watchers for all sessions that have 'check_watch' enabled.
+   * These are only determined at startup.
+   *
+   * @param config	the configuration
+   */
+  protected void startWatchers(INIConfiguration config) {
+    Session	settings;
+    Watcher	watcher;
+
+    for (String section: config.getSections()) {
+      if (section == null)
+	continue;
+      settings = new Session(config, section);
+      if (!settings.isWatch())
+	continue;
+      watcher = new Watcher(settings, m_Listener);
+      watcher.setMetrics(m_Metrics);
+      watcher.setBudgets(m_Budgets);
+      watcher.setDaemon(this);
+      m_Watchers.add(watcher);
+      new Thread(watcher, "jrsync-watch-" + section).start();
+      log("Watching: " + section);
+    }
+  }
+
+  /**
+   * Runs the daemon until stopped. The configuration is re-read every minute
+   * (only parsed again if the file changed), so schedule changes get picked
+   * up without restarting.
+   */
+  public void run() {
+    INIConfiguration	config;
+    LocalDateTime	last;
+    LocalDateTime	now;
+    LocalDateTime	minute;
+
+    m_Executor = Executors.newFixedThreadPool(m_NumThreads);
+    m_Budgets  = Budget.read();
+    log("Daemon started");
+    for (Budget budget: m_Budgets)
+      log("Budget: " + budget);
+    config = Configuration.read();
+    if (config != null)
+      startWatchers(config);
+    last = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+    try {
+      while (!m_Stopped) {
+	try {
+	  Thread.sleep(60000 - (System.currentTimeMillis() % 60000) + 100);
+	}
+	catch (InterruptedException e) {
+	  break;
+	}
+	now    = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+	config = Configuration.read();
+	if (config == null) {
+	  log("Failed to read configuration, skipping: " + now);
+	  last = now;
+	  continue;
+	}
+	// minutes that got skipped, eg due to suspend
+	minute = last.plusMinutes(1);
+	if (minute.isBefore(now.minusMinutes(MAX_CATCHUP)))
+	  minute = now.minusMinutes(MAX_CATCHUP);
+	while (minute.isBefore(now)) {
+	  check(config, minute, true);
+	  minute = minute.plusMinutes(1);
+	}
+	if (now.isAfter(last))
+	  check(config, now, false);
+	last = now;
+      }
+    }
+    finally {
+      for (Watcher watcher: m_Watchers)
+	watcher.stop();
+      m_Executor.shutdown();
+      log("Daemon stopped");
+    }
+  }
+
+  /**
+   * Stops the daemon after the currently running sessions.
+   */
+  public void stop() {
+    m_Stopped = true;
+  }
+
+  /**
+   * Stops the daemon and cancels the currently running sessions, terminating
+   * their rsync processes.
+   *
+   * @param reason	the reason for cancelling
+   */
+  public void cancel(String reason) {
+    List<String>	sessions;
+
+    stop();
+    synchronized(this) {
+      sessions = new ArrayList<>(m_Executions.keySet());
+    }
+    for (String session: sessions)
+      cancel(session, reason);
+  }
+}
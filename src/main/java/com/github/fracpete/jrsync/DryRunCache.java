@@ -0,0 +1,272 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DryRunCache.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.ItemizedChange.Type;
+import com.github.fracpete.jrsync.ItemizedChangesParser.ItemizedChangeListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Captures the itemized changes of a simulation (dry run) of a session and
+ * stores them together with the options of the session and a fingerprint
+ * of the source tree, below {@link Configuration#configurationDirectory()}.
+ * An execution of the same session shortly afterwards can then transfer
+ * just the listed paths (--files-from) instead of rsync comparing both
+ * trees again. The cache is only used once, and only if neither the
+ * options nor the source changed; changes on the destination side in the
+ * meantime go unnoticed, hence the limited validity.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class DryRunCache
+  implements ItemizedChangeListener {
+
+  /** the magic number of the file format. */
+  public final static int MAGIC = 0x6A724472;
+
+  /** the version of the file format. */
+  public final static int VERSION = 1;
+
+  /** the session. */
+  protected String m_Session;
+
+  /** the prefix to remove from the itemized paths (source without trailing slash), empty if none. */
+  protected String m_Prefix;
+
+  /** the captured paths (relative to the source). */
+  protected Set<String> m_Paths;
+
+  /** the first path that could not be turned back into a file name, null if none. */
+  protected String m_Unreliable;
+
+  /**
+   * Initializes the cache.
+   *
+   * @param session	the session the cache belongs to
+   * @param source	the source of the session
+   */
+  public DryRunCache(String session, String source) {
+    m_Session = session;
+    m_Paths   = new LinkedHashSet<>();
+    if (source.endsWith("/") || source.endsWith(File.separator))
+      m_Prefix = "";
+    else
+      m_Prefix = new File(source).getName() + "/";
+  }
+
+  /**
+   * Returns the file the cache of the session is stored in.
+   *
+   * @return		the file
+   */
+  public File getFile() {
+    return new File(Configuration.configurationDirectory() + File.separator + "dryrun",
+      m_Session.replaceAll("[^A-Za-z0-9._-]", "_") + ".list");
+  }
+
+  /**
+   * Records the path of the change.
+   *
+   * @param change	the change
+   */
+  @Override
+  public synchronized void changeOccurred(ItemizedChange change) {
+    String	path;
+
+    if (change.getType() == Type.UNCHANGED)
+      return;
+
+    path = ItemizedChange.unescape(change.getPath());
+    if ((path == null) || change.isAmbiguous()) {
+      if (m_Unreliable == null)
+	m_Unreliable = change.getLine();
+      return;
+    }
+    if (!m_Prefix.isEmpty()) {
+      if (path.equals(m_Prefix))
+	path = ".";
+      else if (path.startsWith(m_Prefix))
+	path = path.substring(m_Prefix.length());
+    }
+    if ((path.length() > 1) && path.endsWith("/"))
+      path = path.substring(0, path.length() - 1);
+    if (!path.isEmpty())
+      m_Paths.add(path);
+  }
+
+  /**
+   * Returns the first change whose path could not be determined reliably
+   * (eg links with ' -> ' in their name, invalid escapes). Such a
+   * simulation must not be reused, as the path would be missing.
+   *
+   * @return		the itemized line, null if all paths are reliable
+   */
+  public synchronized String getUnreliable() {
+    return m_Unreliable;
+  }
+
+  /**
+   * Returns the captured paths.
+   *
+   * @return		the paths
+   */
+  public synchronized List<String> getPaths() {
+    return new ArrayList<>(m_Paths);
+  }
+
+  /**
+   * Stores the captured paths.
+   *
+   * @param options	the hash of the session's options
+   * @param fingerprint	the fingerprint of the source from before the simulation
+   * @return		null if successful, otherwise error message
+   */
+  public String save(String options, long fingerprint) {
+    File		file;
+    File		tmp;
+    List<String>	paths;
+
+    file  = getFile();
+    tmp   = new File(file.getPath() + ".tmp");
+    paths = getPaths();
+    if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+      return "Failed to create directory: " + file.getParentFile();
+
+    try (FileOutputStream fos = new FileOutputStream(tmp)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(System.currentTimeMillis());
+      out.writeUTF(options);
+      out.writeLong(fingerprint);
+      out.writeInt(paths.size());
+      for (String path: paths)
+	out.writeUTF(path);
+      out.flush();
+    }
+    catch (Exception e) {
+      System.err.println("Failed to write dry-run cache: " + tmp);
+      e.printStackTrace();
+      tmp.delete();
+      return "Failed to write dry-run cache: " + tmp + "\n" + e;
+    }
+
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (Exception e) {
+      System.err.println("Failed to replace dry-run cache: " + file);
+      e.printStackTrace();
+      return "Failed to replace dry-run cache: " + file + "\n" + e;
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks whether a usable cache is stored, without scanning the source.
+   *
+   * @param options	the hash of the session's current options
+   * @param minutes	the maximum age in minutes
+   * @return		null if usable, otherwise the reason why not
+   */
+  public String check(String options, int minutes) {
+    File	file;
+    long	created;
+
+    file = getFile();
+    if (!file.exists())
+      return "no simulation stored";
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+	return "unsupported format";
+      created = in.readLong();
+      if (System.currentTimeMillis() - created > minutes * 60000L)
+	return "simulation older than " + minutes + " minute(s)";
+      if (!in.readUTF().equals(options))
+	return "options changed since simulation";
+    }
+    catch (Exception e) {
+      return "failed to read: " + e;
+    }
+
+    return null;
+  }
+
+  /**
+   * Reads the stored paths, if the cache is still valid.
+   *
+   * @param options	the hash of the session's current options
+   * @param fingerprint	the current fingerprint of the source
+   * @param minutes	the maximum age in minutes
+   * @return		the paths, null if not usable
+   */
+  public List<String> load(String options, long fingerprint, int minutes) {
+    List<String>	result;
+    int			count;
+    int			i;
+
+    if (check(options, minutes) != null)
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getFile().toPath()), 65536))) {
+      in.readInt();   // magic
+      in.readInt();   // version
+      in.readLong();  // created
+      in.readUTF();   // options
+      if (in.readLong() != fingerprint)
+	return null;
+      count  = in.readInt();
+      result = new ArrayList<>(count);
+      for (i = 0; i < count; i++)
+	result.add(in.readUTF());
+    }
+    catch (Exception e) {
+      System.err.println("Failed to read dry-run cache: " + getFile());
+      e.printStackTrace();
+      return null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Removes the stored cache.
+   */
+  public void delete() {
+    File	file;
+
+    file = getFile();
+    if (file.exists() && !file.delete())
+      file.deleteOnExit();
+  }
+}
@@ -26,6 +26,22 @@ import com.github.fracpete.processoutput4j.output.StreamingProcessOutput;
 import com.github.fracpete.rsync4j.RSync;
 import org.apache.commons.configuration2.INIConfiguration;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Executes actual rsync command.
  *
@@ -75,12 +91,138 @@ public class Execute
   /** the session to execute. */
   protected String m_Session;
 
+  /** the snapshot of the session's settings. */
+  protected Session m_Settings;
+
   /** whether to only simulate. */
   protected boolean m_DryRun;
 
   /** the (optional) output listener. */
   protected OutputListener m_Listener;
 
+  /** the parser for itemized changes, null if not itemizing. */
+  protected ItemizedChangesParser m_ItemizedParser;
+
+  /** the progress tracker, null if not showing progress. */
+  protected ProgressTracker m_ProgressTracker;
+
+  /** the log of the run, null if not logging. */
+  protected RunLog m_RunLog;
+
+  /** the file with the paths to transfer (relative to the source), null for all. */
+  protected File m_FilesFrom;
+
+  /** the temporary files-from file generated from the manifest or the dry-run cache, null if none. */
+  protected File m_ManifestFilesFrom;
+
+  /** the cache capturing the changes of a simulation for reuse, null if not capturing. */
+  protected DryRunCache m_DryRunCache;
+
+  /** the parser feeding the dry-run cache, null if not capturing. */
+  protected ItemizedChangesParser m_DryRunParser;
+
+  /** whether to let rsync output transfer statistics (--stats). */
+  protected boolean m_Statistics;
+
+  /** the metrics of the current/last run. */
+  protected RunMetrics m_Metrics;
+
+  /** the global I/O budgets, null if not used. */
+  protected List<Budget> m_Budgets;
+
+  /** the assigned bandwidth limit in KiB/s, 0 if unlimited. */
+  protected volatile long m_BandwidthLimit;
+
+  /** the compression advice from sampling the source, null if not adaptive. */
+  protected CompressionAdvisor m_Compression;
+
+  /** the handle for cancelling the run. */
+  protected RunHandle m_Handle;
+
+  /**
+   * Initializes the execution.
+   */
+  public Execute() {
+    m_Handle = new RunHandle();
+  }
+
+  /**
+   * Returns the handle of the run, which allows other threads to cancel it
+   * or wait for it to finish. An execution can only be run once.
+   *
+   * @return		the handle
+   */
+  public RunHandle getHandle() {
+    return m_Handle;
+  }
+
+  /**
+   * Sets the global I/O budgets to obtain admission slots and bandwidth
+   * limits from. Must be the same instances for all concurrent runs.
+   *
+   * @param value	the budgets, null to not use any
+   */
+  public void setBudgets(List<Budget> value) {
+    m_Budgets = value;
+  }
+
+  /**
+   * Returns the global I/O budgets.
+   *
+   * @return		the budgets, null if not used
+   */
+  public List<Budget> getBudgets() {
+    return m_Budgets;
+  }
+
+  /**
+   * Returns the bandwidth limit assigned by the budget.
+   *
+   * @return		the limit in KiB/s, 0 if unlimited
+   */
+  public long getBandwidthLimit() {
+    return m_BandwidthLimit;
+  }
+
+  /**
+   * Sets whether to let rsync output its transfer statistics (--stats),
+   * which get parsed into the metrics of the run.
+   *
+   * @param value	true if to output statistics
+   */
+  public void setStatistics(boolean value) {
+    m_Statistics = value;
+  }
+
+  /**
+   * Returns whether to let rsync output its transfer statistics (--stats).
+   *
+   * @return		true if to output statistics
+   */
+  public boolean getStatistics() {
+    return m_Statistics;
+  }
+
+  /**
+   * Sets the file with the NUL-separated paths (relative to the source
+   * directory) to transfer instead of the whole source.
+   *
+   * @param value	the file, null to transfer everything
+   */
+  public void setFilesFrom(File value) {
+    m_FilesFrom = value;
+  }
+
+  /**
+   * Returns the file with the NUL-separated paths (relative to the source
+   * directory) to transfer instead of the whole source.
+   *
+   * @return		the file, null if transferring everything
+   */
+  public File getFilesFrom() {
+    return m_FilesFrom;
+  }
+
   /**
    * Returns what output from the process to forward.
    *
@@ -98,11 +240,43 @@ public class Execute
    * @param stdout	whether stdout or stderr
    */
   @Override
-  public void processOutput(String line, boolean stdout) {
+  public synchronized void processOutput(String line, boolean stdout) {
+    m_Handle.touch();
+    if (m_ItemizedParser != null)
+      m_ItemizedParser.outputOccurred(line, stdout);
+    if (m_DryRunParser != null)
+      m_DryRunParser.outputOccurred(line, stdout);
+    if (m_ProgressTracker != null)
+      m_ProgressTracker.outputOccurred(line, stdout);
+    if (m_RunLog != null)
+      m_RunLog.outputOccurred(line, stdout);
+    if (m_Metrics != null)
+      m_Metrics.outputOccurred(line, stdout);
     if (m_Listener != null)
       m_Listener.outputOccurred(line, stdout);
   }
 
+  /**
+   * Writes the paths NUL-separated to a temporary file.
+   *
+   * @param paths	the paths to write
+   * @return		the file
+   * @throws IOException	if writing fails
+   */
+  public static File writeFilesFrom(Collection<String> paths) throws IOException {
+    File	result;
+
+    result = File.createTempFile("jrsync-", ".files");
+    try (OutputStream out = Files.newOutputStream(result.toPath())) {
+      for (String path: paths) {
+	out.write(path.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+	out.write(0);
+      }
+    }
+
+    return result;
+  }
+
   /**
    * Configures RSync.
    *
@@ -112,38 +286,60 @@ public class Execute
     RSync result;
 
     result = new RSync();
-    if (!m_Configuration.getString(m_Session + ".text_addit").isEmpty())
-      result.setOptions(m_Configuration.getString(m_Session + ".text_addit").split(" "));  // TODO does not adhere to quotes!
-    result.source(m_Configuration.getString(m_Session + ".text_source"));
-    result.destination(m_Configuration.getString(m_Session + ".text_dest"));
-    result.times(m_Configuration.getBoolean(m_Session + ".check_time"));
-    result.perms(m_Configuration.getBoolean(m_Session + ".check_perm"));
-    result.owner(m_Configuration.getBoolean(m_Session + ".check_owner"));
-    result.group(m_Configuration.getBoolean(m_Session + ".check_group"));
-    result.perms(m_Configuration.getBoolean(m_Session + ".check_perm"));
-    result.oneFileSystem(m_Configuration.getBoolean(m_Session + ".check_onefs"));
-    result.verbose(m_Configuration.getBoolean(m_Session + ".check_verbose"));
-    result.progress(m_Configuration.getBoolean(m_Session + ".check_progr"));
-    result.delete(m_Configuration.getBoolean(m_Session + ".check_delete"));
-    result.ignoreExisting(m_Configuration.getBoolean(m_Session + ".check_exist"));
-    result.sizeOnly(m_Configuration.getBoolean(m_Session + ".check_size"));
-    result.update(m_Configuration.getBoolean(m_Session + ".check_skipnew"));
-    if (m_Configuration.getBoolean(m_Session + ".check_windows"))
+    if (!m_Settings.getAdditionalOptions().isEmpty())
+      result.setOptions(m_Settings.getAdditionalOptions().split(" "));  // TODO does not adhere to quotes!
+    result.source(m_Settings.getSource());
+    result.destination(m_Settings.getDestination());
+    result.times(m_Settings.isPreserveTime());
+    result.perms(m_Settings.isPreservePermissions());
+    result.owner(m_Settings.isPreserveOwner());
+    result.group(m_Settings.isPreserveGroup());
+    result.oneFileSystem(m_Settings.isOneFileSystem());
+    result.verbose(m_Settings.isVerbose());
+    result.progress(m_Settings.isProgress());
+    result.delete(m_Settings.isDelete());
+    result.ignoreExisting(m_Settings.isIgnoreExisting());
+    result.sizeOnly(m_Settings.isSizeOnly());
+    result.update(m_Settings.isSkipNewer());
+    if (m_Settings.isWindowsCompatibility())
       result.modifyWindow(1);
-    result.checksum(m_Configuration.getBoolean(m_Session + ".check_sum"));
-    result.links(m_Configuration.getBoolean(m_Session + ".check_symlink"));
-    result.hardLinks(m_Configuration.getBoolean(m_Session + ".check_hardlink"));
-    result.devices(m_Configuration.getBoolean(m_Session + ".check_dev"));
-    result.hardLinks(m_Configuration.getBoolean(m_Session + ".check_hardlink"));
-    result.existing(m_Configuration.getBoolean(m_Session + ".check_update"));
-    result.partial(m_Configuration.getBoolean(m_Session + ".check_keepart"));
-    result.numericIds(m_Configuration.getBoolean(m_Session + ".check_mapuser"));
-    result.compress(m_Configuration.getBoolean(m_Session + ".check_compr"));
-    result.backup(m_Configuration.getBoolean(m_Session + ".check_backup"));
-    result.itemizeChanges(m_Configuration.getBoolean(m_Session + ".check_itemized"));
-    result.dirs(!m_Configuration.getBoolean(m_Session + ".check_norecur"));
-    result.protectArgs(m_Configuration.getBoolean(m_Session + ".check_protectargs"));
-    result.super_(m_Configuration.getBoolean(m_Session + ".check_superuser"));
+    result.checksum(m_Settings.isChecksum());
+    result.links(m_Settings.isSymlinks());
+    result.hardLinks(m_Settings.isHardlinks());
+    result.devices(m_Settings.isDevices());
+    result.existing(m_Settings.isOnlyUpdateExisting());
+    // keep partial files when retrying, so that large files resume
+    result.partial(m_Settings.isKeepPartial() || (m_Settings.getRetries() > 0));
+    result.numericIds(m_Settings.isNumericIds());
+    result.compress(m_Settings.isCompress());
+    result.backup(m_Settings.isBackup());
+    result.itemizeChanges(m_Settings.isItemized() || (m_DryRunParser != null));
+    result.dirs(!m_Settings.isNoRecursion());
+    result.protectArgs(m_Settings.isProtectArgs());
+    result.super_(m_Settings.isSuperuser());
+    if ((m_Settings.getTimeout() > 0) && !m_Settings.getAdditionalOptions().contains("--timeout"))
+      result.timeout(m_Settings.getTimeout());
+    if (m_Statistics)
+      result.stats(true);
+    if ((m_BandwidthLimit > 0) && !m_Settings.getAdditionalOptions().contains("--bwlimit"))
+      result.bwlimit("" + m_BandwidthLimit);
+    if (m_Compression != null) {
+      result.compress(m_Compression.isCompress());
+      if (m_Compression.isCompress() && !m_Settings.getAdditionalOptions().contains("--skip-compress"))
+	result.skipCompress(String.join("/", m_Compression.getSkipCompress()));
+    }
+
+    // only transfer the listed paths; these are relative to the source
+    // directory, ie the destination needs to take the trailing slash into account
+    if (m_FilesFrom != null) {
+      result.destination(Shards.destination(m_Settings.getSource(), m_Settings.getDestination()));
+      result.filesFrom(m_FilesFrom.getAbsolutePath());
+      result.from0(true);
+      if (m_Settings.isDelete())
+	result.deleteMissingArgs(true);
+      else
+	result.ignoreMissingArgs(true);
+    }
 
     // ignored:
     // check_browse_files=false
@@ -155,32 +351,625 @@ public class Execute
   }
 
   /**
-   * Executes the specified command.
+   * Checks whether the path is a local one, ie not of the form
+   * 'host:path', 'host::module' or 'rsync://...'.
+   *
+   * @param path	the path to check
+   * @return		true if local
+   */
+  public static boolean isLocal(String path) {
+    int		pos;
+
+    if (path.startsWith("rsync://"))
+      return false;
+    pos = path.indexOf(':');
+    if (pos == -1)
+      return true;
+    // windows drive letter
+    if ((pos == 1) && Character.isLetter(path.charAt(0)))
+      return true;
+    // colon only after a path separator, ie part of a file name
+    return (path.indexOf('/') > -1) && (path.indexOf('/') < pos);
+  }
+
+  /**
+   * Returns the number of shards to use for the rsync transfer.
+   * Sharding is only applied to local source directories and not when
+   * deleting on the destination, as top-level deletions would get missed,
+   * nor when preserving hard links, as rsync can only recreate links within
+   * a single process. Additional destinations require a single batch file.
+   *
+   * @return		the number of shards, 1 if not sharding
+   */
+  protected int getNumShards() {
+    int		result;
+    String	source;
+
+    result = m_Settings.getShards();
+    if ((result < 2) || (m_FilesFrom != null))
+      return 1;
+
+    source = m_Settings.getSource();
+    if (!isLocal(source) || !new File(source).isDirectory()) {
+      processOutput("Source is not a local directory, not sharding: " + source, false);
+      return 1;
+    }
+    if (m_Settings.isDelete()) {
+      processOutput("'Delete on destination' is enabled, not sharding", false);
+      return 1;
+    }
+    if (m_Settings.isHardlinks()) {
+      processOutput("'Preserve hard links' is enabled, not sharding", false);
+      return 1;
+    }
+    if (!m_Settings.getFanOut().isEmpty()) {
+      processOutput("Additional destinations are configured, not sharding", false);
+      return 1;
+    }
+
+    return result;
+  }
+
+  /**
+   * Splits the source directory into shards and executes one rsync process
+   * per shard concurrently. The output of all processes gets forwarded to the
+   * listener.
+   *
+   * @param numShards	the maximum number of shards
+   * @return		null if all shards were successful, otherwise error message
+   * @throws Exception	if splitting or configuring fails
+   */
+  protected String executeShards(int numShards) throws Exception {
+    StringBuilder		result;
+    String			source;
+    String			dest;
+    List<List<String>>		shards;
+    List<Future<String>>	futures;
+    ExecutorService		executor;
+    RSync			rsync;
+    String			msg;
+    int				i;
+
+    source = m_Settings.getSource();
+    dest   = Shards.destination(source, m_Settings.getDestination());
+    shards = Shards.split(new File(source), numShards);
+    if (shards.isEmpty())
+      return null;
+    if (isLocal(dest) && !new File(dest).exists() && !new File(dest).mkdirs())
+      return "Failed to create destination directory: " + dest;
+
+    futures  = new ArrayList<>();
+    executor = Executors.newFixedThreadPool(shards.size());
+    try {
+      for (i = 0; i < shards.size(); i++) {
+	rsync = configureRsync();
+	if ((m_BandwidthLimit > 0) && !m_Settings.getAdditionalOptions().contains("--bwlimit"))
+	  rsync.bwlimit("" + Math.max(1, m_BandwidthLimit / shards.size()));
+	rsync.sources(shards.get(i));
+	rsync.destination(dest);
+	final int shard = i + 1;
+	final RSync fRsync = rsync;
+	futures.add(executor.submit(() -> {
+	  int exitCode = transfer(fRsync, "Shard #" + shard + " ");
+	  synchronized(m_Metrics) {
+	    m_Metrics.setExitCode(Math.max(m_Metrics.getExitCode(), exitCode));
+	  }
+	  if (!RetryPolicy.isSuccess(exitCode))
+	    return "Shard #" + shard + " failed with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + ")";
+	  return null;
+	}));
+      }
+
+      result = new StringBuilder();
+      for (i = 0; i < futures.size(); i++) {
+	try {
+	  msg = futures.get(i).get();
+	  if (msg != null)
+	    result.append(msg).append("\n");
+	}
+	catch (Exception e) {
+	  result.append("Shard #").append(i + 1).append(" failed: ").append(e).append("\n");
+	}
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    if (result.length() > 0)
+      return "Failed to execute rsync:\n" + result.toString().trim();
+    return null;
+  }
+
+  /**
+   * Forwards the output of a transfer to an additional destination to the
+   * log and listener, prefixed with the label. Not parsed into itemized
+   * changes, progress or metrics, as these refer to the primary destination.
+   *
+   * @param label	the prefix for the output
+   * @param line	the line to process
+   * @param stdout	whether stdout or stderr
+   */
+  protected synchronized void processFanOutOutput(String label, String line, boolean stdout) {
+    m_Handle.touch();
+    if (m_RunLog != null)
+      m_RunLog.outputOccurred(label + line, stdout);
+    if (m_Listener != null)
+      m_Listener.outputOccurred(label + line, stdout);
+  }
+
+  /**
+   * Replicates the transfer to the additional destinations concurrently by
+   * replaying the batch file. Destinations that the batch cannot be applied
+   * to (eg not in the same state as the primary destination) get
+   * synchronized with the source directly instead, as do all destinations
+   * if the batch is incomplete (ie the primary transfer had to be retried).
+   *
+   * @param destinations	the additional destinations
+   * @param batch	the batch file of the transfer to the primary destination
+   * @param complete	whether the batch contains the complete transfer
+   * @return		null if all destinations were successful, otherwise error message
+   * @throws Exception	if configuring fails
+   */
+  protected String executeFanOut(List<String> destinations, File batch, boolean complete) throws Exception {
+    StringBuilder		result;
+    List<Future<String>>	futures;
+    ExecutorService		executor;
+    String			msg;
+    int				i;
+
+    if (!complete)
+      processOutput("[fanout] Batch is incomplete due to retries, synchronizing " + destinations.size() + " destination(s) directly", false);
+
+    futures  = new ArrayList<>();
+    executor = Executors.newFixedThreadPool(destinations.size());
+    try {
+      for (i = 0; i < destinations.size(); i++) {
+	final String dest = destinations.get(i);
+	final String label = "[fanout] " + dest + ": ";
+	final StreamingProcessOwner owner = new StreamingProcessOwner() {
+	  @Override
+	  public StreamingProcessOutputType getOutputType() {
+	    return StreamingProcessOutputType.BOTH;
+	  }
+	  @Override
+	  public void processOutput(String line, boolean stdout) {
+	    processFanOutOutput(label, line, stdout);
+	  }
+	};
+	final RSync replay = configureRsync();
+	final RSync direct = configureRsync();
+	for (RSync rsync: new RSync[]{replay, direct}) {
+	  if ((m_BandwidthLimit > 0) && !m_Settings.getAdditionalOptions().contains("--bwlimit"))
+	    rsync.bwlimit("" + Math.max(1, m_BandwidthLimit / destinations.size()));
+	  rsync.destination((m_FilesFrom != null) ? Shards.destination(m_Settings.getSource(), dest) : dest);
+	}
+	futures.add(executor.submit(() -> {
+	  long start = System.currentTimeMillis();
+	  int exitCode = -1;
+	  if (complete) {
+	    exitCode = transfer(FanOut.replay(replay, batch, replay.getDestination()), owner, label);
+	    if (!RetryPolicy.isSuccess(exitCode) && !m_Handle.isCancelled())
+	      processOutput(label + "replaying batch failed with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + "), "
+		+ "synchronizing directly", false);
+	  }
+	  if (!RetryPolicy.isSuccess(exitCode) && !m_Handle.isCancelled())
+	    exitCode = transfer(direct.builder(), owner, label);
+	  synchronized(m_Metrics) {
+	    m_Metrics.setExitCode(Math.max(m_Metrics.getExitCode(), exitCode));
+	  }
+	  if (!RetryPolicy.isSuccess(exitCode))
+	    return "Destination " + dest + " failed with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + ")";
+	  processOutput(label + "finished in " + (System.currentTimeMillis() - start) + "ms", true);
+	  return null;
+	}));
+      }
+
+      result = new StringBuilder();
+      for (i = 0; i < futures.size(); i++) {
+	try {
+	  msg = futures.get(i).get();
+	  if (msg != null)
+	    result.append(msg).append("\n");
+	}
+	catch (Exception e) {
+	  result.append("Destination ").append(destinations.get(i)).append(" failed: ").append(e).append("\n");
+	}
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    if (result.length() > 0)
+      return "Failed to replicate to additional destinations:\n" + result.toString().trim();
+    return null;
+  }
+
+  /**
+   * Starts the process and waits for it to finish. The process (and its
+   * children) get terminated when the run gets cancelled.
+   *
+   * @param output	the output to monitor the process with
+   * @param builder	the builder for the process
+   * @throws Exception	if the run has been cancelled or executing fails
+   */
+  protected void monitor(StreamingProcessOutput output, ProcessBuilder builder) throws Exception {
+    if (!m_Handle.register(output))
+      throw new IllegalStateException("Run has been cancelled: " + m_Handle.getReason());
+    try {
+      output.monitor(builder);
+    }
+    finally {
+      m_Handle.unregister(output);
+      if (m_Handle.isCancelled() && (output.getProcess() != null) && output.getProcess().isAlive())
+	RunHandle.destroyTree(output.getProcess(), true);
+    }
+  }
+
+  /**
+   * Runs rsync, retrying transient failures according to the session's
+   * retry policy.
    *
-   * @param cmd		the command to execute
-   * @param halt	true if to trigger halt (will suppress error message if 'false')
+   * @param rsync	the configured rsync instance
+   * @param label	the prefix for the retry messages (eg the shard)
+   * @return		the exit code of the last attempt
+   * @throws Exception	if executing fails or interrupted while waiting
+   */
+  protected int transfer(RSync rsync, String label) throws Exception {
+    return transfer(rsync.builder(), this, label);
+  }
+
+  /**
+   * Runs the process, retrying transient failures according to the
+   * session's retry policy.
+   *
+   * @param builder	the builder for the rsync process
+   * @param owner	the owner to forward the output to
+   * @param label	the prefix for the retry messages (eg the shard)
+   * @return		the exit code of the last attempt
+   * @throws Exception	if executing fails or interrupted while waiting
+   * @see		RetryPolicy#isSuccess(int)
+   */
+  protected int transfer(ProcessBuilder builder, StreamingProcessOwner owner, String label) throws Exception {
+    RetryPolicy			policy;
+    StreamingProcessOutput	output;
+    int				attempt;
+    int				exitCode;
+    long			delay;
+
+    policy  = new RetryPolicy(m_Settings.getRetries(), m_Settings.getRetryDelay());
+    attempt = 0;
+    while (true) {
+      output = new StreamingProcessOutput(owner);
+      monitor(output, builder);
+      exitCode = output.getExitCode();
+      if (RetryPolicy.classify(exitCode) == RetryPolicy.Category.WARNING)
+	processOutput("[warning] " + label + "rsync finished with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + ")", false);
+      if (m_Handle.isCancelled() || !policy.isRetry(exitCode, attempt))
+	return exitCode;
+      delay = policy.getDelay(attempt);
+      attempt++;
+      m_Metrics.addRetry();
+      processOutput("[retry] " + label + "rsync failed with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + "), "
+	+ "retry " + attempt + "/" + policy.getRetries() + " in " + (delay / 1000) + "s", false);
+      if (!m_Handle.pause(delay))
+	return exitCode;
+    }
+  }
+
+  /**
+   * Executes a single hook command, terminating it (and its children) if
+   * it exceeds the timeout.
+   *
+   * @param args	the command and its arguments
+   * @param phase	the phase (pre/post)
+   * @param index	the index of the command within the phase (1-based)
+   * @param timer	for enforcing the timeout, null if no timeout
+   * @param timeout	the timeout in seconds
    * @return		null if successful, otherwise error message
    */
-  protected String executeCommand(String cmd, boolean halt) {
+  protected String executeHook(List<String> args, String phase, int index, ScheduledExecutorService timer, int timeout) {
     String			result;
+    String			cmd;
     ProcessBuilder 		builder;
     StreamingProcessOutput 	output;
+    ScheduledFuture<?>		kill;
+    AtomicBoolean		timedOut;
+    int				exitCode;
+    long			start;
 
-    result  = null;
-    builder = new ProcessBuilder();
-    builder.command(cmd);
-    output = new StreamingProcessOutput(this);
+    result   = null;
+    cmd      = CommandParser.toString(args);
+    builder  = new ProcessBuilder(args);
+    output   = new StreamingProcessOutput(this);
+    timedOut = new AtomicBoolean();
+    kill     = null;
+    exitCode = -1;
+    start    = System.currentTimeMillis();
+    processOutput("[hook] " + phase + " #" + index + ": " + cmd, true);
     try {
-      output.monitor(builder);
+      if (timer != null) {
+	kill = timer.schedule(() -> {
+	  if (output.getProcess() != null) {
+	    timedOut.set(true);
+	    RunHandle.destroyTree(output.getProcess(), true);
+	  }
+	}, timeout, TimeUnit.SECONDS);
+      }
+      monitor(output, builder);
+      if (timedOut.get()) {
+	result = "Command timed out after " + timeout + "s: " + cmd;
+      }
+      else {
+	exitCode = output.getExitCode();
+	if (exitCode != 0)
+	  result = "Command failed with exit code " + exitCode + ": " + cmd;
+      }
+    }
+    catch (Exception e) {
+      result = "Failed to execute: " + cmd + "\n" + e;
+    }
+    finally {
+      if (kill != null)
+	kill.cancel(false);
+    }
+    m_Metrics.addHook(new RunMetrics.Hook(phase, index, System.currentTimeMillis() - start, exitCode));
+    processOutput("[hook] " + phase + " #" + index + " finished in " + (System.currentTimeMillis() - start) + "ms"
+      + ((result == null) ? "" : ": " + result), result == null);
+
+    return result;
+  }
+
+  /**
+   * Executes the hook command(s). Multiple commands are separated by
+   * semicolons and run one after the other (stopping at the first failure)
+   * or in parallel.
+   *
+   * @param commands	the command(s) to execute
+   * @param phase	the phase (pre/post)
+   * @param parallel	whether to run multiple commands in parallel
+   * @return		null if all successful, otherwise error message
+   */
+  protected String executeCommands(String commands, String phase, boolean parallel) {
+    StringBuilder		result;
+    List<List<String>>		parsed;
+    ScheduledExecutorService	timer;
+    ExecutorService		executor;
+    List<Future<String>>	futures;
+    String			msg;
+    int				timeout;
+    int				i;
+
+    try {
+      parsed = CommandParser.parse(commands);
+    }
+    catch (Exception e) {
+      return "Failed to parse command(s): " + e.getMessage();
+    }
+    if (parsed.isEmpty())
+      return null;
+
+    result  = new StringBuilder();
+    timeout = m_Settings.getCommandTimeout();
+    timer   = (timeout > 0) ? Executors.newSingleThreadScheduledExecutor() : null;
+    try {
+      if (parallel && (parsed.size() > 1)) {
+	futures  = new ArrayList<>();
+	executor = Executors.newFixedThreadPool(parsed.size());
+	try {
+	  for (i = 0; i < parsed.size(); i++) {
+	    final List<String> args = parsed.get(i);
+	    final int index = i + 1;
+	    futures.add(executor.submit(() -> executeHook(args, phase, index, timer, timeout)));
+	  }
+	  for (i = 0; i < futures.size(); i++) {
+	    try {
+	      msg = futures.get(i).get();
+	    }
+	    catch (Exception e) {
+	      msg = "Failed to execute: " + CommandParser.toString(parsed.get(i)) + "\n" + e;
+	    }
+	    if (msg != null)
+	      result.append(msg).append("\n");
+	  }
+	}
+	finally {
+	  executor.shutdownNow();
+	}
+      }
+      else {
+	for (i = 0; i < parsed.size(); i++) {
+	  msg = executeHook(parsed.get(i), phase, i + 1, timer, timeout);
+	  if (msg != null) {
+	    result.append(msg);
+	    break;
+	  }
+	}
+      }
+    }
+    finally {
+      if (timer != null)
+	timer.shutdownNow();
+    }
+
+    if (result.length() > 0)
+      return result.toString().trim();
+    return null;
+  }
+
+  /**
+   * Scans the source and compares it with the manifest (or checksum cache)
+   * of the last successful run. Unless a full run is due, the changed paths
+   * get stored in a temporary files-from file.
+   *
+   * @return		the manifest, null if not usable (ie a regular run is required)
+   */
+  protected Manifest applyManifest() {
+    Manifest		result;
+    List<String>	changed;
+    long		start;
+
+    if ((m_FilesFrom != null) || !isLocal(m_Settings.getSource()) || !new File(m_Settings.getSource()).isDirectory())
+      return null;
+
+    if (m_Settings.isChecksum() && m_Settings.isChecksumCache())
+      result = new ChecksumCache(m_Session, m_Settings.getSource(), m_Settings.getOptionsHash(),
+	m_Settings.isPreserveTime() || m_Settings.isPreservePermissions() || m_Settings.isPreserveOwner() || m_Settings.isPreserveGroup());
+    else if (m_Settings.isManifest())
+      result = new Manifest(m_Session, m_Settings.getSource(), m_Settings.getOptionsHash());
+    else
+      return null;
+    start  = System.currentTimeMillis();
+    try {
+      result.scan();
+      processOutput("[manifest] Scanned " + result.size() + " files in " + (System.currentTimeMillis() - start) + "ms", true);
+      if (result.isFullRunDue(m_Settings.getManifestFullHours())) {
+	processOutput("[manifest] Performing full run", true);
+	return result;
+      }
+      changed = result.diff();
+      if (changed == null) {
+	processOutput("[manifest] Performing full run", true);
+	return result;
+      }
+      if (result instanceof ChecksumCache)
+	processOutput("[manifest] Hashed " + ((ChecksumCache) result).getHashed() + " modified file(s)", true);
+      processOutput("[manifest] " + changed.size() + " changed path(s)", true);
+      m_FilesFrom         = writeFilesFrom(changed);
+      m_ManifestFilesFrom = m_FilesFrom;
     }
     catch (Exception e) {
-      if (halt)
-        result = "Failed to execute: " + cmd + "\n" + e;
+      System.err.println("Failed to use manifest, performing regular run: " + m_Session);
+      e.printStackTrace();
+      processOutput("[manifest] Failed to scan source, performing regular run: " + e, false);
+      return null;
     }
 
     return result;
   }
 
+  /**
+   * Prepares the reuse of simulations: when simulating, starts capturing the
+   * changes; when executing, transfers only the changes of a previous
+   * simulation if neither options nor source changed since. Only applies
+   * to rsync transfers of local source directories without sharding.
+   *
+   * @return		the fingerprint of the source when capturing, otherwise null
+   */
+  protected Long applyDryRunCache() {
+    DryRunCache		cache;
+    Manifest		scan;
+    List<String>	paths;
+    String		msg;
+    int			minutes;
+
+    minutes = m_Settings.getDryRunReuse();
+    if ((minutes <= 0) || (m_FilesFrom != null) || (m_Settings.getShards() > 1))
+      return null;
+    if (!isLocal(m_Settings.getSource()) || !new File(m_Settings.getSource()).isDirectory())
+      return null;
+    if (m_Settings.isNativeEngine() && (LocalCopy.isSupported(m_Settings) == null))
+      return null;
+
+    cache = new DryRunCache(m_Session, m_Settings.getSource());
+    if (!m_DryRun) {
+      msg = cache.check(m_Settings.getOptionsHash(), minutes);
+      if (msg != null) {
+	if (cache.getFile().exists())
+	  processOutput("[dryrun] Not reusing simulation, " + msg, true);
+	cache.delete();
+	return null;
+      }
+    }
+
+    scan = new Manifest(m_Session, m_Settings.getSource(), m_Settings.getOptionsHash());
+    try {
+      scan.scan();
+      if (m_DryRun) {
+	m_DryRunCache  = cache;
+	m_DryRunParser = new ItemizedChangesParser(cache);
+	return scan.fingerprint();
+      }
+      paths = cache.load(m_Settings.getOptionsHash(), scan.fingerprint(), minutes);
+      if (paths == null) {
+	processOutput("[dryrun] Not reusing simulation, source changed", true);
+	return null;
+      }
+      processOutput("[dryrun] Reusing simulation: " + paths.size() + " changed path(s)", true);
+      m_FilesFrom         = writeFilesFrom(paths);
+      m_ManifestFilesFrom = m_FilesFrom;
+    }
+    catch (Exception e) {
+      System.err.println("Failed to apply dry-run cache: " + m_Session);
+      e.printStackTrace();
+      processOutput("[dryrun] Failed to scan source, not reusing simulation: " + e, false);
+    }
+    finally {
+      if (!m_DryRun)
+	cache.delete();
+    }
+
+    return null;
+  }
+
+  /**
+   * Obtains an admission slot from the budget (blocking until available)
+   * and the bandwidth limit to use (blocking until enough bandwidth is
+   * left by the other runs). The native engine only uses the slots.
+   *
+   * @param budget	the budget that applies
+   * @throws InterruptedException	if interrupted while waiting for a slot or bandwidth
+   */
+  protected void admit(Budget budget) throws InterruptedException {
+    if (!budget.tryAcquire(this)) {
+      processOutput("[budget] Waiting for slot: " + budget, true);
+      budget.acquire(this);
+    }
+    if (m_Settings.isNativeEngine() && (LocalCopy.isSupported(m_Settings) == null))
+      return;
+    if (budget.available(this) < budget.minimum())
+      processOutput("[budget] Waiting for bandwidth: " + budget, true);
+    m_BandwidthLimit = budget.assign(this);
+    if (m_BandwidthLimit > 0)
+      processOutput("[budget] " + budget.getName() + ": limiting to " + m_BandwidthLimit + " KiB/s", true);
+  }
+
+  /**
+   * Samples the source to decide on compression, if adaptive compression is
+   * enabled. Only applies to local source directories and remote
+   * destinations, as rsync does not compress local transfers.
+   *
+   * @return		the advice, null if not applicable
+   */
+  protected CompressionAdvisor adviseCompression() {
+    CompressionAdvisor	result;
+
+    if (!m_Settings.isCompressAuto())
+      return null;
+    if (m_Settings.isNativeEngine() && (LocalCopy.isSupported(m_Settings) == null))
+      return null;
+    if (isLocal(m_Settings.getDestination()))
+      return null;
+    if (!isLocal(m_Settings.getSource()) || !new File(m_Settings.getSource()).isDirectory()) {
+      processOutput("[compress] Source is not a local directory, cannot sample", false);
+      return null;
+    }
+
+    result = new CompressionAdvisor(new File(m_Settings.getSource()));
+    try {
+      result.analyze();
+      processOutput("[compress] " + result.getSummary(), true);
+      return result;
+    }
+    catch (Exception e) {
+      System.err.println("Failed to sample source: " + m_Settings.getSource());
+      e.printStackTrace();
+      processOutput("[compress] Failed to sample source: " + e, false);
+      return null;
+    }
+  }
+
   /**
    * Performs the rsync execution.
    *
@@ -189,32 +978,129 @@ public class Execute
   protected String doExecute() {
     String			result;
     RSync			rsync;
-    StreamingProcessOutput	output;
+    int				exitCode;
+    int				numShards;
+    Manifest			manifest;
+    Budget			budget;
+    LocalCopy			copy;
+    Long			fingerprint;
+    List<String>		fanOut;
+    File			batch;
+    int				retries;
+    String			msg;
+    long			start;
 
-    result = null;
+    result   = null;
+    manifest = null;
+    batch    = null;
 
-    // pre-execute command
-    if (m_Configuration.getBoolean(m_Session + ".check_com_before"))
-      result = executeCommand(m_Configuration.getString(m_Session + ".text_com_before"), m_Configuration.getBoolean(m_Session + ".check_com_halt"));
+    // pre-execute command(s)
+    start = System.currentTimeMillis();
+    if (m_Settings.isExecuteBefore()) {
+      msg = executeCommands(m_Settings.getCommandBefore(), "pre", m_Settings.isParallelBefore());
+      if (msg != null) {
+	if (m_Settings.isHaltOnFailure())
+	  result = msg;
+	else
+	  processOutput("[hook] Ignoring failure of command(s) before rsync", false);
+      }
+    }
+    m_Metrics.setPreDuration(System.currentTimeMillis() - start);
 
-    if (result == null) {
+    if (m_Settings.isNativeEngine() && (LocalCopy.isSupported(m_Settings) != null))
+      processOutput("Cannot use native engine, falling back to rsync: " + LocalCopy.isSupported(m_Settings), false);
+
+    if ((result == null) && !m_Handle.isCancelled()) {
+      start  = System.currentTimeMillis();
+      budget = (m_Budgets == null) ? null : Budget.find(m_Budgets, m_Settings);
       try {
-	rsync  = configureRsync();
-	output = new StreamingProcessOutput(this);
-	output.monitor(rsync.builder());
+	if (budget != null)
+	  admit(budget);
+	m_Compression = adviseCompression();
+	fingerprint   = applyDryRunCache();
+	manifest      = applyManifest();
+	numShards     = getNumShards();
+	if ((m_ManifestFilesFrom != null) && (m_ManifestFilesFrom.length() == 0)) {
+	  processOutput(((manifest != null) ? "[manifest]" : "[dryrun]") + " No changes, skipping rsync", true);
+	}
+	else if (m_Settings.isNativeEngine() && (LocalCopy.isSupported(m_Settings) == null)) {
+	  copy   = new LocalCopy(m_Settings, m_DryRun, this::processOutput);
+	  copy.setHandle(m_Handle);
+	  result = copy.execute(m_FilesFrom);
+	  m_Metrics.setExitCode((result == null) ? 0 : 1);
+	}
+	else if (numShards > 1) {
+	  result = executeShards(numShards);
+	}
+	else {
+	  rsync  = configureRsync();
+	  fanOut = FanOut.parse(m_Settings.getFanOut());
+	  if (!fanOut.isEmpty() && m_DryRun) {
+	    processOutput("[fanout] Simulating, not replicating to " + fanOut.size() + " additional destination(s)", true);
+	  }
+	  else if (!fanOut.isEmpty()) {
+	    batch = FanOut.createBatch();
+	    rsync.writeBatch(batch.getAbsolutePath());
+	  }
+	  retries  = m_Metrics.getRetries();
+	  exitCode = transfer(rsync, "");
+	  m_Metrics.setExitCode(exitCode);
+	  if (!RetryPolicy.isSuccess(exitCode))
+	    result = "rsync failed with exit code " + exitCode + " (" + RetryPolicy.describe(exitCode) + ")";
+	  else if ((batch != null) && !m_Handle.isCancelled())
+	    result = executeFanOut(fanOut, batch, m_Metrics.getRetries() == retries);
+	}
+	// only remember the state of the source if it got transferred
+	if ((result == null) && (manifest != null) && !m_DryRun) {
+	  msg = manifest.save(m_ManifestFilesFrom == null);
+	  if (msg != null)
+	    processOutput("[manifest] " + msg, false);
+	}
+	if ((result == null) && (fingerprint != null) && (m_DryRunCache.getUnreliable() != null)) {
+	  m_DryRunCache.delete();
+	  processOutput("[dryrun] Not storing simulation, cannot determine path reliably: " + m_DryRunCache.getUnreliable(), true);
+	}
+	else if ((result == null) && (fingerprint != null)) {
+	  msg = m_DryRunCache.save(m_Settings.getOptionsHash(), fingerprint);
+	  if (msg == null)
+	    processOutput("[dryrun] Stored " + m_DryRunCache.getPaths().size() + " changed path(s) for executing within "
+	      + m_Settings.getDryRunReuse() + " minute(s)", true);
+	  else
+	    processOutput("[dryrun] " + msg, false);
+	}
       }
       catch (Exception e) {
 	System.err.println("Failed to execute rsync!");
 	e.printStackTrace();
 	result = "Failed to execute rsync: " + e;
       }
+      finally {
+	if (budget != null)
+	  budget.release(this);
+	FanOut.deleteBatch(batch);
+	if (m_ManifestFilesFrom != null) {
+	  if (!m_ManifestFilesFrom.delete())
+	    m_ManifestFilesFrom.deleteOnExit();
+	  m_FilesFrom         = null;
+	  m_ManifestFilesFrom = null;
+	}
+	m_Metrics.setTransferDuration(System.currentTimeMillis() - start);
+      }
     }
+    if (m_Handle.isCancelled())
+      result = "Cancelled: " + m_Handle.getReason();
+    if (!m_Metrics.hasStatistics() && (m_ItemizedParser != null))
+      m_Metrics.setFilesTransferred(m_ItemizedParser.getStatistics().getTransferred());
 
-    // post-execute command
-    if (m_Configuration.getBoolean(m_Session + ".check_com_after")) {
-      if ((result == null) || m_Configuration.getBoolean(m_Session + ".check_com_onerror"))
-	result = executeCommand(m_Configuration.getString(m_Session + ".text_com_after"), false);
+    // post-execute command(s), which must not mask a failed transfer
+    start = System.currentTimeMillis();
+    if (m_Settings.isExecuteAfter() && (m_Settings.isAfterOnErrorOnly() == (result != null))) {
+      msg = executeCommands(m_Settings.getCommandAfter(), "post", false);
+      if (msg != null)
+	result = (result == null) ? msg : result + "\n" + msg;
     }
+    m_Metrics.setPostDuration(System.currentTimeMillis() - start);
+    m_Metrics.setSuccess(result == null);
 
     return result;
   }
@@ -230,9 +1116,146 @@ public class Execute
    */
   public String execute(INIConfiguration config, String session, boolean dryRun, OutputListener listener) {
     m_Configuration = config;
-    m_Session       = session;
-    m_DryRun        = dryRun;
-    m_Listener      = listener;
-    return doExecute();
+    return execute(new Session(config, session), dryRun, listener);
+  }
+
+  /**
+   * Executes the rsync command.
+   *
+   * @param settings	the snapshot of the session to execute
+   * @param dryRun	whether to only simulate
+   * @param listener	the listener for rsync output, null to ignore
+   * @return		null if successful, otherwise error message
+   */
+  public String execute(Session settings, boolean dryRun, OutputListener listener) {
+    String	result;
+
+    m_Settings       = settings;
+    m_Session        = settings.getName();
+    m_DryRun         = dryRun;
+    m_Listener       = listener;
+    m_Metrics        = new RunMetrics(m_Session);
+    m_BandwidthLimit = 0;
+    m_Compression    = null;
+    m_DryRunCache    = null;
+    m_DryRunParser   = null;
+    if (m_Settings.isItemized())
+      m_ItemizedParser = new ItemizedChangesParser();
+    else
+      m_ItemizedParser = null;
+    if (m_Settings.getAdditionalOptions().contains("progress2"))
+      m_ProgressTracker = new ProgressTracker(true);
+    else if (m_Settings.isProgress())
+      m_ProgressTracker = new ProgressTracker(false);
+    else
+      m_ProgressTracker = null;
+
+    try {
+      m_RunLog = new RunLog(m_Session, dryRun);
+    }
+    catch (Exception e) {
+      System.err.println("Failed to create log for session: " + m_Session);
+      e.printStackTrace();
+      m_RunLog = null;
+    }
+
+    result = null;
+    m_Handle.setThread(Thread.currentThread());
+    m_Handle.startWatchdog(m_Session, m_Settings.getStallTimeout());
+    try {
+      result = doExecute();
+      return result;
+    }
+    finally {
+      // clear a pending interrupt from cancelling, the thread may be pooled
+      m_Handle.setThread(null);
+      Thread.interrupted();
+      if (m_RunLog != null) {
+	m_RunLog.close();
+	RunLog.cleanUp(m_Session, RunLog.DEFAULT_KEEP);
+      }
+      appendHistory();
+      m_Handle.finished(result);
+    }
+  }
+
+  /**
+   * Executes the rsync command in a separate thread.
+   *
+   * @param settings	the snapshot of the session to execute
+   * @param dryRun	whether to only simulate
+   * @param listener	the listener for rsync output, null to ignore
+   * @return		the handle for cancelling the run and obtaining the result
+   */
+  public RunHandle start(final Session settings, final boolean dryRun, final OutputListener listener) {
+    Thread	thread;
+
+    thread = new Thread(() -> execute(settings, dryRun, listener), "jrsync-" + settings.getName());
+    thread.start();
+    return m_Handle;
+  }
+
+  /**
+   * Appends the current run to the history of the session.
+   */
+  protected void appendHistory() {
+    long	files;
+    long	bytes;
+
+    files = m_Metrics.getFilesTransferred();
+    bytes = -1;
+    if (m_Metrics.hasStatistics()) {
+      bytes = m_Metrics.getBytesSent() + m_Metrics.getBytesReceived();
+    }
+    else if (m_ProgressTracker != null) {
+      bytes = m_ProgressTracker.getSnapshot().getBytesTransferred();
+      if (files == 0)
+	files = m_ProgressTracker.getSnapshot().getFilesTransferred();
+    }
+
+    new RunHistory(m_Session).append(new RunHistory.Entry(
+      m_Metrics.getStart(), System.currentTimeMillis(), m_Settings.getOptionsHash(),
+      files, bytes, m_Metrics.getExitCode(), m_Metrics.isSuccess(), m_DryRun));
+  }
+
+  /**
+   * Returns the log file of the current/last execution.
+   *
+   * @return		the log file, null if not logged
+   */
+  public File getLogFile() {
+    if (m_RunLog == null)
+      return null;
+    return m_RunLog.getFile();
+  }
+
+  /**
+   * Returns the metrics of the current/last execution.
+   *
+   * @return		the metrics, null if not executed yet
+   */
+  public RunMetrics getMetrics() {
+    return m_Metrics;
+  }
+
+  /**
+   * Returns the progress tracker of the current/last execution. Can be
+   * polled from other threads while the execution is running.
+   *
+   * @return		the tracker, null if progress output is not enabled
+   */
+  public ProgressTracker getProgressTracker() {
+    return m_ProgressTracker;
+  }
+
+  /**
+   * Returns the statistics of the itemized changes of the last execution.
+   *
+   * @return		the statistics, null if itemized changes were not enabled
+   */
+  public ItemizedChangesParser.Statistics getItemizedStatistics() {
+    if (m_ItemizedParser == null)
+      return null;
+    return m_ItemizedParser.getStatistics();
   }
 }
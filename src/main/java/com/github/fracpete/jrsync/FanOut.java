@@ -0,0 +1,116 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FanOut.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.rsync4j.RSync;
+import com.github.fracpete.rsync4j.core.Binaries;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper methods for replicating a session to additional destinations: the
+ * transfer to the primary destination records its changes in an rsync batch
+ * file (--write-batch), which then gets replayed to each of the additional
+ * destinations (--read-batch), ie the source only gets scanned and read
+ * once. Replaying requires the additional destinations to be in the same
+ * state as the primary destination before the transfer.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class FanOut {
+
+  /**
+   * Parses the additional destinations, separated by whitespace or
+   * semicolons, quoted if they contain any of these.
+   *
+   * @param destinations	the destinations to parse
+   * @return		the destinations, empty if none
+   * @throws IllegalArgumentException	if a quote is not closed
+   */
+  public static List<String> parse(String destinations) {
+    List<String>	result;
+
+    result = new ArrayList<>();
+    for (List<String> args: CommandParser.parse(destinations))
+      result.addAll(args);
+
+    return result;
+  }
+
+  /**
+   * Creates the batch file to record the transfer to the primary destination in.
+   *
+   * @return		the batch file (rsync also creates a shell script with suffix .sh)
+   * @throws Exception	if creating fails
+   */
+  public static File createBatch() throws Exception {
+    return File.createTempFile("jrsync-", ".batch");
+  }
+
+  /**
+   * Removes the batch file and the shell script generated by rsync.
+   *
+   * @param batch	the batch file to remove, ignored if null
+   */
+  public static void deleteBatch(File batch) {
+    File	script;
+
+    if (batch == null)
+      return;
+    script = new File(batch.getPath() + ".sh");
+    if (batch.exists() && !batch.delete())
+      batch.deleteOnExit();
+    if (script.exists() && !script.delete())
+      script.deleteOnExit();
+  }
+
+  /**
+   * Turns the configured transfer into one replaying the batch to the
+   * destination. The source and the paths to transfer are taken from the
+   * batch, all other options stay the same.
+   *
+   * @param rsync	the configured transfer
+   * @param batch	the batch file to replay
+   * @param destination	the destination to replay to
+   * @return		the process builder
+   * @throws Exception	if building the command-line fails
+   */
+  public static ProcessBuilder replay(RSync rsync, File batch, String destination) throws Exception {
+    List<String>	args;
+
+    rsync.filesFrom("");
+    rsync.from0(false);
+    rsync.deleteMissingArgs(false);
+    rsync.ignoreMissingArgs(false);
+    rsync.writeBatch("");
+    rsync.readBatch(batch.getAbsolutePath());
+
+    // rsync4j insists on sources, hence assembling the command-line manually
+    args = new ArrayList<>();
+    args.add(Binaries.rsyncBinary());
+    args.addAll(rsync.options());
+    args.add(destination);
+
+    return new ProcessBuilder(args);
+  }
+}
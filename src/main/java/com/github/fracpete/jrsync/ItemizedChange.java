@@ -0,0 +1,309 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ItemizedChange.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single change as reported by rsync's --itemize-changes option
+ * ('YXcstpoguax path'). Instances get reused by the parser, i.e., listeners
+ * must not hold on to them beyond the notification.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ItemizedChange {
+
+  /**
+   * The type of change.
+   */
+  public enum Type {
+    /** item got created. */
+    CREATED,
+    /** item content got updated. */
+    UPDATED,
+    /** only attributes of the item changed. */
+    ATTRIBUTES,
+    /** item got deleted. */
+    DELETED,
+    /** item is a hard link to another item. */
+    HARDLINK,
+    /** item is unchanged (only output with -ii). */
+    UNCHANGED,
+  }
+
+  /**
+   * The type of file.
+   */
+  public enum FileType {
+    /** regular file. */
+    FILE,
+    /** directory. */
+    DIRECTORY,
+    /** symbolic link. */
+    SYMLINK,
+    /** device. */
+    DEVICE,
+    /** special file, eg socket or fifo. */
+    SPECIAL,
+    /** unknown, eg for deletions. */
+    UNKNOWN,
+  }
+
+  /** checksum differs (regular files) or value changed (symlink, device, special). */
+  public final static int ATTR_CHECKSUM = 1;
+
+  /** size differs. */
+  public final static int ATTR_SIZE = 1 << 1;
+
+  /** modification time differs. */
+  public final static int ATTR_TIME = 1 << 2;
+
+  /** permissions differ. */
+  public final static int ATTR_PERMS = 1 << 3;
+
+  /** owner differs. */
+  public final static int ATTR_OWNER = 1 << 4;
+
+  /** group differs. */
+  public final static int ATTR_GROUP = 1 << 5;
+
+  /** access/creation time differs. */
+  public final static int ATTR_ATIME = 1 << 6;
+
+  /** ACL differs. */
+  public final static int ATTR_ACL = 1 << 7;
+
+  /** extended attributes differ. */
+  public final static int ATTR_XATTR = 1 << 8;
+
+  /** the attribute flags in order of their position in the itemized string. */
+  protected final static int[] ATTRS = {
+    ATTR_CHECKSUM, ATTR_SIZE, ATTR_TIME, ATTR_PERMS, ATTR_OWNER,
+    ATTR_GROUP, ATTR_ATIME, ATTR_ACL, ATTR_XATTR,
+  };
+
+  /** the attribute names, same order as ATTRS. */
+  protected final static String[] ATTR_NAMES = {
+    "checksum", "size", "time", "perms", "owner",
+    "group", "atime", "acl", "xattr",
+  };
+
+  /** the line the change was parsed from. */
+  protected String m_Line;
+
+  /** the start of the path in the line. */
+  protected int m_PathStart;
+
+  /** the end of the path in the line (excluding the symlink/hardlink target). */
+  protected int m_PathEnd;
+
+  /** whether the end of the path cannot be determined reliably. */
+  protected boolean m_Ambiguous;
+
+  /** the type of change. */
+  protected Type m_Type;
+
+  /** the file type. */
+  protected FileType m_FileType;
+
+  /** the changed attributes. */
+  protected int m_Attributes;
+
+  /** whether the item was transferred (sent/received). */
+  protected boolean m_Transferred;
+
+  /**
+   * Sets the state of the change.
+   *
+   * @param line	the line the change was parsed from
+   * @param pathStart	the start of the path in the line
+   * @param pathEnd	the end of the path in the line
+   * @param ambiguous	whether the end of the path is ambiguous
+   * @param type	the type of change
+   * @param fileType	the file type
+   * @param attributes	the changed attributes
+   * @param transferred	whether the item was transferred
+   */
+  protected void set(String line, int pathStart, int pathEnd, boolean ambiguous, Type type, FileType fileType, int attributes, boolean transferred) {
+    m_Line        = line;
+    m_PathStart   = pathStart;
+    m_PathEnd     = pathEnd;
+    m_Ambiguous   = ambiguous;
+    m_Type        = type;
+    m_FileType    = fileType;
+    m_Attributes  = attributes;
+    m_Transferred = transferred;
+  }
+
+  /**
+   * Returns the path of the item, without the target of symlinks
+   * (' -> target') or hard links (' => target'). Non-printable characters
+   * are still escaped by rsync ('\#ooo', see {@link #unescape(String)}).
+   * Creates a new string on every call.
+   *
+   * @return		the path
+   */
+  public String getPath() {
+    return m_Line.substring(m_PathStart, m_PathEnd);
+  }
+
+  /**
+   * Returns whether the end of the path could not be determined reliably,
+   * ie the path or the target of the link contain ' -> ' or ' => ' as well.
+   *
+   * @return		true if ambiguous
+   */
+  public boolean isAmbiguous() {
+    return m_Ambiguous;
+  }
+
+  /**
+   * Turns rsync's escapes of non-printable characters ('\#ooo', octal value
+   * of a byte) back into the characters, assuming UTF-8 file names.
+   *
+   * @param path	the path to unescape
+   * @return		the unescaped path, null if the bytes are not valid UTF-8
+   */
+  public static String unescape(String path) {
+    ByteArrayOutputStream	bytes;
+    byte[]			plain;
+    int				start;
+    int				i;
+
+    if (!path.contains("\\#"))
+      return path;
+
+    bytes = new ByteArrayOutputStream();
+    start = 0;
+    i     = 0;
+    while (i < path.length()) {
+      if (path.startsWith("\\#", i) && (i + 5 <= path.length()) && path.substring(i + 2, i + 5).matches("[0-3][0-7][0-7]")) {
+	plain = path.substring(start, i).getBytes(StandardCharsets.UTF_8);
+	bytes.write(plain, 0, plain.length);
+	bytes.write(Integer.parseInt(path.substring(i + 2, i + 5), 8));
+	i    += 5;
+	start = i;
+      }
+      else {
+	i++;
+      }
+    }
+    plain = path.substring(start).getBytes(StandardCharsets.UTF_8);
+    bytes.write(plain, 0, plain.length);
+
+    try {
+      return StandardCharsets.UTF_8.newDecoder()
+	.onMalformedInput(CodingErrorAction.REPORT)
+	.onUnmappableCharacter(CodingErrorAction.REPORT)
+	.decode(ByteBuffer.wrap(bytes.toByteArray()))
+	.toString();
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+
+  /**
+   * Returns the raw line the change was parsed from.
+   *
+   * @return		the line
+   */
+  public String getLine() {
+    return m_Line;
+  }
+
+  /**
+   * Returns the type of change.
+   *
+   * @return		the type
+   */
+  public Type getType() {
+    return m_Type;
+  }
+
+  /**
+   * Returns the file type.
+   *
+   * @return		the file type
+   */
+  public FileType getFileType() {
+    return m_FileType;
+  }
+
+  /**
+   * Returns the changed attributes as bitmask of the ATTR_* constants.
+   *
+   * @return		the attributes
+   */
+  public int getAttributes() {
+    return m_Attributes;
+  }
+
+  /**
+   * Returns whether the specified attribute changed.
+   *
+   * @param attr	the ATTR_* constant to check
+   * @return		true if changed
+   */
+  public boolean hasAttribute(int attr) {
+    return (m_Attributes & attr) != 0;
+  }
+
+  /**
+   * Returns whether the item was sent or received.
+   *
+   * @return		true if transferred
+   */
+  public boolean isTransferred() {
+    return m_Transferred;
+  }
+
+  /**
+   * Returns a short description of the change.
+   *
+   * @return		the description
+   */
+  @Override
+  public String toString() {
+    StringBuilder	result;
+    int			i;
+
+    result = new StringBuilder();
+    result.append(m_Type).append(" ").append(m_FileType).append(" ").append(getPath());
+    if (m_Attributes != 0) {
+      result.append(" [");
+      for (i = 0; i < ATTRS.length; i++) {
+	if (hasAttribute(ATTRS[i])) {
+	  if (result.charAt(result.length() - 1) != '[')
+	    result.append(",");
+	  result.append(ATTR_NAMES[i]);
+	}
+      }
+      result.append("]");
+    }
+
+    return result.toString();
+  }
+}
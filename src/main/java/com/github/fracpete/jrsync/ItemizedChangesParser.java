@@ -0,0 +1,341 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ItemizedChangesParser.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+import com.github.fracpete.jrsync.ItemizedChange.FileType;
+import com.github.fracpete.jrsync.ItemizedChange.Type;
+
+/**
+ * Streaming parser for the output generated by rsync's --itemize-changes
+ * option. Lines are inspected character by character without splitting
+ * or regular expressions, and a single change object gets reused for all
+ * notifications. Lines that are not itemized changes are ignored.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ItemizedChangesParser
+  implements OutputListener {
+
+  /**
+   * Interface for classes that want to be notified of parsed changes.
+   */
+  public interface ItemizedChangeListener {
+
+    /**
+     * Gets called for each parsed change. The change object gets reused.
+     *
+     * @param change	the change
+     */
+    public void changeOccurred(ItemizedChange change);
+  }
+
+  /**
+   * Accumulates counts of the parsed changes.
+   */
+  public static class Statistics
+    implements ItemizedChangeListener {
+
+    /** the counts per change type. */
+    protected long[] m_Types = new long[Type.values().length];
+
+    /** the counts per file type. */
+    protected long[] m_FileTypes = new long[FileType.values().length];
+
+    /** the counts per attribute. */
+    protected long[] m_Attributes = new long[ItemizedChange.ATTRS.length];
+
+    /** the number of transferred items. */
+    protected long m_Transferred;
+
+    /** the total number of changes. */
+    protected long m_Total;
+
+    /**
+     * Gets called for each parsed change.
+     *
+     * @param change	the change
+     */
+    public void changeOccurred(ItemizedChange change) {
+      int	i;
+
+      m_Total++;
+      m_Types[change.getType().ordinal()]++;
+      m_FileTypes[change.getFileType().ordinal()]++;
+      if (change.isTransferred())
+	m_Transferred++;
+      if (change.getAttributes() != 0) {
+	for (i = 0; i < ItemizedChange.ATTRS.length; i++) {
+	  if (change.hasAttribute(ItemizedChange.ATTRS[i]))
+	    m_Attributes[i]++;
+	}
+      }
+    }
+
+    /**
+     * Returns the number of changes of the specified type.
+     *
+     * @param type	the type
+     * @return		the count
+     */
+    public long getCount(Type type) {
+      return m_Types[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of changes for the specified file type.
+     *
+     * @param type	the file type
+     * @return		the count
+     */
+    public long getCount(FileType type) {
+      return m_FileTypes[type.ordinal()];
+    }
+
+    /**
+     * Returns how often the attribute changed.
+     *
+     * @param attr	the ATTR_* constant
+     * @return		the count
+     */
+    public long getAttributeCount(int attr) {
+      int	i;
+
+      for (i = 0; i < ItemizedChange.ATTRS.length; i++) {
+	if (ItemizedChange.ATTRS[i] == attr)
+	  return m_Attributes[i];
+      }
+      return 0;
+    }
+
+    /**
+     * Returns the number of transferred items.
+     *
+     * @return		the count
+     */
+    public long getTransferred() {
+      return m_Transferred;
+    }
+
+    /**
+     * Returns the total number of changes.
+     *
+     * @return		the count
+     */
+    public long getTotal() {
+      return m_Total;
+    }
+
+    /**
+     * Returns a short summary of the statistics.
+     *
+     * @return		the summary
+     */
+    @Override
+    public String toString() {
+      StringBuilder	result;
+      int		i;
+
+      result = new StringBuilder();
+      result.append("Changes: ").append(m_Total).append(" (transferred: ").append(m_Transferred).append(")\n");
+      for (Type type: Type.values())
+	result.append("  ").append(type.toString().toLowerCase()).append(": ").append(getCount(type)).append("\n");
+      result.append("File types:\n");
+      for (FileType type: FileType.values())
+	result.append("  ").append(type.toString().toLowerCase()).append(": ").append(getCount(type)).append("\n");
+      result.append("Attributes:\n");
+      for (i = 0; i < ItemizedChange.ATTRS.length; i++)
+	result.append("  ").append(ItemizedChange.ATTR_NAMES[i]).append(": ").append(m_Attributes[i]).append("\n");
+
+      return result.toString();
+    }
+  }
+
+  /** the length of the itemized code (YXcstpoguax). */
+  public final static int CODE_LENGTH = 11;
+
+  /** the reused change object. */
+  protected ItemizedChange m_Change;
+
+  /** the statistics. */
+  protected Statistics m_Statistics;
+
+  /** the (optional) listener. */
+  protected ItemizedChangeListener m_Listener;
+
+  /**
+   * Initializes the parser.
+   */
+  public ItemizedChangesParser() {
+    this(null);
+  }
+
+  /**
+   * Initializes the parser.
+   *
+   * @param listener	the listener to notify, can be null
+   */
+  public ItemizedChangesParser(ItemizedChangeListener listener) {
+    m_Change     = new ItemizedChange();
+    m_Statistics = new Statistics();
+    m_Listener   = listener;
+  }
+
+  /**
+   * Returns the accumulated statistics.
+   *
+   * @return		the statistics
+   */
+  public Statistics getStatistics() {
+    return m_Statistics;
+  }
+
+  /**
+   * Determines the file type from the itemized character.
+   *
+   * @param c		the character
+   * @return		the file type, null if invalid
+   */
+  protected static FileType fileType(char c) {
+    switch (c) {
+      case 'f':
+	return FileType.FILE;
+      case 'd':
+	return FileType.DIRECTORY;
+      case 'L':
+	return FileType.SYMLINK;
+      case 'D':
+	return FileType.DEVICE;
+      case 'S':
+	return FileType.SPECIAL;
+      default:
+	return null;
+    }
+  }
+
+  /**
+   * Parses the line and updates the change object.
+   *
+   * @param line	the line to parse
+   * @return		true if the line was an itemized change
+   */
+  protected boolean parse(String line) {
+    char	update;
+    FileType	fileType;
+    int		attrs;
+    boolean	created;
+    boolean	unchanged;
+    char	c;
+    int		i;
+    int		start;
+    int		end;
+    boolean	ambiguous;
+    String	separator;
+    Type	type;
+
+    if (line.length() < CODE_LENGTH + 2)
+      return false;
+
+    update = line.charAt(0);
+
+    // "*deleting   path"
+    if (update == '*') {
+      if (!line.startsWith("*deleting"))
+	return false;
+      start = 9;
+      while ((start < line.length()) && (line.charAt(start) == ' '))
+	start++;
+      if (start == line.length())
+	return false;
+      m_Change.set(line, start, line.length(), false, Type.DELETED, (line.charAt(line.length() - 1) == '/') ? FileType.DIRECTORY : FileType.UNKNOWN, 0, false);
+      return true;
+    }
+
+    if ((update != '<') && (update != '>') && (update != 'c') && (update != 'h') && (update != '.'))
+      return false;
+    if (line.charAt(CODE_LENGTH) != ' ')
+      return false;
+    fileType = fileType(line.charAt(1));
+    if (fileType == null)
+      return false;
+
+    attrs     = 0;
+    created   = true;
+    unchanged = true;
+    for (i = 0; i < ItemizedChange.ATTRS.length; i++) {
+      c = line.charAt(i + 2);
+      if (c != '+')
+	created = false;
+      if ((c != ' ') && (c != '.'))
+	unchanged = false;
+      if ((c != '.') && (c != ' ') && (c != '+') && (c != '?'))
+	attrs |= ItemizedChange.ATTRS[i];
+    }
+
+    if (update == 'h')
+      type = Type.HARDLINK;
+    else if (created)
+      type = Type.CREATED;
+    else if ((update == '<') || (update == '>'))
+      type = Type.UPDATED;
+    else if (unchanged)
+      type = Type.UNCHANGED;
+    else
+      type = Type.ATTRIBUTES;
+
+    // cut off the target of links (%L: ' -> symlink', ' => hardlink')
+    start     = CODE_LENGTH + 1;
+    end       = line.length();
+    ambiguous = false;
+    if (fileType == FileType.SYMLINK)
+      separator = " -> ";
+    else if (type == Type.HARDLINK)
+      separator = " => ";
+    else
+      separator = null;
+    if (separator != null) {
+      i = line.indexOf(separator, start);
+      if (i > -1) {
+	end       = i;
+	ambiguous = (line.indexOf(separator, i + 1) > -1);
+      }
+    }
+
+    m_Change.set(line, start, end, ambiguous, type, fileType, attrs, (update == '<') || (update == '>'));
+    return true;
+  }
+
+  /**
+   * Gets called whenever rsync generates output.
+   *
+   * @param line	the generated output
+   * @param stdout	true if stdout, stderr otherwise
+   */
+  public void outputOccurred(String line, boolean stdout) {
+    if (!stdout)
+      return;
+    if (!parse(line))
+      return;
+    m_Statistics.changeOccurred(m_Change);
+    if (m_Listener != null)
+      m_Listener.changeOccurred(m_Change);
+  }
+}
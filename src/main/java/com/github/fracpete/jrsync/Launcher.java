@@ -0,0 +1,380 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Launcher.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.ConsoleOutputListener;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.commons.configuration2.INIConfiguration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of the application. Parses the command-line options and
+ * either executes sessions headless (execute, watch, daemon, history) or
+ * starts up the user interface. Must not reference any AWT/Swing/FlatLaf
+ * classes outside of the user interface branch, so that headless
+ * invocations (eg from cron) do not pay for loading and initializing them.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Launcher {
+
+  /** the seconds between progress reports when executing a single session. */
+  public final static int PROGRESS_INTERVAL = 10;
+
+  /**
+   * Starts outputting the progress of the execution at regular intervals,
+   * if progress is being tracked. Includes the time since the last update,
+   * so that stalling runs can be told apart from slow ones.
+   *
+   * @param exec	the execution to report on
+   * @return		the reporting thread, stop with shutdownNow()
+   */
+  public static ScheduledExecutorService reportProgress(final Execute exec) {
+    ScheduledExecutorService	result;
+
+    result = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread t = new Thread(r, "jrsync-progress");
+      t.setDaemon(true);
+      return t;
+    });
+    result.scheduleAtFixedRate(() -> {
+      ProgressTracker tracker = exec.getProgressTracker();
+      if ((tracker == null) || (tracker.getSnapshot().getLastUpdate() == -1))
+	return;
+      ProgressTracker.Snapshot snapshot = tracker.getSnapshot();
+      System.out.println("[progress] " + snapshot
+	+ ((snapshot.getSecondsSinceLastUpdate() >= PROGRESS_INTERVAL) ? " (no update for " + snapshot.getSecondsSinceLastUpdate() + "s)" : ""));
+    }, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.SECONDS);
+
+    return result;
+  }
+
+  /**
+   * Executes the specified session.
+   *
+   * @param session	the session to execute
+   * @param simulate	whether to simulate
+   * @throws Exception	if execution fails
+   */
+  public static void execute(String session, boolean simulate) throws Exception {
+    String			msg;
+    INIConfiguration		config;
+    Execute			exec;
+    ScheduledExecutorService	progress;
+
+    config = Configuration.read();
+    if (config == null)
+      throw new IllegalStateException("Failed to read configuration???");
+
+    exec = new Execute();
+    exec.setBudgets(Budget.read());
+    // terminate rsync and its children when getting interrupted
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      if (!exec.getHandle().isFinished())
+	exec.getHandle().cancel("interrupted");
+    }));
+    progress = reportProgress(exec);
+    try {
+      msg = exec.execute(config, session, simulate, new ConsoleOutputListener());
+    }
+    finally {
+      progress.shutdownNow();
+    }
+    if (exec.getItemizedStatistics() != null) {
+      System.out.println();
+      System.out.print(exec.getItemizedStatistics());
+    }
+    if (exec.getProgressTracker() != null) {
+      System.out.println();
+      System.out.println("Progress: " + exec.getProgressTracker().getSnapshot());
+    }
+    if (msg != null)
+      throw new Exception(msg);
+  }
+
+  /**
+   * Sets up the metrics export.
+   *
+   * @param file	the textfile to write the metrics to, null if none
+   * @param port	the port for the HTTP endpoint, null if none
+   * @return		the metrics, null if no export requested
+   * @throws Exception	if starting the HTTP endpoint fails
+   */
+  public static Metrics createMetrics(String file, Integer port) throws Exception {
+    Metrics	result;
+    String	msg;
+
+    if ((file == null) && (port == null))
+      return null;
+
+    result = new Metrics();
+    if (file != null)
+      result.setTextFile(new File(file));
+    if (port != null) {
+      msg = result.startServer(port);
+      if (msg != null)
+	throw new Exception(msg);
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes the specified sessions in parallel.
+   *
+   * @param sessions	the sessions/globs to execute ('all' for all sessions)
+   * @param simulate	whether to simulate
+   * @param threads	the maximum number of sessions to run concurrently
+   * @param metrics	the metrics to record the runs in, null if not recording
+   * @throws Exception	if execution of at least one session fails
+   */
+  public static void execute(List<String> sessions, boolean simulate, int threads, Metrics metrics) throws Exception {
+    INIConfiguration		config;
+    BatchExecute		batch;
+    List<String>		expanded;
+    List<BatchExecute.Result>	results;
+
+    config = Configuration.read();
+    if (config == null)
+      throw new IllegalStateException("Failed to read configuration???");
+
+    expanded = BatchExecute.expand(config, sessions);
+    if (expanded.isEmpty())
+      throw new IllegalArgumentException("No sessions matched: " + sessions);
+
+    batch = new BatchExecute();
+    batch.setNumThreads(threads);
+    batch.setMetrics(metrics);
+    batch.setBudgets(Budget.read());
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> batch.cancel("interrupted")));
+    results = batch.execute(config, expanded, simulate, new ConsoleOutputListener());
+    System.out.println();
+    System.out.print(BatchExecute.summary(results));
+    for (BatchExecute.Result result: results) {
+      if (!result.isSuccess())
+        throw new Exception("At least one session failed!");
+    }
+  }
+
+  /**
+   * Runs the scheduler daemon until the process gets terminated.
+   *
+   * @param threads	the maximum number of sessions to run concurrently
+   * @param metrics	the metrics to record the runs in, null if not recording
+   */
+  public static void daemon(int threads, Metrics metrics) {
+    Daemon	daemon;
+
+    daemon = new Daemon(threads, new ConsoleOutputListener());
+    daemon.setMetrics(metrics);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> daemon.cancel("daemon terminated")));
+    daemon.run();
+  }
+
+  /**
+   * Watches the source directories of the specified sessions and transfers
+   * changes, until the process gets terminated.
+   *
+   * @param sessions	the sessions/globs to watch
+   * @param metrics	the metrics to record the transfers in, null if not recording
+   * @throws Exception	if reading the configuration fails
+   */
+  public static void watch(List<String> sessions, Metrics metrics) throws Exception {
+    INIConfiguration	config;
+    List<String>	expanded;
+    List<Thread>	threads;
+    Thread		thread;
+    Watcher		watcher;
+    List<Budget>	budgets;
+
+    config = Configuration.read();
+    if (config == null)
+      throw new IllegalStateException("Failed to read configuration???");
+
+    expanded = BatchExecute.expand(config, sessions);
+    if (expanded.isEmpty())
+      throw new IllegalArgumentException("No sessions matched: " + sessions);
+
+    threads = new ArrayList<>();
+    budgets = Budget.read();
+    for (String session: expanded) {
+      watcher = new Watcher(new Session(config, session), new ConsoleOutputListener());
+      watcher.setMetrics(metrics);
+      watcher.setBudgets(budgets);
+      thread = new Thread(watcher, "jrsync-watch-" + session);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread t: threads)
+      t.join();
+  }
+
+  /**
+   * Outputs the trends of the newest runs of the specified sessions.
+   *
+   * @param sessions	the sessions/globs to report on, all if empty
+   * @param runs	the number of newest runs to analyze
+   * @param factor	the factor of the baseline above which runs are considered slow
+   * @throws Exception	if reading the configuration or history fails
+   */
+  public static void history(List<String> sessions, int runs, double factor) throws Exception {
+    INIConfiguration	config;
+    List<String>	expanded;
+
+    config = Configuration.read();
+    if (config == null)
+      throw new IllegalStateException("Failed to read configuration???");
+
+    if (sessions.isEmpty())
+      expanded = BatchExecute.expand(config, Collections.singletonList(BatchExecute.ALL));
+    else
+      expanded = BatchExecute.expand(config, sessions);
+    for (String session: expanded)
+      System.out.println(new RunHistory(session).report(runs, factor));
+  }
+
+  /**
+   * Executes the application. Only the user interface (no execution mode
+   * selected) loads the AWT/Swing classes.
+   *
+   * @param args	the command-line options
+   * @throws Exception	if parsing fails
+   */
+  public static void main(String[] args) throws Exception {
+    ArgumentParser 	parser;
+    Namespace 		ns;
+    List<String>	sessions;
+    String		session;
+    Metrics		metrics;
+
+    parser = ArgumentParsers.newFor(Launcher.class.getName()).build();
+    parser.description("Frontend for rsync command-line execution.");
+    parser.addArgument("-e")
+      .action(Arguments.storeTrue())
+      .required(false)
+      .dest("execute")
+      .help("Automatically executes the specified session and exits.");
+    parser.addArgument("-s")
+      .action(Arguments.storeTrue())
+      .required(false)
+      .dest("simulate")
+      .help("Whether to perform a dry-run ('simulate').");
+    parser.addArgument("-d")
+      .action(Arguments.storeTrue())
+      .required(false)
+      .dest("daemon")
+      .help("Runs as daemon, executing the sessions according to their schedules.");
+    parser.addArgument("-w")
+      .action(Arguments.storeTrue())
+      .required(false)
+      .dest("watch")
+      .help("Watches the source directories of the specified session(s) and transfers changes.");
+    parser.addArgument("-j")
+      .type(Integer.class)
+      .setDefault(Runtime.getRuntime().availableProcessors())
+      .required(false)
+      .dest("threads")
+      .help("The maximum number of sessions to execute in parallel when executing multiple sessions or in daemon mode.");
+    parser.addArgument("-H")
+      .action(Arguments.storeTrue())
+      .required(false)
+      .dest("history")
+      .help("Outputs the trends of the recorded runs of the specified session(s), all if none specified.");
+    parser.addArgument("--history-runs")
+      .type(Integer.class)
+      .setDefault(30)
+      .required(false)
+      .dest("history_runs")
+      .help("The number of newest runs to analyze for the history.");
+    parser.addArgument("--history-slower")
+      .type(Double.class)
+      .setDefault(2.0)
+      .required(false)
+      .dest("history_slower")
+      .help("The factor of the baseline (median duration) above which runs get reported as slow in the history.");
+    parser.addArgument("--metrics-file")
+      .required(false)
+      .dest("metrics_file")
+      .help("The file to write the metrics of the runs to in Prometheus text format (eg for the node exporter's textfile collector), when executing multiple sessions, watching or in daemon mode.");
+    parser.addArgument("--metrics-port")
+      .type(Integer.class)
+      .required(false)
+      .dest("metrics_port")
+      .help("The port on localhost to serve the metrics of the runs on ('/metrics'), when executing multiple sessions, watching or in daemon mode.");
+    parser.addArgument("session")
+      .nargs("*")
+      .help("The session(s) to use. When executing, multiple sessions, globs (eg 'backup-*') or '" + BatchExecute.ALL + "' can be supplied.");
+
+    ns = null;
+    try {
+      ns = parser.parseArgs(args);
+    }
+    catch (ArgumentParserException e) {
+      parser.handleError(e);
+    }
+    catch (Throwable t) {
+      throw t;
+    }
+
+    if (ns != null) {
+      sessions = ns.getList("session");
+      session  = sessions.isEmpty() ? "" : sessions.get(0);
+      if (ns.getBoolean("history")) {
+        history(sessions, ns.getInt("history_runs"), ns.getDouble("history_slower"));
+      }
+      else if (ns.getBoolean("daemon")) {
+        daemon(ns.getInt("threads"), createMetrics(ns.getString("metrics_file"), ns.getInt("metrics_port")));
+      }
+      else if (!session.isEmpty() && ns.getBoolean("watch")) {
+        watch(sessions, createMetrics(ns.getString("metrics_file"), ns.getInt("metrics_port")));
+      }
+      else if (!session.isEmpty() && ns.getBoolean("execute")) {
+        if ((sessions.size() == 1) && !BatchExecute.isBatch(session)) {
+	  execute(session, ns.getBoolean("simulate"));
+	}
+        else {
+	  metrics = createMetrics(ns.getString("metrics_file"), ns.getInt("metrics_port"));
+	  try {
+	    execute(sessions, ns.getBoolean("simulate"), ns.getInt("threads"), metrics);
+	  }
+	  finally {
+	    if (metrics != null)
+	      metrics.stopServer();
+	  }
+	}
+      }
+      else {
+	Main.showGUI(session);
+      }
+    }
+  }
+}
@@ -0,0 +1,799 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LocalCopy.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process copy engine for sessions where source and destination are both
+ * local, avoiding the rsync process altogether. Directories are processed in
+ * parallel using fork/join, files are copied with {@link FileChannel#transferTo}
+ * into a temporary file that gets renamed once complete (like rsync does).
+ * <br>
+ * Mirrors the following session options: preserve times/permissions/owner/group,
+ * delete, ignore existing, size only, skip newer, windows compatibility
+ * (1 second modification window), checksum, symlinks, only update existing,
+ * no recursion, verbose and itemized changes (in rsync's format). Like the
+ * rsync invocation of the session (which only uses --dirs), sub-directories
+ * get created but only descended into if the additional options contain
+ * -r/--recursive (the only additional options supported). Sessions using
+ * other options (see {@link #isSupported(Session)}) still require rsync.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class LocalCopy {
+
+  /** the buffer size for comparing file contents. */
+  public final static int BUFFER_SIZE = 65536;
+
+  /**
+   * Synchronizes a single directory and forks tasks for its sub-directories.
+   */
+  protected class DirectoryTask
+    extends RecursiveAction {
+
+    private static final long serialVersionUID = 4296436711720185826L;
+
+    /** the source directory. */
+    protected Path m_Source;
+
+    /** the destination directory. */
+    protected Path m_Dest;
+
+    /**
+     * Initializes the task.
+     *
+     * @param source	the source directory
+     * @param dest	the destination directory
+     */
+    public DirectoryTask(Path source, Path dest) {
+      m_Source = source;
+      m_Dest   = dest;
+    }
+
+    /**
+     * Synchronizes the directory.
+     */
+    @Override
+    protected void compute() {
+      List<DirectoryTask>	tasks;
+      Set<String>		names;
+      BasicFileAttributes	attrs;
+      Path			dest;
+
+      if (isCancelled())
+	return;
+      tasks = new ArrayList<>();
+      names = new HashSet<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_Source)) {
+	for (Path path: stream) {
+	  if (isCancelled())
+	    return;
+	  names.add(path.getFileName().toString());
+	  dest  = m_Dest.resolve(path.getFileName().toString());
+	  attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	  if (attrs.isDirectory()) {
+	    if (syncDirectory(path, dest, attrs) && m_Recursive)
+	      tasks.add(new DirectoryTask(path, dest));
+	  }
+	  else {
+	    syncEntry(path, dest, attrs);
+	  }
+	}
+      }
+      catch (IOException e) {
+	error(m_Source, e);
+	return;
+      }
+      if (m_Settings.isDelete())
+	deleteExtraneous(m_Dest, names);
+      invokeAll(tasks);
+      // directory times need restoring after the content got modified
+      if (m_Settings.isPreserveTime() && !m_DryRun && !tasks.isEmpty()) {
+	for (DirectoryTask task: tasks)
+	  copyTime(task.m_Source, task.m_Dest);
+      }
+    }
+  }
+
+  /** the session to execute. */
+  protected Session m_Settings;
+
+  /** whether to only simulate. */
+  protected boolean m_DryRun;
+
+  /** the listener for the output. */
+  protected OutputListener m_Listener;
+
+  /** the source root. */
+  protected Path m_SourceRoot;
+
+  /** the destination root. */
+  protected Path m_DestRoot;
+
+  /** the errors that occurred. */
+  protected ConcurrentLinkedQueue<String> m_Errors;
+
+  /** the number of copied files. */
+  protected AtomicLong m_Copied;
+
+  /** the number of copied bytes. */
+  protected AtomicLong m_Bytes;
+
+  /** the number of deleted files/dirs. */
+  protected AtomicLong m_Deleted;
+
+  /** the handle of the run for checking for cancellation, null if not cancellable. */
+  protected RunHandle m_Handle;
+
+  /** whether to descend into sub-directories. */
+  protected boolean m_Recursive;
+
+  /**
+   * Initializes the engine.
+   *
+   * @param settings	the session to execute
+   * @param dryRun	whether to only simulate
+   * @param listener	the listener for the output, null to ignore
+   */
+  public LocalCopy(Session settings, boolean dryRun, OutputListener listener) {
+    m_Settings = settings;
+    m_DryRun   = dryRun;
+    m_Listener = listener;
+    m_Errors   = new ConcurrentLinkedQueue<>();
+    m_Copied   = new AtomicLong();
+    m_Bytes    = new AtomicLong();
+    m_Deleted  = new AtomicLong();
+    m_Recursive = isRecursive(settings);
+  }
+
+  /**
+   * Sets the handle of the run, which gets checked for cancellation before
+   * each file.
+   *
+   * @param value	the handle, null if not cancellable
+   */
+  public void setHandle(RunHandle value) {
+    m_Handle = value;
+  }
+
+  /**
+   * Returns whether the run got cancelled.
+   *
+   * @return		true if cancelled
+   */
+  protected boolean isCancelled() {
+    return (m_Handle != null) && m_Handle.isCancelled();
+  }
+
+  /**
+   * Checks whether the session descends into sub-directories, ie whether the
+   * additional options contain -r/--recursive.
+   *
+   * @param settings	the session to check
+   * @return		true if recursive
+   */
+  public static boolean isRecursive(Session settings) {
+    for (String option: settings.getAdditionalOptions().trim().split("\\s+")) {
+      if (option.equals("-r") || option.equals("--recursive"))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the session can be executed by this engine, ie source and
+   * destination are local and it doesn't use any unsupported options.
+   *
+   * @param settings	the session to check
+   * @return		null if supported, otherwise the reason why not
+   */
+  public static String isSupported(Session settings) {
+    if (!Execute.isLocal(settings.getSource()) || !Execute.isLocal(settings.getDestination()))
+      return "source and destination must be local";
+    if (!new File(settings.getSource()).isDirectory())
+      return "source must be a directory";
+    for (String option: settings.getAdditionalOptions().trim().split("\\s+")) {
+      if (!option.isEmpty() && !option.equals("-r") && !option.equals("--recursive"))
+	return "additional options other than -r/--recursive are not supported";
+    }
+    if (settings.isHardlinks())
+      return "hardlinks are not supported";
+    if (settings.isDevices())
+      return "devices are not supported";
+    if (settings.isBackup())
+      return "backups are not supported";
+    if (settings.isOneFileSystem())
+      return "one file system is not supported";
+    if (!settings.getFanOut().isEmpty())
+      return "additional destinations are not supported";
+    return null;
+  }
+
+  /**
+   * Outputs the line.
+   *
+   * @param line	the line
+   * @param stdout	whether stdout or stderr
+   */
+  protected void output(String line, boolean stdout) {
+    if (m_Listener != null)
+      m_Listener.outputOccurred(line, stdout);
+  }
+
+  /**
+   * Outputs the change, either itemized or just the path (verbose).
+   *
+   * @param code	the itemized code (11 chars)
+   * @param path	the affected path (destination)
+   */
+  protected void change(String code, Path path) {
+    String	rel;
+
+    rel = m_DestRoot.relativize(path).toString().replace(File.separatorChar, '/');
+    if (code.endsWith("+++++++++") && (code.charAt(1) == 'd'))
+      rel += "/";
+    if (m_Settings.isItemized())
+      output(code + " " + rel, true);
+    else if (m_Settings.isVerbose() && (code.charAt(0) != '.'))
+      output(rel, true);
+  }
+
+  /**
+   * Records the error.
+   *
+   * @param path	the path the error occurred with
+   * @param e		the exception
+   */
+  protected void error(Path path, Exception e) {
+    m_Errors.add(path + ": " + e);
+    output("jrsync: " + path + ": " + e, false);
+  }
+
+  /**
+   * Checks whether the modification times are considered the same.
+   *
+   * @param source	the source attributes
+   * @param dest	the destination attributes
+   * @return		true if same
+   */
+  protected boolean sameTime(BasicFileAttributes source, BasicFileAttributes dest) {
+    long	window;
+
+    window = m_Settings.isWindowsCompatibility() ? 1000 : 0;
+    // rsync compares at second granularity
+    return Math.abs(source.lastModifiedTime().toMillis() / 1000 * 1000 - dest.lastModifiedTime().toMillis() / 1000 * 1000) <= window;
+  }
+
+  /**
+   * Compares the content of the two files.
+   *
+   * @param source	the source file
+   * @param dest	the destination file
+   * @return		true if the same
+   * @throws IOException	if reading fails
+   */
+  protected static boolean sameContent(Path source, Path dest) throws IOException {
+    byte[]	bufSource;
+    byte[]	bufDest;
+    int		readSource;
+    int		readDest;
+
+    bufSource = new byte[BUFFER_SIZE];
+    bufDest   = new byte[BUFFER_SIZE];
+    try (InputStream inSource = Files.newInputStream(source); InputStream inDest = Files.newInputStream(dest)) {
+      while (true) {
+	readSource = inSource.readNBytes(bufSource, 0, bufSource.length);
+	readDest   = inDest.readNBytes(bufDest, 0, bufDest.length);
+	if (readSource != readDest)
+	  return false;
+	if (readSource == 0)
+	  return true;
+	if (!ByteBuffer.wrap(bufSource, 0, readSource).equals(ByteBuffer.wrap(bufDest, 0, readDest)))
+	  return false;
+      }
+    }
+  }
+
+  /**
+   * Returns the attributes of the path.
+   *
+   * @param path	the path
+   * @return		the attributes, null if not existing
+   */
+  protected static BasicFileAttributes attributes(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Compares the attributes of an existing destination (whose content
+   * doesn't need updating) with the source and applies the ones that differ
+   * (as configured), outputting the change in rsync's format (eg
+   * '.f..t......', '.d...p.og..').
+   *
+   * @param source	the source
+   * @param dest	the destination
+   * @param attrs	the attributes of the source
+   * @param destAttrs	the attributes of the destination
+   */
+  protected void syncAttributes(Path source, Path dest, BasicFileAttributes attrs, BasicFileAttributes destAttrs) {
+    PosixFileAttributes	posix;
+    PosixFileAttributes	destPosix;
+    char[]		code;
+    boolean		time;
+    boolean		other;
+
+    code    = ".f.........".toCharArray();
+    code[1] = attrs.isDirectory() ? 'd' : 'f';
+    time    = m_Settings.isPreserveTime() && !sameTime(attrs, destAttrs);
+    if (time)
+      code[4] = 't';
+    if (m_Settings.isPreservePermissions() || m_Settings.isPreserveOwner() || m_Settings.isPreserveGroup()) {
+      try {
+	posix     = Files.readAttributes(source, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	destPosix = Files.readAttributes(dest, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	if (m_Settings.isPreservePermissions() && !posix.permissions().equals(destPosix.permissions()))
+	  code[5] = 'p';
+	if (m_Settings.isPreserveOwner() && !posix.owner().equals(destPosix.owner()))
+	  code[6] = 'o';
+	if (m_Settings.isPreserveGroup() && !posix.group().equals(destPosix.group()))
+	  code[7] = 'g';
+      }
+      catch (UnsupportedOperationException e) {
+	// no POSIX attributes available, eg on Windows
+      }
+      catch (Exception e) {
+	error(dest, e);
+      }
+    }
+    other = (code[5] != '.') || (code[6] != '.') || (code[7] != '.');
+    if (!time && !other)
+      return;
+
+    change(new String(code), dest);
+    if (m_DryRun)
+      return;
+    if (other)
+      copyAttributes(source, dest);
+    if (time)
+      copyTime(source, dest);
+  }
+
+  /**
+   * Applies permissions, owner and group (as configured) to the destination.
+   *
+   * @param source	the source
+   * @param dest	the destination
+   */
+  protected void copyAttributes(Path source, Path dest) {
+    PosixFileAttributes		attrs;
+    PosixFileAttributeView	view;
+
+    if (!m_Settings.isPreservePermissions() && !m_Settings.isPreserveOwner() && !m_Settings.isPreserveGroup())
+      return;
+    view = Files.getFileAttributeView(dest, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (view == null)
+      return;
+    try {
+      attrs = Files.readAttributes(source, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (m_Settings.isPreservePermissions())
+	view.setPermissions(attrs.permissions());
+    }
+    catch (Exception e) {
+      error(dest, e);
+      return;
+    }
+    // like rsync, silently ignored if not permitted
+    try {
+      if (m_Settings.isPreserveOwner())
+	view.setOwner(attrs.owner());
+      if (m_Settings.isPreserveGroup())
+	view.setGroup(attrs.group());
+    }
+    catch (Exception e) {
+      // ignored
+    }
+  }
+
+  /**
+   * Applies the modification time (if configured) to the destination.
+   *
+   * @param source	the source
+   * @param dest	the destination
+   */
+  protected void copyTime(Path source, Path dest) {
+    FileTime	time;
+
+    if (!m_Settings.isPreserveTime())
+      return;
+    try {
+      time = Files.getLastModifiedTime(source, LinkOption.NOFOLLOW_LINKS);
+      Files.setLastModifiedTime(dest, time);
+    }
+    catch (Exception e) {
+      error(dest, e);
+    }
+  }
+
+  /**
+   * Creates the destination directory if necessary.
+   *
+   * @param source	the source directory
+   * @param dest	the destination directory
+   * @param attrs	the attributes of the source directory
+   * @return		true if the directory exists (or would exist in dry-run mode) and can be descended into
+   */
+  protected boolean syncDirectory(Path source, Path dest, BasicFileAttributes attrs) {
+    BasicFileAttributes	destAttrs;
+
+    destAttrs = attributes(dest);
+    if ((destAttrs != null) && destAttrs.isDirectory()) {
+      syncAttributes(source, dest, attrs, destAttrs);
+      return true;
+    }
+    if (m_Settings.isOnlyUpdateExisting())
+      return false;
+
+    change("cd+++++++++", dest);
+    if (m_DryRun)
+      return true;
+    try {
+      if (destAttrs != null)
+	delete(dest, false);
+      Files.createDirectory(dest);
+      copyAttributes(source, dest);
+      copyTime(source, dest);
+    }
+    catch (Exception e) {
+      error(dest, e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Synchronizes a file or symlink.
+   *
+   * @param source	the source
+   * @param dest	the destination
+   * @param attrs	the attributes of the source
+   */
+  protected void syncEntry(Path source, Path dest, BasicFileAttributes attrs) {
+    BasicFileAttributes	destAttrs;
+    Path		target;
+    boolean		exists;
+
+    if (attrs.isSymbolicLink()) {
+      if (!m_Settings.isSymlinks()) {
+	output("skipping non-regular file \"" + m_SourceRoot.relativize(source) + "\"", true);
+	return;
+      }
+    }
+    else if (!attrs.isRegularFile()) {
+      output("skipping non-regular file \"" + m_SourceRoot.relativize(source) + "\"", true);
+      return;
+    }
+
+    destAttrs = attributes(dest);
+    exists    = (destAttrs != null);
+    if (!exists && m_Settings.isOnlyUpdateExisting())
+      return;
+    if (exists && m_Settings.isIgnoreExisting())
+      return;
+    if (exists && m_Settings.isSkipNewer() && destAttrs.lastModifiedTime().compareTo(attrs.lastModifiedTime()) > 0)
+      return;
+
+    try {
+      if (attrs.isSymbolicLink()) {
+	target = Files.readSymbolicLink(source);
+	if (exists && destAttrs.isSymbolicLink() && Files.readSymbolicLink(dest).equals(target))
+	  return;
+	change(exists ? "cL.T......." : "cL+++++++++", dest);
+	if (m_DryRun)
+	  return;
+	if (exists)
+	  delete(dest, false);
+	Files.createSymbolicLink(dest, target);
+	return;
+      }
+
+      // content up-to-date, but attributes might differ
+      if (exists && destAttrs.isRegularFile() && (destAttrs.size() == attrs.size())) {
+	if (m_Settings.isChecksum()) {
+	  if (sameContent(source, dest)) {
+	    syncAttributes(source, dest, attrs, destAttrs);
+	    return;
+	  }
+	}
+	else if (m_Settings.isSizeOnly() || sameTime(attrs, destAttrs)) {
+	  syncAttributes(source, dest, attrs, destAttrs);
+	  return;
+	}
+      }
+
+      change(exists ? ">f.st......" : ">f+++++++++", dest);
+      if (m_DryRun)
+	return;
+      if (exists && !destAttrs.isRegularFile())
+	delete(dest, false);
+      if (!copy(source, dest, attrs.size()))
+	return;
+      m_Copied.incrementAndGet();
+      m_Bytes.addAndGet(attrs.size());
+    }
+    catch (Exception e) {
+      error(source, e);
+    }
+  }
+
+  /**
+   * Copies the file via a temporary file in the destination directory. If
+   * the source gets truncated or removed while copying, the destination is
+   * left untouched and the file reported as vanished or changed (like rsync).
+   *
+   * @param source	the source file
+   * @param dest	the destination file
+   * @param size	the size of the file
+   * @return		true if copied, false if cancelled, vanished or changed
+   * @throws IOException	if copying fails
+   */
+  protected boolean copy(Path source, Path dest, long size) throws IOException {
+    Path	tmp;
+    long	pos;
+    long	count;
+
+    tmp = dest.resolveSibling("." + dest.getFileName() + "." + Long.toHexString(Thread.currentThread().getId()) + ".tmp");
+    try {
+      try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+	   FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+	pos = 0;
+	while (pos < size) {
+	  if (isCancelled())
+	    return false;
+	  count = in.transferTo(pos, size - pos, out);
+	  if (count <= 0)
+	    break;
+	  pos += count;
+	}
+      }
+      if (pos < size) {
+	if (Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+	  error(source, new IOException("file changed size while copying (" + pos + " of " + size + " bytes)"));
+	else
+	  error(source, new IOException("file has vanished"));
+	return false;
+      }
+      copyAttributes(source, tmp);
+      copyTime(source, tmp);
+      try {
+	Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (FileAlreadyExistsException e) {
+	Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    }
+    finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Deletes the path (recursively if a directory).
+   *
+   * @param path	the path to delete
+   * @param report	whether to report the deletion
+   * @throws IOException	if deleting fails
+   */
+  protected void delete(Path path, boolean report) throws IOException {
+    BasicFileAttributes	attrs;
+    String		rel;
+
+    attrs = attributes(path);
+    if (attrs == null)
+      return;
+    if (attrs.isDirectory()) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+	for (Path child: stream)
+	  delete(child, report);
+      }
+    }
+    if (report) {
+      rel = m_DestRoot.relativize(path).toString().replace(File.separatorChar, '/') + (attrs.isDirectory() ? "/" : "");
+      if (m_Settings.isItemized() || m_Settings.isVerbose())
+	output("*deleting   " + rel, true);
+      m_Deleted.incrementAndGet();
+    }
+    if (!m_DryRun)
+      Files.delete(path);
+  }
+
+  /**
+   * Deletes entries in the destination directory that are not present in
+   * the source directory.
+   *
+   * @param dest	the destination directory
+   * @param names	the names of the entries in the source directory
+   */
+  protected void deleteExtraneous(Path dest, Set<String> names) {
+    List<Path>	extraneous;
+
+    if (!Files.isDirectory(dest, LinkOption.NOFOLLOW_LINKS))
+      return;
+    extraneous = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dest)) {
+      for (Path path: stream) {
+	if (!names.contains(path.getFileName().toString()))
+	  extraneous.add(path);
+      }
+    }
+    catch (IOException e) {
+      error(dest, e);
+      return;
+    }
+    for (Path path: extraneous) {
+      try {
+	delete(path, true);
+      }
+      catch (IOException e) {
+	error(path, e);
+      }
+    }
+  }
+
+  /**
+   * Synchronizes only the specified paths (relative to the source), eg
+   * generated by the manifest or the watcher. Paths that no longer exist in
+   * the source get deleted in the destination if deletion is enabled.
+   *
+   * @param paths	the paths
+   */
+  protected void syncPaths(List<String> paths) {
+    Path		source;
+    Path		dest;
+    BasicFileAttributes	attrs;
+
+    for (String path: paths) {
+      if (isCancelled())
+	return;
+      source = m_SourceRoot.resolve(path);
+      dest   = m_DestRoot.resolve(path);
+      attrs  = attributes(source);
+      try {
+	if (attrs == null) {
+	  if (m_Settings.isDelete())
+	    delete(dest, true);
+	  continue;
+	}
+	if (!m_DryRun && !Files.isDirectory(dest.getParent()))
+	  Files.createDirectories(dest.getParent());
+	if (attrs.isDirectory()) {
+	  if (syncDirectory(source, dest, attrs) && m_Recursive)
+	    ForkJoinPool.commonPool().invoke(new DirectoryTask(source, dest));
+	}
+	else {
+	  syncEntry(source, dest, attrs);
+	}
+      }
+      catch (Exception e) {
+	error(source, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the NUL-separated paths.
+   *
+   * @param filesFrom	the file to read
+   * @return		the paths
+   * @throws IOException	if reading fails
+   */
+  protected static List<String> readFilesFrom(File filesFrom) throws IOException {
+    List<String>	result;
+
+    result = new ArrayList<>();
+    for (String path: new String(Files.readAllBytes(filesFrom.toPath()), StandardCharsets.UTF_8).split("\0")) {
+      if (!path.isEmpty())
+	result.add(path);
+    }
+
+    return result;
+  }
+
+  /**
+   * Performs the synchronization.
+   *
+   * @param filesFrom	the file with the NUL-separated paths to synchronize, null for all
+   * @return		null if successful, otherwise error message
+   */
+  public String execute(File filesFrom) {
+    long	start;
+
+    start        = System.currentTimeMillis();
+    m_SourceRoot = new File(m_Settings.getSource()).toPath().toAbsolutePath();
+    m_DestRoot   = new File(Shards.destination(m_Settings.getSource(), m_Settings.getDestination())).toPath().toAbsolutePath();
+
+    // like rsync without --dirs/--recursive
+    if (m_Settings.isNoRecursion() && (filesFrom == null)) {
+      output("skipping directory " + m_Settings.getSource(), true);
+      return null;
+    }
+
+    try {
+      if (!Files.isDirectory(m_DestRoot)) {
+	change("cd+++++++++", m_DestRoot);
+	if (!m_DryRun)
+	  Files.createDirectories(m_DestRoot);
+      }
+      if (filesFrom != null) {
+	syncPaths(readFilesFrom(filesFrom));
+      }
+      else {
+	ForkJoinPool.commonPool().invoke(new DirectoryTask(m_SourceRoot, m_DestRoot));
+	if (!m_DryRun)
+	  copyTime(m_SourceRoot, m_DestRoot);
+      }
+    }
+    catch (Exception e) {
+      error(m_DestRoot, e);
+    }
+
+    output("Copied " + m_Copied.get() + " file(s) (" + ProgressTracker.formatBytes(m_Bytes.get()) + "), deleted "
+      + m_Deleted.get() + " in " + (System.currentTimeMillis() - start) + "ms" + (m_DryRun ? " (DRY RUN)" : ""), true);
+
+    if (isCancelled())
+      return "Cancelled: " + m_Handle.getReason();
+    if (!m_Errors.isEmpty())
+      return "Some files/attrs were not transferred (" + m_Errors.size() + " error(s)), e.g.: " + m_Errors.peek();
+    return null;
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LogIndex.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Provides random access to the lines of a (potentially huge) log file
+ * without loading it into the heap. The file gets memory-mapped in chunks
+ * and a sparse index of line offsets (one entry per {@link #STRIDE} lines)
+ * is built, which can happen in a background thread while lines already
+ * indexed are being accessed.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class LogIndex
+  implements AutoCloseable {
+
+  /** the number of lines between index entries. */
+  public final static int STRIDE = 64;
+
+  /** the size of the mapped chunks. */
+  public final static long CHUNK = 64L * 1024 * 1024;
+
+  /** the file. */
+  protected File m_File;
+
+  /** the channel. */
+  protected FileChannel m_Channel;
+
+  /** the size of the file (at time of opening). */
+  protected long m_Size;
+
+  /** the mapped chunks (lazily initialized). */
+  protected MappedByteBuffer[] m_Chunks;
+
+  /** the offsets of every STRIDE-th line. */
+  protected long[] m_Offsets;
+
+  /** the number of lines indexed so far. */
+  protected volatile int m_LineCount;
+
+  /** whether indexing has finished. */
+  protected volatile boolean m_Indexed;
+
+  /**
+   * Opens the log file.
+   *
+   * @param file	the file to open
+   * @throws IOException	if opening fails
+   */
+  public LogIndex(File file) throws IOException {
+    m_File    = file;
+    m_Channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    m_Size    = m_Channel.size();
+    m_Chunks  = new MappedByteBuffer[(int) ((m_Size + CHUNK - 1) / CHUNK)];
+    m_Offsets = new long[1024];
+  }
+
+  /**
+   * Returns the file.
+   *
+   * @return		the file
+   */
+  public File getFile() {
+    return m_File;
+  }
+
+  /**
+   * Returns the chunk for the position.
+   *
+   * @param pos		the position in the file
+   * @return		the chunk
+   * @throws IOException	if mapping fails
+   */
+  protected synchronized MappedByteBuffer chunk(long pos) throws IOException {
+    int		index;
+
+    index = (int) (pos / CHUNK);
+    if (m_Chunks[index] == null)
+      m_Chunks[index] = m_Channel.map(FileChannel.MapMode.READ_ONLY, index * CHUNK, Math.min(CHUNK, m_Size - index * CHUNK));
+    return m_Chunks[index];
+  }
+
+  /**
+   * Builds the index of line offsets. Lines become accessible while the
+   * index is being built.
+   *
+   * @throws IOException	if reading fails
+   */
+  public void index() throws IOException {
+    MappedByteBuffer	chunk;
+    long		pos;
+    long		start;
+    int			lines;
+    int			i;
+    int			len;
+
+    pos   = 0;
+    lines = 0;
+    start = 0;
+    while (pos < m_Size) {
+      chunk = chunk(pos);
+      len   = chunk.limit();
+      for (i = (int) (pos % CHUNK); i < len; i++) {
+	if (chunk.get(i) == '\n') {
+	  addLine(lines, start);
+	  lines++;
+	  start = pos - (pos % CHUNK) + i + 1;
+	  if (lines % STRIDE == 0)
+	    m_LineCount = lines;
+	}
+      }
+      pos = pos - (pos % CHUNK) + len;
+    }
+    // last line without trailing newline
+    if (start < m_Size) {
+      addLine(lines, start);
+      lines++;
+    }
+    m_LineCount = lines;
+    m_Indexed   = true;
+  }
+
+  /**
+   * Records the start of the line if it is an index line.
+   *
+   * @param line	the line number
+   * @param start	the start of the line
+   */
+  protected void addLine(int line, long start) {
+    int		index;
+
+    if (line % STRIDE != 0)
+      return;
+    index = line / STRIDE;
+    synchronized(this) {
+      if (index >= m_Offsets.length)
+	m_Offsets = Arrays.copyOf(m_Offsets, m_Offsets.length * 2);
+      m_Offsets[index] = start;
+    }
+  }
+
+  /**
+   * Returns whether indexing has finished.
+   *
+   * @return		true if finished
+   */
+  public boolean isIndexed() {
+    return m_Indexed;
+  }
+
+  /**
+   * Returns the number of lines accessible so far.
+   *
+   * @return		the number of lines
+   */
+  public int getLineCount() {
+    return m_LineCount;
+  }
+
+  /**
+   * Returns the specified line.
+   *
+   * @param line	the 0-based line number
+   * @return		the line, null if not (yet) available
+   */
+  public String getLine(int line) {
+    ByteArrayOutputStream	bytes;
+    MappedByteBuffer		chunk;
+    long			pos;
+    int				skip;
+    byte			b;
+    byte[]			data;
+    int				len;
+
+    if ((line < 0) || (line >= m_LineCount))
+      return null;
+
+    synchronized(this) {
+      pos = m_Offsets[line / STRIDE];
+    }
+    skip  = line % STRIDE;
+    bytes = new ByteArrayOutputStream();
+    try {
+      while (pos < m_Size) {
+	chunk = chunk(pos);
+	b     = chunk.get((int) (pos % CHUNK));
+	pos++;
+	if (b == '\n') {
+	  if (skip == 0)
+	    break;
+	  skip--;
+	}
+	else if (skip == 0) {
+	  bytes.write(b);
+	}
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+
+    data = bytes.toByteArray();
+    len  = data.length;
+    if ((len > 0) && (data[len - 1] == '\r'))
+      len--;
+    return new String(data, 0, len, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Closes the file.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      m_Channel.close();
+    }
+    catch (IOException e) {
+      // ignored
+    }
+    Arrays.fill(m_Chunks, null);
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LogViewerPanel.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import nz.ac.waikato.cms.gui.core.BasePanel;
+import nz.ac.waikato.cms.gui.core.BaseScrollPane;
+
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Displays the spooled logs of a session. Log files are accessed lazily
+ * through a {@link LogIndex}, i.e., only the visible lines get read, which
+ * allows scrolling through logs of several GB.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class LogViewerPanel
+  extends BasePanel {
+
+  /**
+   * List model backed by a log index.
+   */
+  protected static class LogListModel
+    extends AbstractListModel<String> {
+
+    /** the index, null if none. */
+    protected LogIndex m_Index;
+
+    /** the number of lines the listeners were notified about. */
+    protected int m_Size;
+
+    /**
+     * Sets the index to use.
+     *
+     * @param value	the index, null for none
+     */
+    public void setIndex(LogIndex value) {
+      int	size;
+
+      size    = m_Size;
+      m_Index = value;
+      m_Size  = 0;
+      if (size > 0)
+	fireIntervalRemoved(this, 0, size - 1);
+      update();
+    }
+
+    /**
+     * Notifies the listeners about lines that became available.
+     */
+    public void update() {
+      int	size;
+
+      if (m_Index == null)
+	return;
+      size = m_Index.getLineCount();
+      if (size > m_Size) {
+	fireIntervalAdded(this, m_Size, size - 1);
+	m_Size = size;
+      }
+    }
+
+    /**
+     * Returns the number of lines.
+     *
+     * @return		the number of lines
+     */
+    @Override
+    public int getSize() {
+      return m_Size;
+    }
+
+    /**
+     * Returns the line at the specified position.
+     *
+     * @param index	the line
+     * @return		the content
+     */
+    @Override
+    public String getElementAt(int index) {
+      String	result;
+
+      if (m_Index == null)
+	return "";
+      result = m_Index.getLine(index);
+      return (result == null) ? "" : result;
+    }
+  }
+
+  /** the combobox with the log files. */
+  protected JComboBox<File> m_ComboBoxLogs;
+
+  /** the button for reloading the list of logs. */
+  protected JButton m_ButtonRefresh;
+
+  /** the label with information about the log. */
+  protected JLabel m_LabelInfo;
+
+  /** the list displaying the lines. */
+  protected JList<String> m_ListLines;
+
+  /** the model. */
+  protected LogListModel m_Model;
+
+  /** the current index. */
+  protected LogIndex m_Index;
+
+  /** the timer for updating the list while indexing. */
+  protected Timer m_Timer;
+
+  /** the current session. */
+  protected String m_Session;
+
+  /**
+   * Initializes the widgets.
+   */
+  @Override
+  protected void initGUI() {
+    JPanel	panel;
+
+    super.initGUI();
+
+    setLayout(new BorderLayout());
+
+    panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    add(panel, BorderLayout.NORTH);
+    m_ComboBoxLogs = new JComboBox<>();
+    m_ComboBoxLogs.addActionListener((ActionEvent e) -> openLog((File) m_ComboBoxLogs.getSelectedItem()));
+    panel.add(m_ComboBoxLogs);
+    m_ButtonRefresh = new JButton("Refresh");
+    m_ButtonRefresh.addActionListener((ActionEvent e) -> setSession(m_Session));
+    panel.add(m_ButtonRefresh);
+    m_LabelInfo = new JLabel();
+    panel.add(m_LabelInfo);
+
+    m_Model     = new LogListModel();
+    m_ListLines = new JList<>(m_Model);
+    m_ListLines.setFont(new Font(Font.MONOSPACED, Font.PLAIN, m_ListLines.getFont().getSize()));
+    // fixed cell sizes prevent the list from measuring every line
+    m_ListLines.setPrototypeCellValue("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
+    add(new BaseScrollPane(m_ListLines), BorderLayout.CENTER);
+
+    m_Timer = new Timer(500, (ActionEvent e) -> updateInfo());
+  }
+
+  /**
+   * Displays the logs of the specified session.
+   *
+   * @param session	the session
+   */
+  public void setSession(String session) {
+    List<File>	logs;
+
+    m_Session = session;
+    logs      = (session == null) ? null : RunLog.list(session);
+    if ((logs == null) || logs.isEmpty()) {
+      m_ComboBoxLogs.setModel(new DefaultComboBoxModel<>());
+      openLog(null);
+    }
+    else {
+      m_ComboBoxLogs.setModel(new DefaultComboBoxModel<>(logs.toArray(new File[0])));
+      m_ComboBoxLogs.setSelectedIndex(0);
+    }
+  }
+
+  /**
+   * Opens the log file and starts indexing it in the background.
+   *
+   * @param file	the log to open, null to clear
+   */
+  protected void openLog(File file) {
+    final LogIndex	index;
+
+    m_Timer.stop();
+    if (m_Index != null) {
+      m_Index.close();
+      m_Index = null;
+    }
+    m_Model.setIndex(null);
+    m_LabelInfo.setText("");
+    if (file == null)
+      return;
+
+    try {
+      index = new LogIndex(file);
+    }
+    catch (Exception e) {
+      m_LabelInfo.setText("Failed to open: " + e);
+      return;
+    }
+    m_Index = index;
+    m_Model.setIndex(index);
+    new Thread(() -> {
+      try {
+	index.index();
+      }
+      catch (Exception e) {
+	if (index == m_Index)
+	  System.err.println("Failed to index log: " + index.getFile() + "\n" + e);
+      }
+    }, "jrsync-log-index").start();
+    m_Timer.start();
+  }
+
+  /**
+   * Updates the list and the information label while indexing.
+   */
+  protected void updateInfo() {
+    if (m_Index == null) {
+      m_Timer.stop();
+      return;
+    }
+    m_Model.update();
+    m_LabelInfo.setText(m_Index.getLineCount() + " lines" + (m_Index.isIndexed() ? "" : " (indexing...)"));
+    if (m_Index.isIndexed())
+      m_Timer.stop();
+  }
+}
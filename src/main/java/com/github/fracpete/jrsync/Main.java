@@ -21,12 +21,6 @@
 package com.github.fracpete.jrsync;
 
 import com.formdev.flatlaf.FlatLightLaf;
-import com.github.fracpete.jrsync.Execute.ConsoleOutputListener;
-import net.sourceforge.argparse4j.ArgumentParsers;
-import net.sourceforge.argparse4j.impl.Arguments;
-import net.sourceforge.argparse4j.inf.ArgumentParser;
-import net.sourceforge.argparse4j.inf.ArgumentParserException;
-import net.sourceforge.argparse4j.inf.Namespace;
 import nz.ac.waikato.cms.core.BrowserHelper;
 import nz.ac.waikato.cms.gui.core.BaseFrame;
 import nz.ac.waikato.cms.gui.core.BasePanel;
@@ -37,9 +31,11 @@ import nz.ac.waikato.cms.gui.core.ParameterPanel;
 import org.apache.commons.configuration2.INIConfiguration;
 
 import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -47,22 +43,27 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -73,6 +74,9 @@ import java.util.Map;
 public class Main
   extends BasePanel {
 
+  /** the maximum number of lines to keep in the output tab. */
+  public final static int MAX_OUTPUT_LINES = 10000;
+
   /** the menu bar. */
   protected JMenuBar m_MenuBar;
 
@@ -97,6 +101,12 @@ public class Main
   /** the File -> Quit menu item. */
   protected JMenuItem m_MenuItemFileQuit;
 
+  /** the File -> Output overflow menu. */
+  protected JMenu m_MenuFileOutputOverflow;
+
+  /** what to do if the output tab cannot keep up with rsync. */
+  protected BufferedOutputListener.OverflowPolicy m_OutputPolicy;
+
   /** the Sessions -> Add menu item. */
   protected JMenuItem m_MenuItemSessionsAdd;
 
@@ -112,6 +122,9 @@ public class Main
   /** the Sessions -> Export menu item. */
   protected JMenuItem m_MenuItemSessionsExport;
 
+  /** the Sessions -> Auto-save menu item. */
+  protected JCheckBoxMenuItem m_MenuItemSessionsAutoSave;
+
   /** the Help -> Homepage. */
   protected JMenuItem m_MenuItemHelpHomepage;
 
@@ -145,6 +158,24 @@ public class Main
   /** the GUI elements. */
   protected Map<String,Component> m_Params;
 
+  /** the text area for the rsync output. */
+  protected JTextArea m_TextOutput;
+
+  /** the label for the progress of the running execution. */
+  protected JLabel m_LabelProgress;
+
+  /** for polling the progress of the running execution, null if none. */
+  protected Timer m_TimerProgress;
+
+  /** the currently running execution, null if none. */
+  protected Thread m_Running;
+
+  /** the panel for the logs. */
+  protected LogViewerPanel m_PanelLogs;
+
+  /** for writing the sessions in the background. */
+  protected ConfigurationPersister m_Persister;
+
   /**
    * Initializes the members.
    */
@@ -155,7 +186,9 @@ public class Main
     m_Sessions = Configuration.read();
     if (m_Sessions == null)
       m_Sessions = new INIConfiguration();
-    m_Params = new HashMap<>();
+    m_Params    = new HashMap<>();
+    m_Persister    = new ConfigurationPersister();
+    m_OutputPolicy = BufferedOutputListener.OverflowPolicy.SUMMARIZE;
   }
 
   /**
@@ -281,14 +314,49 @@ public class Main
     panelParams = new ParameterPanel();
     panelTab.add(panelParams, BorderLayout.CENTER);
     addCheckBox(panelParams, "Execute command before rsync", "check_com_before");
-    addTextField(panelParams, "", "text_com_before");
+    addTextField(panelParams, "", "text_com_before", CommandParser.HELP);
     addCheckBox(panelParams, "Halt on failure", "check_com_halt");
     addCheckBox(panelParams, "Execute command after rsync", "check_com_after");
-    addTextField(panelParams, "", "text_com_after");
+    addTextField(panelParams, "", "text_com_after", CommandParser.HELP);
     addCheckBox(panelParams, "On rsync error only", "check_com_onerror");
+    addCheckBox(panelParams, "Run commands before rsync in parallel (separated by ';')", "check_com_parallel");
+    addTextField(panelParams, "Command timeout in seconds (0 = none)", "text_com_timeout");
     addCheckBox(panelParams, "Browse files instead of folders", "check_browse_files");
     addCheckBox(panelParams, "Run as superuser", "check_superuser");
+    addTextField(panelParams, "Parallel rsync shards", "text_shards");
+    addTextField(panelParams, "Additional destinations (replayed rsync batch)", "text_fanout");
+    addTextField(panelParams, "Schedule (cron, daemon only)", "text_schedule");
+    addCheckBox(panelParams, "Queue overlapping/missed scheduled runs", "check_schedule_queue");
+    addCheckBox(panelParams, "Watch source for changes (daemon only)", "check_watch");
+    addTextField(panelParams, "Seconds without changes before transfer", "text_watch_delay");
+    addCheckBox(panelParams, "Only transfer changes (source manifest)", "check_manifest");
+    addCheckBox(panelParams, "Cache source checksums (always checksum)", "check_checksum_cache");
+    addTextField(panelParams, "Hours between full runs (manifest/checksum cache)", "text_manifest_full_hours");
+    addCheckBox(panelParams, "Copy local sessions without rsync", "check_native_engine");
+    addCheckBox(panelParams, "Adaptive compression (sample source)", "check_compr_auto");
+    addTextField(panelParams, "Reuse simulation when executing within minutes (0 = never)", "text_dryrun_reuse");
+    addTextField(panelParams, "Abort if stalled for seconds (0 = never)", "text_stall_timeout");
+    addTextField(panelParams, "I/O timeout in seconds (0 = none)", "text_timeout");
+    addTextField(panelParams, "Retries on transient rsync errors", "text_retries");
+    addTextField(panelParams, "Seconds before first retry (doubles)", "text_retry_delay");
     addTextField(panelParams, "Notes", "text_notes");
+
+    // Output
+    panelTab = new JPanel(new BorderLayout());
+    m_TabbedPane.addTab("Output", panelTab);
+    m_TextOutput = new JTextArea();
+    m_TextOutput.setEditable(false);
+    m_TextOutput.setFont(new Font(Font.MONOSPACED, Font.PLAIN, m_TextOutput.getFont().getSize()));
+    panelTab.add(new BaseScrollPane(m_TextOutput), BorderLayout.CENTER);
+
+    // Logs
+    m_PanelLogs = new LogViewerPanel();
+    m_TabbedPane.addTab("Logs", m_PanelLogs);
+
+    // progress
+    m_LabelProgress = new JLabel(" ");
+    m_LabelProgress.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+    add(m_LabelProgress, BorderLayout.SOUTH);
   }
 
   /**
@@ -344,6 +412,18 @@ public class Main
    * @param key		the key to store it under and for updating the session
    */
   protected void addTextField(ParameterPanel paramPanel, String label, final String key) {
+    addTextField(paramPanel, label, key, null);
+  }
+
+  /**
+   * Adds a text field.
+   *
+   * @param paramPanel	the panel to add the text field to
+   * @param label	the label for the text field
+   * @param key		the key to store it under and for updating the session
+   * @param tooltip	the tooltip for the text field, null for none
+   */
+  protected void addTextField(ParameterPanel paramPanel, String label, final String key, String tooltip) {
     final JTextField text;
 
     text = new JTextField(20);
@@ -361,6 +441,7 @@ public class Main
 	set(key, text.getText());
       }
     });
+    text.setToolTipText(tooltip);
     m_Params.put(key, text);
     paramPanel.addParameter(label, text);
   }
@@ -379,8 +460,9 @@ public class Main
    * Initializes the menu bar.
    */
   protected void initMenuBar() {
-    JMenu	menu;
-    JMenuItem	item;
+    JMenu		menu;
+    JMenuItem		item;
+    ButtonGroup		group;
 
     m_MenuBar = new JMenuBar();
 
@@ -422,6 +504,18 @@ public class Main
     menu.add(item);
     m_MenuItemFileRsyncCmdline = item;
 
+    m_MenuFileOutputOverflow = new JMenu("Output overflow");
+    m_MenuFileOutputOverflow.setIcon(GUIHelper.getIcon("Empty.png"));
+    menu.add(m_MenuFileOutputOverflow);
+    group = new ButtonGroup();
+    for (final BufferedOutputListener.OverflowPolicy policy: BufferedOutputListener.OverflowPolicy.values()) {
+      item = new JRadioButtonMenuItem(policyLabel(policy));
+      item.setSelected(policy == m_OutputPolicy);
+      item.addActionListener((ActionEvent e) -> m_OutputPolicy = policy);
+      group.add(item);
+      m_MenuFileOutputOverflow.add(item);
+    }
+
     menu.addSeparator();
 
     item = new JMenuItem("Quit", GUIHelper.getIcon("Exit.png"));
@@ -460,6 +554,12 @@ public class Main
     menu.add(item);
     m_MenuItemSessionsExport = item;
 
+    menu.addSeparator();
+
+    item = new JCheckBoxMenuItem("Auto-save", GUIHelper.getIcon("Empty.png"));
+    menu.add(item);
+    m_MenuItemSessionsAutoSave = (JCheckBoxMenuItem) item;
+
     // Help
     menu = new JMenu("Help");
     menu.setMnemonic('H');
@@ -499,18 +599,150 @@ public class Main
     m_ChooserDestination.setCurrent(dir);
   }
 
+  /**
+   * Returns the menu label for the overflow policy.
+   *
+   * @param policy	the policy
+   * @return		the label
+   */
+  protected static String policyLabel(BufferedOutputListener.OverflowPolicy policy) {
+    switch (policy) {
+      case BLOCK:
+	return "Slow down rsync";
+      case DROP_OLDEST:
+	return "Drop oldest lines";
+      case SUMMARIZE:
+	return "Drop new lines (summarized)";
+      default:
+	return policy.toString();
+    }
+  }
+
+  /**
+   * Appends the batch of output lines to the output tab, removing the oldest
+   * lines if more than {@link #MAX_OUTPUT_LINES} are present. Waits for the
+   * output tab to be updated, so that the buffered listener notices when the
+   * user interface falls behind and applies its overflow policy.
+   *
+   * @param lines	the lines
+   * @param stdout	whether stdout or stderr
+   * @param count	the number of lines
+   */
+  protected void appendOutput(String[] lines, boolean[] stdout, int count) {
+    StringBuilder	text;
+    Runnable		update;
+    int			i;
+
+    text = new StringBuilder();
+    for (i = 0; i < count; i++)
+      text.append(lines[i]).append("\n");
+
+    update = () -> {
+      m_TextOutput.append(text.toString());
+      if (m_TextOutput.getLineCount() > MAX_OUTPUT_LINES) {
+	try {
+	  m_TextOutput.replaceRange("", 0, m_TextOutput.getLineEndOffset(m_TextOutput.getLineCount() - MAX_OUTPUT_LINES - 1));
+	}
+	catch (BadLocationException e) {
+	  // ignored
+	}
+      }
+      m_TextOutput.setCaretPosition(m_TextOutput.getDocument().getLength());
+    };
+
+    if (SwingUtilities.isEventDispatchThread()) {
+      update.run();
+      return;
+    }
+    try {
+      SwingUtilities.invokeAndWait(update);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (InvocationTargetException e) {
+      System.err.println("Failed to append output!");
+      e.getCause().printStackTrace();
+    }
+  }
+
+  /**
+   * Executes the current session in a separate thread, displaying the output
+   * in the output tab.
+   *
+   * @param dryRun	whether to only simulate
+   */
+  protected void execute(final boolean dryRun) {
+    final String	session;
+    final Execute	exec;
+
+    if ((m_Running != null) || (m_ComboBoxSessions.getSelectedIndex() == -1))
+      return;
+
+    session = "" + m_ComboBoxSessions.getSelectedItem();
+    m_TextOutput.setText("");
+    m_TabbedPane.setSelectedIndex(m_TabbedPane.indexOfTab("Output"));
+    m_ButtonSimulate.setEnabled(false);
+    m_ButtonExecute.setEnabled(false);
+    exec = new Execute();
+    m_LabelProgress.setText(" ");
+    m_TimerProgress = new Timer(1000, (ActionEvent e) -> updateProgress(exec));
+    m_TimerProgress.start();
+    m_Running = new Thread(() -> {
+      String msg;
+      try (BufferedOutputListener listener = new BufferedOutputListener(this::appendOutput,
+	BufferedOutputListener.DEFAULT_CAPACITY, BufferedOutputListener.DEFAULT_FPS, m_OutputPolicy)) {
+	msg = exec.execute(m_Sessions, session, dryRun, listener);
+      }
+      catch (Throwable t) {
+	msg = "Failed to execute session '" + session + "': " + t;
+      }
+      final String fMsg = msg;
+      SwingUtilities.invokeLater(() -> {
+	m_TimerProgress.stop();
+	m_TimerProgress = null;
+	updateProgress(exec);
+	m_Running = null;
+	m_ButtonSimulate.setEnabled(true);
+	m_ButtonExecute.setEnabled(true);
+	m_PanelLogs.setSession(session);
+	if (fMsg != null)
+	  JOptionPane.showMessageDialog(this, fMsg, "Error", JOptionPane.ERROR_MESSAGE);
+      });
+    }, "jrsync-" + session);
+    m_Running.start();
+  }
+
+  /**
+   * Displays the progress of the execution (throughput, ETA, etc) in the
+   * status bar, if progress is being tracked.
+   *
+   * @param exec	the execution to display the progress for
+   */
+  protected void updateProgress(Execute exec) {
+    ProgressTracker		tracker;
+    ProgressTracker.Snapshot	snapshot;
+
+    tracker = exec.getProgressTracker();
+    if ((tracker == null) || (tracker.getSnapshot().getLastUpdate() == -1))
+      return;
+    snapshot = tracker.getSnapshot();
+    m_LabelProgress.setText(snapshot.toString()
+      + ((snapshot.getSecondsSinceLastUpdate() >= 10) ? " - no update for " + snapshot.getSecondsSinceLastUpdate() + "s" : ""));
+  }
+
   /**
    * Simulates the current session.
    */
   protected void simulate() {
-    // TODO
+    execute(true);
   }
 
   /**
    * Executes the current session.
    */
   protected void execute() {
-    // TODO
+    execute(false);
   }
 
   /**
@@ -524,6 +756,7 @@ public class Main
    * Closes the application
    */
   protected void close() {
+    m_Persister.flush();
     GUIHelper.closeParent(this);
   }
 
@@ -541,6 +774,7 @@ public class Main
     m_ComboBoxSessions.setModel(new DefaultComboBoxModel<>(m_Sessions.getSections().toArray(new String[0])));
     m_ComboBoxSessions.setSelectedItem(session);
     selectSession(session);
+    sessionsModified();
   }
 
   /**
@@ -555,13 +789,27 @@ public class Main
     m_ComboBoxSessions.setModel(new DefaultComboBoxModel<>(m_Sessions.getSections().toArray(new String[0])));
     m_ComboBoxSessions.setSelectedIndex(0);
     selectSession("" + m_ComboBoxSessions.getSelectedItem());
+    sessionsModified();
   }
 
   /**
    * Saves the sessions to disk.
    */
   protected void saveSessions() {
-    Configuration.write(m_Sessions);
+    String	msg;
+
+    m_Persister.schedule(m_Sessions);
+    msg = m_Persister.flush();
+    if (msg != null)
+      JOptionPane.showMessageDialog(this, msg, "Error", JOptionPane.ERROR_MESSAGE);
+  }
+
+  /**
+   * Schedules the sessions to be written to disk if auto-save is enabled.
+   */
+  protected void sessionsModified() {
+    if ((m_MenuItemSessionsAutoSave != null) && m_MenuItemSessionsAutoSave.isSelected())
+      m_Persister.schedule(m_Sessions);
   }
 
   /**
@@ -599,31 +847,42 @@ public class Main
   }
 
   /**
-   * Updates the fields from the configuration.
+   * Updates the fields from the configuration. Fields without a value in
+   * the session get populated with the default value, as used by
+   * {@link Configuration#newSession(INIConfiguration, String)}.
    *
    * @param session	the session to use
    */
   protected void sessionToFields(String session) {
-    Iterator<String>	keys;
-    String		key;
+    Session		settings;
+    Session		defaults;
+    INIConfiguration	config;
+    Component		comp;
+
+    m_PanelLogs.setSession(session);
+    settings = new Session(m_Sessions, session);
+    config   = new INIConfiguration();
+    Configuration.newSession(config, Configuration.DEFAULT);
+    defaults = new Session(config, Configuration.DEFAULT);
 
-    keys = m_Sessions.getSection(session).getKeys();
-    while (keys.hasNext()) {
-      key = keys.next();
-      if (!m_Params.containsKey(key)) {
+    for (String key: settings.getValues().keySet()) {
+      if (!m_Params.containsKey(key))
 	System.err.println("Unknown key: " + key);
+    }
+
+    for (String key: m_Params.keySet()) {
+      comp = m_Params.get(key);
+      if (key.startsWith("text_")) {
+	if (comp instanceof DirectoryChooserPanel)
+	  ((DirectoryChooserPanel) comp).setCurrent(new File(settings.getString(key, defaults.getString(key, ""))));
+	else
+	  ((JTextComponent) comp).setText(settings.getString(key, defaults.getString(key, "")));
+      }
+      else if (key.startsWith("check_")) {
+	((JCheckBox) comp).setSelected(settings.getBoolean(key, defaults.getBoolean(key, false)));
       }
       else {
-        if (key.startsWith("text_")) {
-          if (m_Params.get(key) instanceof DirectoryChooserPanel)
-	    ((DirectoryChooserPanel) m_Params.get(key)).setCurrent(new File(m_Sessions.getString(session + "." + key)));
-	  else
-	    ((JTextComponent) m_Params.get(key)).setText(m_Sessions.getString(session + "." + key));
-	}
-        else if (key.startsWith("check_"))
-	  ((JCheckBox) m_Params.get(key)).setSelected(m_Sessions.getBoolean(session + "." + key));
-        else
-          System.err.println("Unknown key type: " + key);
+	System.err.println("Unknown key type: " + key);
       }
     }
   }
@@ -660,6 +919,7 @@ public class Main
     }
     session = "" + m_ComboBoxSessions.getSelectedItem();
     m_Sessions.setProperty(session + "." + key, value);
+    sessionsModified();
   }
 
   /**
@@ -677,6 +937,7 @@ public class Main
     }
     session = "" + m_ComboBoxSessions.getSelectedItem();
     m_Sessions.setProperty(session + "." + key, value);
+    sessionsModified();
   }
 
   /**
@@ -688,6 +949,8 @@ public class Main
     Main	main;
     BaseFrame	frame;
 
+    FlatLightLaf.setup();
+
     main = new Main();
     main.selectSession(session);
     frame = new BaseFrame("jrsync");
@@ -701,75 +964,14 @@ public class Main
     frame.setVisible(true);
   }
 
-  /**
-   * Executes the specified session.
-   *
-   * @param session	the session to execute
-   * @param simulate	whether to simulate
-   * @throws Exception	if execution fails
-   */
-  public static void execute(String session, boolean simulate) throws Exception {
-    String		msg;
-    INIConfiguration	config;
-    Execute		exec;
-
-    config = Configuration.read();
-    if (config == null)
-      throw new IllegalStateException("Failed to read configuration???");
-
-    exec = new Execute();
-    msg  = exec.execute(config, session, false, new ConsoleOutputListener());
-    if (msg != null)
-      throw new Exception(msg);
-  }
-
   /**
    * Executes the application.
    *
    * @param args	the command-line options
    * @throws Exception	if parsing fails
+   * @see		Launcher#main(String[])
    */
   public static void main(String[] args) throws Exception {
-    ArgumentParser 	parser;
-    Namespace 		ns;
-    String		session;
-
-    FlatLightLaf.setup();
-
-    parser = ArgumentParsers.newFor(Main.class.getName()).build();
-    parser.description("Frontend for rsync command-line execution.");
-    parser.addArgument("-e")
-      .action(Arguments.storeTrue())
-      .required(false)
-      .dest("execute")
-      .help("Automatically executes the specified session and exits.");
-    parser.addArgument("-s")
-      .action(Arguments.storeTrue())
-      .required(false)
-      .dest("simulate")
-      .help("Whether to perform a dry-run ('simulate').");
-    parser.addArgument("session")
-      .nargs("?")
-      .setDefault("")
-      .help("The session to use.");
-
-    ns = null;
-    try {
-      ns = parser.parseArgs(args);
-    }
-    catch (ArgumentParserException e) {
-      parser.handleError(e);
-    }
-    catch (Throwable t) {
-      throw t;
-    }
-
-    if (ns != null) {
-      session = ns.getString("session");
-      if (!session.isEmpty() && ns.getBoolean("execute"))
-	execute(session, ns.getBoolean("simulate"));
-      else
-	showGUI(session);
-    }
+    Launcher.main(args);
   }
 }
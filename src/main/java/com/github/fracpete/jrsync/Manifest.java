@@ -0,0 +1,489 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Manifest.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Persistent manifest (path, size, mtime, file key) of a local source tree,
+ * stored below {@link Configuration#configurationDirectory()}. Comparing a
+ * fresh (parallel) scan against the manifest of the last successful run
+ * yields the paths that need transferring, so rsync doesn't have to build
+ * the complete file list itself. Since changes on the destination side go
+ * unnoticed this way, a full run is forced periodically. The manifest is
+ * tied to the session's options (eg destination, excludes), changing these
+ * forces a full run as well.
+ * <br>
+ * The paths are stored sorted, with the prefix shared with the previous path
+ * only stored as length. Directories are not recorded, only files and links.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Manifest {
+
+  /** the magic number of the file format. */
+  public final static int MAGIC = 0x6A724D66;
+
+  /** the version of the file format. */
+  public final static int VERSION = 2;
+
+  /** the extension of the manifest files. */
+  public final static String EXTENSION = ".manifest";
+
+  /**
+   * Container for a single file.
+   */
+  public static class Entry {
+
+    /** the path, relative to the source (using forward slashes). */
+    public final String path;
+
+    /** the size in bytes. */
+    public final long size;
+
+    /** the modification time in msec. */
+    public final long mtime;
+
+    /** the hash of the file key (eg device/inode), 0 if not available. */
+    public final int key;
+
+    /** the hash of the content, 0 if not computed. */
+    public long hash;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param path	the relative path
+     * @param size	the size
+     * @param mtime	the modification time
+     * @param key	the hash of the file key
+     */
+    public Entry(String path, long size, long mtime, int key) {
+      this.path  = path;
+      this.size  = size;
+      this.mtime = mtime;
+      this.key   = key;
+    }
+
+    /**
+     * Checks whether the file is unchanged compared to the other entry.
+     *
+     * @param other	the entry to compare with
+     * @return		true if same size, mtime and key
+     */
+    public boolean isUnchanged(Entry other) {
+      return (size == other.size) && (mtime == other.mtime) && (key == other.key);
+    }
+  }
+
+  /**
+   * Scans a single directory and forks tasks for its sub-directories.
+   */
+  protected static class ScanTask
+    extends RecursiveAction {
+
+    private static final long serialVersionUID = -3279130573911347405L;
+
+    /** the root directory. */
+    protected Path m_Root;
+
+    /** the directory to scan. */
+    protected Path m_Dir;
+
+    /** for collecting the entries. */
+    protected ConcurrentLinkedQueue<Entry> m_Entries;
+
+    /** for collecting errors. */
+    protected ConcurrentLinkedQueue<String> m_Errors;
+
+    /**
+     * Initializes the task.
+     *
+     * @param root	the root directory
+     * @param dir	the directory to scan
+     * @param entries	for collecting the entries
+     * @param errors	for collecting errors
+     */
+    public ScanTask(Path root, Path dir, ConcurrentLinkedQueue<Entry> entries, ConcurrentLinkedQueue<String> errors) {
+      m_Root    = root;
+      m_Dir     = dir;
+      m_Entries = entries;
+      m_Errors  = errors;
+    }
+
+    /**
+     * Scans the directory.
+     */
+    @Override
+    protected void compute() {
+      List<ScanTask>		tasks;
+      BasicFileAttributes	attrs;
+      Object			key;
+
+      tasks = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_Dir)) {
+	for (Path path: stream) {
+	  attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	  if (attrs.isDirectory()) {
+	    tasks.add(new ScanTask(m_Root, path, m_Entries, m_Errors));
+	  }
+	  else {
+	    key = attrs.fileKey();
+	    m_Entries.add(new Entry(
+	      m_Root.relativize(path).toString().replace(File.separatorChar, '/'),
+	      attrs.size(), attrs.lastModifiedTime().toMillis(), (key == null) ? 0 : key.hashCode()));
+	  }
+	}
+      }
+      catch (IOException e) {
+	m_Errors.add(m_Dir + ": " + e);
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  /** the session. */
+  protected String m_Session;
+
+  /** the source directory. */
+  protected File m_Source;
+
+  /** the hash of the session's options. */
+  protected String m_OptionsHash;
+
+  /** the scanned entries, sorted by path, null if not scanned yet. */
+  protected Entry[] m_Entries;
+
+  /** the time stamp of the last full run (from the stored manifest), 0 if none. */
+  protected long m_LastFull;
+
+  /**
+   * Initializes the manifest.
+   *
+   * @param session	the session the manifest belongs to
+   * @param source	the local source directory
+   * @param optionsHash	the hash of the session's options
+   * @see		Session#getOptionsHash()
+   */
+  public Manifest(String session, String source, String optionsHash) {
+    m_Session     = session;
+    m_Source      = new File(source).getAbsoluteFile();
+    m_OptionsHash = optionsHash;
+  }
+
+  /**
+   * Returns the directory the manifests are stored in.
+   *
+   * @return		the directory
+   */
+  public String getDirectory() {
+    return Configuration.configurationDirectory() + File.separator + "manifests";
+  }
+
+  /**
+   * Returns the magic number of the file format.
+   *
+   * @return		the magic number
+   */
+  protected int getMagic() {
+    return MAGIC;
+  }
+
+  /**
+   * Returns the file the manifest of the session is stored in.
+   *
+   * @return		the file
+   */
+  public File getFile() {
+    return new File(getDirectory(), m_Session.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+  }
+
+  /**
+   * Scans the source directory in parallel.
+   *
+   * @throws IOException	if the scan failed (partially)
+   */
+  public void scan() throws IOException {
+    ConcurrentLinkedQueue<Entry>	entries;
+    ConcurrentLinkedQueue<String>	errors;
+    Path				root;
+
+    entries = new ConcurrentLinkedQueue<>();
+    errors  = new ConcurrentLinkedQueue<>();
+    root    = m_Source.toPath();
+    ForkJoinPool.commonPool().invoke(new ScanTask(root, root, entries, errors));
+    if (!errors.isEmpty())
+      throw new IOException("Failed to scan " + errors.size() + " director(y/ies), e.g.: " + errors.peek());
+
+    m_Entries = entries.toArray(new Entry[0]);
+    Arrays.parallelSort(m_Entries, Comparator.comparing((Entry e) -> e.path));
+  }
+
+  /**
+   * Returns the number of scanned files.
+   *
+   * @return		the number, -1 if not scanned yet
+   */
+  public int size() {
+    return (m_Entries == null) ? -1 : m_Entries.length;
+  }
+
+  /**
+   * Returns a 64-bit fingerprint (FNV-1a) of the scanned paths, sizes and
+   * modification times, for detecting whether the source changed.
+   *
+   * @return		the fingerprint
+   */
+  public long fingerprint() {
+    long	result;
+    int		i;
+
+    if (m_Entries == null)
+      throw new IllegalStateException("Source has not been scanned yet!");
+
+    result = 0xcbf29ce484222325L;
+    for (Entry entry: m_Entries) {
+      for (i = 0; i < entry.path.length(); i++)
+	result = (result ^ entry.path.charAt(i)) * 0x100000001b3L;
+      result = (result ^ entry.size) * 0x100000001b3L;
+      result = (result ^ entry.mtime) * 0x100000001b3L;
+    }
+
+    return result;
+  }
+
+  /**
+   * Opens the stored manifest and reads the header.
+   *
+   * @return		the stream positioned at the first entry, null if not available or for a different source or options
+   * @throws IOException	if reading fails
+   */
+  protected DataInputStream open() throws IOException {
+    DataInputStream	result;
+    File		file;
+
+    file = getFile();
+    if (!file.exists())
+      return null;
+
+    result = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 65536));
+    if ((result.readInt() != getMagic()) || (result.readInt() != VERSION)
+      || !result.readUTF().equals(m_Source.getPath()) || !result.readUTF().equals(m_OptionsHash)) {
+      result.close();
+      return null;
+    }
+    m_LastFull = result.readLong();
+    result.readInt();  // number of entries
+
+    return result;
+  }
+
+  /**
+   * Reads the next entry.
+   *
+   * @param in		the stream to read from
+   * @param prev	the previous path
+   * @return		the entry, null if no more available
+   * @throws IOException	if reading fails
+   */
+  protected Entry read(DataInputStream in, String prev) throws IOException {
+    int		shared;
+
+    try {
+      shared = in.readUnsignedShort();
+    }
+    catch (EOFException e) {
+      return null;
+    }
+    return new Entry(prev.substring(0, shared) + in.readUTF(), in.readLong(), in.readLong(), in.readInt());
+  }
+
+  /**
+   * Writes the entry.
+   *
+   * @param out		the stream to write to
+   * @param entry	the entry to write
+   * @param prev	the previous path
+   * @throws IOException	if writing fails
+   */
+  protected void write(DataOutputStream out, Entry entry, String prev) throws IOException {
+    int		shared;
+    int		max;
+
+    max    = Math.min(Math.min(prev.length(), entry.path.length()), 0xFFFF);
+    shared = 0;
+    while ((shared < max) && (prev.charAt(shared) == entry.path.charAt(shared)))
+      shared++;
+    out.writeShort(shared);
+    out.writeUTF(entry.path.substring(shared));
+    out.writeLong(entry.size);
+    out.writeLong(entry.mtime);
+    out.writeInt(entry.key);
+  }
+
+  /**
+   * Compares the scan with the stored manifest and returns the paths that
+   * were added, modified or removed.
+   *
+   * @return		the paths (relative to the source), null if no usable manifest stored
+   * @throws IOException	if reading the manifest fails
+   */
+  public List<String> diff() throws IOException {
+    List<String>	result;
+    Entry		old;
+    int			i;
+    int			cmp;
+
+    if (m_Entries == null)
+      throw new IllegalStateException("Source has not been scanned yet!");
+
+    result = new ArrayList<>();
+    try (DataInputStream in = open()) {
+      if (in == null)
+	return null;
+
+      // merge the two sorted lists
+      i   = 0;
+      old = read(in, "");
+      while ((old != null) || (i < m_Entries.length)) {
+	if (old == null)
+	  cmp = 1;
+	else if (i == m_Entries.length)
+	  cmp = -1;
+	else
+	  cmp = old.path.compareTo(m_Entries[i].path);
+
+	if (cmp < 0) {
+	  result.add(old.path);
+	  old = read(in, old.path);
+	}
+	else if (cmp > 0) {
+	  result.add(m_Entries[i].path);
+	  i++;
+	}
+	else {
+	  if (!old.isUnchanged(m_Entries[i]))
+	    result.add(m_Entries[i].path);
+	  old = read(in, old.path);
+	  i++;
+	}
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether a full run is due.
+   *
+   * @param hours	the maximum number of hours between full runs
+   * @return		true if due (or no usable manifest stored)
+   */
+  public boolean isFullRunDue(int hours) {
+    try (DataInputStream in = open()) {
+      if (in == null)
+	return true;
+    }
+    catch (Exception e) {
+      return true;
+    }
+    return (System.currentTimeMillis() - m_LastFull >= hours * 3600000L);
+  }
+
+  /**
+   * Stores the scanned entries as the new manifest.
+   *
+   * @param fullRun	whether the run was a full run
+   * @return		null if successful, otherwise error message
+   */
+  public String save(boolean fullRun) {
+    File		file;
+    File		tmp;
+    String		prev;
+
+    if (m_Entries == null)
+      return "Source has not been scanned yet!";
+
+    file = getFile();
+    tmp  = new File(file.getPath() + ".tmp");
+    if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+      return "Failed to create manifest directory: " + file.getParentFile();
+
+    try (FileOutputStream fos = new FileOutputStream(tmp)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+      out.writeInt(getMagic());
+      out.writeInt(VERSION);
+      out.writeUTF(m_Source.getPath());
+      out.writeUTF(m_OptionsHash);
+      out.writeLong(fullRun ? System.currentTimeMillis() : m_LastFull);
+      out.writeInt(m_Entries.length);
+      prev = "";
+      for (Entry entry: m_Entries) {
+	write(out, entry, prev);
+	prev = entry.path;
+      }
+      out.flush();
+      fos.getFD().sync();
+    }
+    catch (Exception e) {
+      System.err.println("Failed to write manifest: " + tmp);
+      e.printStackTrace();
+      tmp.delete();
+      return "Failed to write manifest: " + tmp + "\n" + e;
+    }
+
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (Exception e) {
+      try {
+	Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (Exception ex) {
+	System.err.println("Failed to replace manifest: " + file);
+	ex.printStackTrace();
+	return "Failed to replace manifest: " + file + "\n" + ex;
+      }
+    }
+
+    return null;
+  }
+}
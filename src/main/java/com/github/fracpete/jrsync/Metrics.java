@@ -0,0 +1,319 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Metrics.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the metrics of the runs and exposes them in the Prometheus text
+ * format, as textfile for the node exporter's textfile collector and/or via
+ * an HTTP endpoint on localhost ('/metrics').
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Metrics {
+
+  /** the metrics of the last run per session. */
+  protected Map<String,RunMetrics> m_Last;
+
+  /** the number of successful runs per session. */
+  protected Map<String,Long> m_Successes;
+
+  /** the number of failed runs per session. */
+  protected Map<String,Long> m_Failures;
+
+  /** the textfile to write, null if none. */
+  protected File m_TextFile;
+
+  /** the HTTP server, null if not running. */
+  protected HttpServer m_Server;
+
+  /**
+   * Initializes the metrics.
+   */
+  public Metrics() {
+    m_Last      = new TreeMap<>();
+    m_Successes = new TreeMap<>();
+    m_Failures  = new TreeMap<>();
+  }
+
+  /**
+   * Sets the textfile to write the metrics to after each run.
+   *
+   * @param value	the file (should end with .prom), null to disable
+   */
+  public void setTextFile(File value) {
+    m_TextFile = value;
+  }
+
+  /**
+   * Returns the textfile to write the metrics to after each run.
+   *
+   * @return		the file, null if disabled
+   */
+  public File getTextFile() {
+    return m_TextFile;
+  }
+
+  /**
+   * Starts the HTTP endpoint on localhost.
+   *
+   * @param port	the port to listen on
+   * @return		null if successful, otherwise error message
+   */
+  public String startServer(int port) {
+    try {
+      m_Server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      m_Server.createContext("/metrics", this::handle);
+      m_Server.start();
+      return null;
+    }
+    catch (Exception e) {
+      System.err.println("Failed to start metrics endpoint on port " + port);
+      e.printStackTrace();
+      m_Server = null;
+      return "Failed to start metrics endpoint on port " + port + ": " + e;
+    }
+  }
+
+  /**
+   * Stops the HTTP endpoint, if running.
+   */
+  public void stopServer() {
+    if (m_Server != null) {
+      m_Server.stop(0);
+      m_Server = null;
+    }
+  }
+
+  /**
+   * Responds to a request for the metrics.
+   *
+   * @param exchange	the exchange
+   */
+  protected void handle(HttpExchange exchange) {
+    byte[]	data;
+
+    try {
+      data = toPrometheus().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, data.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+	out.write(data);
+      }
+    }
+    catch (Exception e) {
+      System.err.println("Failed to send metrics!");
+      e.printStackTrace();
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Records the metrics of a run and updates the textfile.
+   *
+   * @param metrics	the metrics to record
+   */
+  public synchronized void record(RunMetrics metrics) {
+    m_Last.put(metrics.getSession(), metrics);
+    if (metrics.isSuccess())
+      m_Successes.merge(metrics.getSession(), 1L, Long::sum);
+    else
+      m_Failures.merge(metrics.getSession(), 1L, Long::sum);
+    if (m_TextFile != null)
+      writeTextFile();
+  }
+
+  /**
+   * Escapes the label value.
+   *
+   * @param value	the value to escape
+   * @return		the escaped value
+   */
+  protected static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Appends the header of a metric.
+   *
+   * @param result	the buffer to append to
+   * @param name	the name of the metric
+   * @param type	the type (gauge/counter)
+   * @param help	the help text
+   */
+  protected static void header(StringBuilder result, String name, String type, String help) {
+    result.append("# HELP ").append(name).append(" ").append(help).append("\n");
+    result.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+  }
+
+  /**
+   * Appends a sample.
+   *
+   * @param result	the buffer to append to
+   * @param name	the name of the metric
+   * @param labels	the labels (without braces)
+   * @param value	the value
+   */
+  protected static void sample(StringBuilder result, String name, String labels, double value) {
+    result.append(name).append("{").append(labels).append("} ");
+    if (value == Math.rint(value))
+      result.append((long) value);
+    else
+      result.append(String.format(Locale.US, "%.3f", value));
+    result.append("\n");
+  }
+
+  /**
+   * Returns the labels for a hook. The command itself is not included, as
+   * it is unbounded and may contain credentials.
+   *
+   * @param metrics	the metrics of the run
+   * @param hook	the hook
+   * @return		the labels (without braces)
+   */
+  protected static String hookLabels(RunMetrics metrics, RunMetrics.Hook hook) {
+    return "session=\"" + escape(metrics.getSession()) + "\",phase=\"" + hook.phase + "\",index=\"" + hook.index + "\"";
+  }
+
+  /**
+   * Generates the metrics in the Prometheus text format.
+   *
+   * @return		the metrics
+   */
+  public synchronized String toPrometheus() {
+    StringBuilder	result;
+    String		label;
+
+    result = new StringBuilder();
+
+    header(result, "jrsync_run_duration_seconds", "gauge", "Duration of the last run per phase.");
+    for (RunMetrics m: m_Last.values()) {
+      label = "session=\"" + escape(m.getSession()) + "\"";
+      sample(result, "jrsync_run_duration_seconds", label + ",phase=\"pre\"", m.getPreDuration() / 1000.0);
+      sample(result, "jrsync_run_duration_seconds", label + ",phase=\"rsync\"", m.getTransferDuration() / 1000.0);
+      sample(result, "jrsync_run_duration_seconds", label + ",phase=\"post\"", m.getPostDuration() / 1000.0);
+      sample(result, "jrsync_run_duration_seconds", label + ",phase=\"total\"", m.getTotalDuration() / 1000.0);
+    }
+
+    header(result, "jrsync_hook_duration_seconds", "gauge", "Duration of the hook commands in the last run.");
+    for (RunMetrics m: m_Last.values()) {
+      for (RunMetrics.Hook hook: m.getHooks())
+	sample(result, "jrsync_hook_duration_seconds", hookLabels(m, hook), hook.duration / 1000.0);
+    }
+
+    header(result, "jrsync_hook_exit_code", "gauge", "Exit code of the hook commands in the last run (-1 if failed to execute or timed out).");
+    for (RunMetrics m: m_Last.values()) {
+      for (RunMetrics.Hook hook: m.getHooks())
+	sample(result, "jrsync_hook_exit_code", hookLabels(m, hook), hook.exitCode);
+    }
+
+    header(result, "jrsync_run_exit_code", "gauge", "Exit code of rsync in the last run (-1 if unknown).");
+    for (RunMetrics m: m_Last.values())
+      sample(result, "jrsync_run_exit_code", "session=\"" + escape(m.getSession()) + "\"", m.getExitCode());
+
+    header(result, "jrsync_run_success", "gauge", "Whether the last run was successful.");
+    for (RunMetrics m: m_Last.values())
+      sample(result, "jrsync_run_success", "session=\"" + escape(m.getSession()) + "\"", m.isSuccess() ? 1 : 0);
+
+    header(result, "jrsync_run_retries", "gauge", "Number of rsync retries in the last run.");
+    for (RunMetrics m: m_Last.values())
+      sample(result, "jrsync_run_retries", "session=\"" + escape(m.getSession()) + "\"", m.getRetries());
+
+    header(result, "jrsync_run_timestamp_seconds", "gauge", "Start of the last run.");
+    for (RunMetrics m: m_Last.values())
+      sample(result, "jrsync_run_timestamp_seconds", "session=\"" + escape(m.getSession()) + "\"", m.getStart() / 1000);
+
+    header(result, "jrsync_run_files_transferred", "gauge", "Number of files transferred in the last run.");
+    for (RunMetrics m: m_Last.values())
+      sample(result, "jrsync_run_files_transferred", "session=\"" + escape(m.getSession()) + "\"", m.getFilesTransferred());
+
+    header(result, "jrsync_run_bytes_sent", "gauge", "Bytes sent in the last run (--stats).");
+    for (RunMetrics m: m_Last.values()) {
+      if (m.hasStatistics())
+	sample(result, "jrsync_run_bytes_sent", "session=\"" + escape(m.getSession()) + "\"", m.getBytesSent());
+    }
+
+    header(result, "jrsync_run_bytes_received", "gauge", "Bytes received in the last run (--stats).");
+    for (RunMetrics m: m_Last.values()) {
+      if (m.hasStatistics())
+	sample(result, "jrsync_run_bytes_received", "session=\"" + escape(m.getSession()) + "\"", m.getBytesReceived());
+    }
+
+    header(result, "jrsync_run_speedup", "gauge", "Speedup of the last run, total file size divided by bytes sent and received (--stats).");
+    for (RunMetrics m: m_Last.values()) {
+      if (m.hasStatistics())
+	sample(result, "jrsync_run_speedup", "session=\"" + escape(m.getSession()) + "\"", m.getSpeedup());
+    }
+
+    header(result, "jrsync_runs_total", "counter", "Number of runs since startup.");
+    for (String session: m_Last.keySet()) {
+      label = "session=\"" + escape(session) + "\"";
+      sample(result, "jrsync_runs_total", label + ",result=\"success\"", m_Successes.getOrDefault(session, 0L));
+      sample(result, "jrsync_runs_total", label + ",result=\"failure\"", m_Failures.getOrDefault(session, 0L));
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Writes the metrics to the textfile (via a temporary file, so the node
+   * exporter never reads a partial file). Synchronized, as concurrent runs
+   * (batch, watchers) would otherwise share the temporary file.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  public synchronized String writeTextFile() {
+    File	tmp;
+
+    tmp = new File(m_TextFile.getPath() + ".tmp");
+    try {
+      Files.write(tmp.toPath(), toPrometheus().getBytes(StandardCharsets.UTF_8));
+      try {
+	Files.move(tmp.toPath(), m_TextFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+	Files.move(tmp.toPath(), m_TextFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      return null;
+    }
+    catch (Exception e) {
+      System.err.println("Failed to write metrics to: " + m_TextFile);
+      e.printStackTrace();
+      return "Failed to write metrics to: " + m_TextFile + "\n" + e;
+    }
+  }
+}
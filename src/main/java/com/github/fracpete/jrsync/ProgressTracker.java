@@ -0,0 +1,448 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ProgressTracker.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+/**
+ * Keeps track of the transfer progress, using the output generated by
+ * rsync's --progress or --info=progress2 options. The current state can
+ * be polled at any time via {@link #getSnapshot()}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ProgressTracker
+  implements OutputListener {
+
+  /**
+   * Immutable snapshot of the progress.
+   */
+  public static class Snapshot {
+
+    /** the current transfer rate (bytes/sec) as reported by rsync. */
+    protected final double m_BytesPerSecond;
+
+    /** the total number of bytes transferred so far. */
+    protected final long m_BytesTransferred;
+
+    /** the number of files transferred so far. */
+    protected final long m_FilesTransferred;
+
+    /** the number of files still to check, -1 if unknown. */
+    protected final long m_FilesRemaining;
+
+    /** the total number of files, -1 if unknown. */
+    protected final long m_FilesTotal;
+
+    /** the estimated seconds remaining, -1 if unknown. */
+    protected final long m_ETA;
+
+    /** the time of the start (msec). */
+    protected final long m_Start;
+
+    /** the time of the last progress update (msec), -1 if none yet. */
+    protected final long m_LastUpdate;
+
+    /**
+     * Initializes the snapshot.
+     *
+     * @param bytesPerSecond	the current rate
+     * @param bytesTransferred	the bytes transferred so far
+     * @param filesTransferred	the files transferred so far
+     * @param filesRemaining	the files still to check
+     * @param filesTotal	the total number of files
+     * @param eta		the estimated seconds remaining
+     * @param start		the start time
+     * @param lastUpdate	the time of the last update
+     */
+    public Snapshot(double bytesPerSecond, long bytesTransferred, long filesTransferred, long filesRemaining,
+		    long filesTotal, long eta, long start, long lastUpdate) {
+      m_BytesPerSecond   = bytesPerSecond;
+      m_BytesTransferred = bytesTransferred;
+      m_FilesTransferred = filesTransferred;
+      m_FilesRemaining   = filesRemaining;
+      m_FilesTotal       = filesTotal;
+      m_ETA              = eta;
+      m_Start            = start;
+      m_LastUpdate       = lastUpdate;
+    }
+
+    /**
+     * Returns the current transfer rate as reported by rsync.
+     *
+     * @return		the rate in bytes/sec
+     */
+    public double getBytesPerSecond() {
+      return m_BytesPerSecond;
+    }
+
+    /**
+     * Returns the average transfer rate since the start.
+     *
+     * @return		the rate in bytes/sec
+     */
+    public double getAverageBytesPerSecond() {
+      long	elapsed;
+
+      elapsed = System.currentTimeMillis() - m_Start;
+      if (elapsed <= 0)
+	return 0;
+      return m_BytesTransferred * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns the total number of bytes transferred so far.
+     *
+     * @return		the bytes
+     */
+    public long getBytesTransferred() {
+      return m_BytesTransferred;
+    }
+
+    /**
+     * Returns the number of files transferred so far.
+     *
+     * @return		the number of files
+     */
+    public long getFilesTransferred() {
+      return m_FilesTransferred;
+    }
+
+    /**
+     * Returns the number of files that still need checking.
+     *
+     * @return		the number of files, -1 if unknown
+     */
+    public long getFilesRemaining() {
+      return m_FilesRemaining;
+    }
+
+    /**
+     * Returns the total number of files (so far, with incremental recursion).
+     *
+     * @return		the number of files, -1 if unknown
+     */
+    public long getFilesTotal() {
+      return m_FilesTotal;
+    }
+
+    /**
+     * Returns the estimated time remaining.
+     *
+     * @return		the seconds, -1 if unknown
+     */
+    public long getETA() {
+      return m_ETA;
+    }
+
+    /**
+     * Returns the time of the last progress update.
+     *
+     * @return		the time (msec), -1 if no progress seen yet
+     */
+    public long getLastUpdate() {
+      return m_LastUpdate;
+    }
+
+    /**
+     * Returns the seconds since the last progress update (or the start).
+     *
+     * @return		the seconds
+     */
+    public long getSecondsSinceLastUpdate() {
+      return (System.currentTimeMillis() - ((m_LastUpdate == -1) ? m_Start : m_LastUpdate)) / 1000;
+    }
+
+    /**
+     * Returns a short description of the progress.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return String.format("%s/s, %s transferred, %d file(s) transferred, %s remaining, ETA %s",
+	formatBytes(m_BytesPerSecond), formatBytes(m_BytesTransferred), m_FilesTransferred,
+	(m_FilesRemaining == -1) ? "?" : ("" + m_FilesRemaining),
+	(m_ETA == -1) ? "?" : String.format("%d:%02d:%02d", m_ETA / 3600, (m_ETA / 60) % 60, m_ETA % 60));
+    }
+  }
+
+  /** whether the output is from --info=progress2 (totals) rather than per file. */
+  protected boolean m_Progress2;
+
+  /** the start time (msec). */
+  protected long m_Start;
+
+  /** the bytes of the completed files (per-file mode). */
+  protected long m_CompletedBytes;
+
+  /** the percentage of the last progress line. */
+  protected int m_Percent;
+
+  /** the last reported rate. */
+  protected double m_Rate;
+
+  /** the number of transferred files. */
+  protected long m_FilesTransferred;
+
+  /** the remaining files to check. */
+  protected long m_FilesRemaining;
+
+  /** the total files. */
+  protected long m_FilesTotal;
+
+  /** the last update. */
+  protected long m_LastUpdate;
+
+  /** the current snapshot. */
+  protected volatile Snapshot m_Snapshot;
+
+  /**
+   * Initializes the tracker.
+   *
+   * @param progress2	whether the output stems from --info=progress2
+   */
+  public ProgressTracker(boolean progress2) {
+    m_Progress2        = progress2;
+    m_Start            = System.currentTimeMillis();
+    m_FilesRemaining   = -1;
+    m_FilesTotal       = -1;
+    m_LastUpdate       = -1;
+    m_Snapshot         = new Snapshot(0, 0, 0, -1, -1, -1, m_Start, -1);
+  }
+
+  /**
+   * Returns whether the tracker handles --info=progress2 output.
+   *
+   * @return		true if progress2
+   */
+  public boolean isProgress2() {
+    return m_Progress2;
+  }
+
+  /**
+   * Returns the current progress.
+   *
+   * @return		the snapshot
+   */
+  public Snapshot getSnapshot() {
+    return m_Snapshot;
+  }
+
+  /**
+   * Formats the bytes in a human-readable way.
+   *
+   * @param bytes	the bytes to format
+   * @return		the formatted string
+   */
+  public static String formatBytes(double bytes) {
+    String[]	units;
+    int		i;
+
+    units = new String[]{"B", "kB", "MB", "GB", "TB"};
+    i     = 0;
+    while ((bytes >= 1024) && (i < units.length - 1)) {
+      bytes /= 1024;
+      i++;
+    }
+
+    return String.format("%.1f%s", bytes, units[i]);
+  }
+
+  /**
+   * Parses a number, skipping thousands separators.
+   *
+   * @param s		the string to parse
+   * @return		the number, -1 if not a number
+   */
+  protected static long parseLong(String s) {
+    long	result;
+    int		i;
+    char	c;
+
+    if (s.isEmpty())
+      return -1;
+    result = 0;
+    for (i = 0; i < s.length(); i++) {
+      c = s.charAt(i);
+      if ((c >= '0') && (c <= '9'))
+	result = result * 10 + (c - '0');
+      else if ((c != ',') && (c != '.'))
+	return -1;
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses a rate like '146.38MB/s'.
+   *
+   * @param s		the string to parse
+   * @return		the rate in bytes/sec, -1 if failed to parse
+   */
+  protected static double parseRate(String s) {
+    int		pos;
+    double	factor;
+    String	unit;
+
+    if (!s.endsWith("/s"))
+      return -1;
+    pos = 0;
+    while ((pos < s.length()) && (Character.isDigit(s.charAt(pos)) || (s.charAt(pos) == '.') || (s.charAt(pos) == ',')))
+      pos++;
+    unit = s.substring(pos, s.length() - 2);
+    switch (unit) {
+      case "B":
+	factor = 1;
+	break;
+      case "kB":
+	factor = 1024;
+	break;
+      case "MB":
+	factor = 1024 * 1024;
+	break;
+      case "GB":
+	factor = 1024.0 * 1024 * 1024;
+	break;
+      case "TB":
+	factor = 1024.0 * 1024 * 1024 * 1024;
+	break;
+      default:
+	return -1;
+    }
+    try {
+      return Double.parseDouble(s.substring(0, pos).replace(",", ".")) * factor;
+    }
+    catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Parses the "(xfr#N, to-chk=R/T)" or "(xfr#N, ir-chk=R/T)" suffix.
+   *
+   * @param s		the suffix to parse
+   */
+  protected void parseCheck(String s) {
+    int		pos;
+    int		end;
+    long	value;
+
+    pos = s.indexOf("xfr#");
+    if (pos > -1) {
+      end = s.indexOf(',', pos);
+      if (end > -1) {
+	value = parseLong(s.substring(pos + 4, end));
+	if (value > -1)
+	  m_FilesTransferred = value;
+      }
+    }
+    pos = s.indexOf("-chk=");
+    if (pos > -1) {
+      end = s.indexOf('/', pos);
+      if (end > -1) {
+	m_FilesRemaining = parseLong(s.substring(pos + 5, end));
+	pos = s.indexOf(')', end);
+	if (pos > -1)
+	  m_FilesTotal = parseLong(s.substring(end + 1, pos));
+      }
+    }
+  }
+
+  /**
+   * Computes the estimated time remaining.
+   *
+   * @param transferred	the total bytes transferred so far
+   * @return		the seconds, -1 if unknown
+   */
+  protected long estimate(long transferred) {
+    long	elapsed;
+    long	total;
+    double	rate;
+
+    elapsed = System.currentTimeMillis() - m_Start;
+    rate    = m_Rate;
+    if ((rate <= 0) && (elapsed > 0))
+      rate = transferred * 1000.0 / elapsed;
+
+    if (m_Progress2) {
+      if ((m_Percent <= 0) || (rate <= 0))
+	return -1;
+      if (m_Percent >= 100)
+	return 0;
+      total = transferred * 100 / m_Percent;
+      return (long) ((total - transferred) / rate);
+    }
+
+    // per-file progress: extrapolate from average time per completed file
+    if ((m_FilesRemaining == -1) || (m_FilesTransferred == 0))
+      return -1;
+    return elapsed * m_FilesRemaining / m_FilesTransferred / 1000;
+  }
+
+  /**
+   * Gets called whenever rsync generates output.
+   *
+   * @param line	the generated output
+   * @param stdout	true if stdout, stderr otherwise
+   */
+  public void outputOccurred(String line, boolean stdout) {
+    String[]	parts;
+    long	bytes;
+    long	transferred;
+    boolean	completed;
+
+    if (!stdout)
+      return;
+    // quick check: "<spaces><digits> <percent>% ..."
+    if ((line.length() < 10) || (line.charAt(0) != ' ') || (line.indexOf('%') == -1))
+      return;
+
+    parts = line.trim().split("\\s+", 5);
+    if ((parts.length < 4) || !parts[1].endsWith("%"))
+      return;
+    bytes = parseLong(parts[0]);
+    if (bytes == -1)
+      return;
+
+    m_Percent  = (int) Math.max(0, parseLong(parts[1].substring(0, parts[1].length() - 1)));
+    m_Rate     = Math.max(0, parseRate(parts[2]));
+    completed  = (parts.length == 5) && parts[4].startsWith("(xfr#");
+    if (parts.length == 5)
+      parseCheck(parts[4]);
+
+    if (m_Progress2) {
+      transferred = bytes;
+    }
+    else if (completed) {
+      m_CompletedBytes += bytes;
+      transferred       = m_CompletedBytes;
+    }
+    else {
+      transferred = m_CompletedBytes + bytes;
+    }
+    m_LastUpdate = System.currentTimeMillis();
+
+    m_Snapshot = new Snapshot(
+      m_Rate, transferred, m_FilesTransferred, m_FilesRemaining, m_FilesTotal,
+      estimate(transferred), m_Start, m_LastUpdate);
+  }
+}
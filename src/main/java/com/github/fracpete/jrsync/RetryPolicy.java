@@ -0,0 +1,179 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RetryPolicy.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Classifies the exit codes of rsync and decides whether a failed transfer
+ * gets retried. Only transient failures (connection/protocol problems,
+ * timeouts) are retried, with exponential backoff; usage errors, missing
+ * paths or partial transfers due to errors (eg permissions) will fail again
+ * and are not retried. Like rsync itself, vanished source files are only
+ * considered a warning, as they keep vanishing in live directories.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class RetryPolicy {
+
+  /** the maximum delay between retries in seconds. */
+  public final static int MAX_DELAY = 600;
+
+  /**
+   * The categories of exit codes.
+   */
+  public enum Category {
+    /** successful. */
+    SUCCESS,
+    /** successful, but with warnings (eg vanished source files). */
+    WARNING,
+    /** might succeed when retried. */
+    TRANSIENT,
+    /** will fail again. */
+    FATAL
+  }
+
+  /** the maximum number of retries. */
+  protected int m_Retries;
+
+  /** the delay before the first retry in seconds. */
+  protected int m_Delay;
+
+  /**
+   * Initializes the policy.
+   *
+   * @param retries	the maximum number of retries, 0 to disable
+   * @param delay	the delay before the first retry in seconds, doubles with each retry
+   */
+  public RetryPolicy(int retries, int delay) {
+    m_Retries = Math.max(0, retries);
+    m_Delay   = Math.max(1, delay);
+  }
+
+  /**
+   * Returns the maximum number of retries.
+   *
+   * @return		the retries, 0 if disabled
+   */
+  public int getRetries() {
+    return m_Retries;
+  }
+
+  /**
+   * Returns the category of the rsync exit code.
+   *
+   * @param exitCode	the exit code
+   * @return		the category
+   */
+  public static Category classify(int exitCode) {
+    switch (exitCode) {
+      case 0:
+	return Category.SUCCESS;
+      case 24:   // partial transfer due to vanished source files
+	return Category.WARNING;
+      case 5:    // error starting client-server protocol
+      case 10:   // error in socket I/O
+      case 11:   // error in file I/O
+      case 12:   // error in rsync protocol data stream
+      case 14:   // error in IPC code
+      case 21:   // some error returned by waitpid()
+      case 22:   // error allocating core memory buffers
+      case 30:   // timeout in data send/receive
+      case 35:   // timeout waiting for daemon connection
+      case 255:  // ssh: connection failed/closed
+	return Category.TRANSIENT;
+      default:
+	return Category.FATAL;
+    }
+  }
+
+  /**
+   * Returns whether the rsync exit code counts as success, ie possibly with
+   * warnings.
+   *
+   * @param exitCode	the exit code
+   * @return		true if successful
+   */
+  public static boolean isSuccess(int exitCode) {
+    return (classify(exitCode) == Category.SUCCESS) || (classify(exitCode) == Category.WARNING);
+  }
+
+  /**
+   * Returns a description of the rsync exit code.
+   *
+   * @param exitCode	the exit code
+   * @return		the description
+   */
+  public static String describe(int exitCode) {
+    switch (exitCode) {
+      case 0:   return "success";
+      case 1:   return "syntax or usage error";
+      case 2:   return "protocol incompatibility";
+      case 3:   return "errors selecting input/output files, dirs";
+      case 4:   return "requested action not supported";
+      case 5:   return "error starting client-server protocol";
+      case 6:   return "daemon unable to append to log-file";
+      case 10:  return "error in socket I/O";
+      case 11:  return "error in file I/O";
+      case 12:  return "error in rsync protocol data stream";
+      case 13:  return "errors with program diagnostics";
+      case 14:  return "error in IPC code";
+      case 20:  return "received SIGUSR1 or SIGINT";
+      case 21:  return "some error returned by waitpid()";
+      case 22:  return "error allocating core memory buffers";
+      case 23:  return "partial transfer due to error";
+      case 24:  return "partial transfer due to vanished source files";
+      case 25:  return "the --max-delete limit stopped deletions";
+      case 30:  return "timeout in data send/receive";
+      case 35:  return "timeout waiting for daemon connection";
+      case 255: return "remote shell failed";
+      default:  return "unknown error";
+    }
+  }
+
+  /**
+   * Returns whether to retry after the failed attempt.
+   *
+   * @param exitCode	the exit code of the attempt
+   * @param attempt	the number of retries so far
+   * @return		true if to retry
+   */
+  public boolean isRetry(int exitCode, int attempt) {
+    return (attempt < m_Retries) && (classify(exitCode) == Category.TRANSIENT);
+  }
+
+  /**
+   * Returns the delay before the next retry: the initial delay doubled for
+   * each retry so far (capped at {@link #MAX_DELAY}), plus up to 10% jitter
+   * so that sessions failing at the same time don't retry in lockstep.
+   *
+   * @param attempt	the number of retries so far
+   * @return		the delay in msec
+   */
+  public long getDelay(int attempt) {
+    long	result;
+
+    result = Math.min(MAX_DELAY, (long) m_Delay << Math.min(attempt, 20)) * 1000;
+    result += ThreadLocalRandom.current().nextLong(result / 10 + 1);
+
+    return result;
+  }
+}
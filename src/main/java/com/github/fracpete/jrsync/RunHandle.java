@@ -0,0 +1,384 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RunHandle.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.processoutput4j.output.AbstractProcessOutput;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Handle for a run of {@link Execute}, which allows other threads to cancel
+ * the run and to wait for its result. Cancelling terminates the processes
+ * of the run (rsync, hooks) including their child processes (eg ssh):
+ * first gracefully, then forcibly after {@link #GRACE_PERIOD} msec.
+ * <br>
+ * The optional stall watchdog cancels the run if neither output was
+ * generated nor the processes consumed any CPU time for the specified
+ * number of seconds, eg when rsync hangs on a stale NFS mount or a dead ssh
+ * connection. The watchdog is only armed while processes (rsync, hooks) are
+ * running, all other phases (eg waiting for an admission slot or before
+ * retrying, scanning the source, the native engine) don't count as stalling.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class RunHandle {
+
+  /** the msec to wait after terminating processes before killing them. */
+  public final static int GRACE_PERIOD = 5000;
+
+  /** the msec between checks of the watchdog. */
+  public final static int WATCHDOG_INTERVAL = 1000;
+
+  /** the process outputs of the currently running processes. */
+  protected final List<AbstractProcessOutput> m_Outputs;
+
+  /** the thread executing the run, null if not running. */
+  protected volatile Thread m_Thread;
+
+  /** whether the run got cancelled. */
+  protected volatile boolean m_Cancelled;
+
+  /** the reason for cancelling. */
+  protected volatile String m_Reason;
+
+  /** the time of cancelling (msec since epoch). */
+  protected volatile long m_CancelTime;
+
+  /** the last time output or progress was seen (msec since epoch). */
+  protected volatile long m_LastActivity;
+
+  /** the CPU time of the processes at the last check (nanos). */
+  protected long m_LastCpu;
+
+  /** the watchdog thread, null if not running. */
+  protected Thread m_Watchdog;
+
+  /** the result of the run. */
+  protected volatile String m_Result;
+
+  /** for waiting on the result. */
+  protected final CountDownLatch m_Finished;
+
+  /** for waking up pauses when cancelling. */
+  protected final CountDownLatch m_CancelSignal;
+
+  /**
+   * Initializes the handle.
+   */
+  public RunHandle() {
+    m_Outputs      = new ArrayList<>();
+    m_Finished     = new CountDownLatch(1);
+    m_CancelSignal = new CountDownLatch(1);
+    m_LastActivity = System.currentTimeMillis();
+  }
+
+  /**
+   * Registers the process output before starting the process.
+   *
+   * @param output	the output to register
+   * @return		false if the run has already been cancelled
+   */
+  public boolean register(AbstractProcessOutput output) {
+    synchronized(m_Outputs) {
+      if (m_Cancelled)
+	return false;
+      m_Outputs.add(output);
+      return true;
+    }
+  }
+
+  /**
+   * Removes the process output after the process finished.
+   *
+   * @param output	the output to remove
+   */
+  public void unregister(AbstractProcessOutput output) {
+    synchronized(m_Outputs) {
+      m_Outputs.remove(output);
+    }
+  }
+
+  /**
+   * Sets the thread that executes the run, so it can get interrupted when
+   * cancelling (eg while waiting for an admission slot).
+   *
+   * @param value	the thread, null when finished
+   */
+  public void setThread(Thread value) {
+    m_Thread = value;
+  }
+
+  /**
+   * Records activity (output or progress).
+   */
+  public void touch() {
+    m_LastActivity = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the seconds since the last activity.
+   *
+   * @return		the seconds
+   */
+  public long getIdleSeconds() {
+    return (System.currentTimeMillis() - m_LastActivity) / 1000;
+  }
+
+  /**
+   * Cancels the run and terminates its processes. Subsequent calls have no
+   * effect on the reason.
+   *
+   * @param reason	the reason for cancelling
+   */
+  public void cancel(String reason) {
+    Thread	thread;
+    boolean	idle;
+
+    synchronized(m_Outputs) {
+      if (m_Cancelled)
+	return;
+      m_Reason     = reason;
+      m_CancelTime = System.currentTimeMillis();
+      m_Cancelled  = true;
+      idle         = m_Outputs.isEmpty();
+    }
+    m_CancelSignal.countDown();
+    terminate(false);
+    // only interrupt blocking waits (eg for an admission slot), processes
+    // need to stay registered until they are gone
+    thread = m_Thread;
+    if (idle && (thread != null))
+      thread.interrupt();
+  }
+
+  /**
+   * Waits for the specified time (eg before retrying), returning early if
+   * the run gets cancelled.
+   *
+   * @param msec	the time to wait
+   * @return		true if waited the full time, false if cancelled
+   * @throws InterruptedException	if interrupted while waiting
+   */
+  public boolean pause(long msec) throws InterruptedException {
+    try {
+      return !m_CancelSignal.await(msec, TimeUnit.MILLISECONDS);
+    }
+    finally {
+      touch();
+    }
+  }
+
+  /**
+   * Returns whether the run was cancelled.
+   *
+   * @return		true if cancelled
+   */
+  public boolean isCancelled() {
+    return m_Cancelled;
+  }
+
+  /**
+   * Returns the reason for cancelling.
+   *
+   * @return		the reason, null if not cancelled
+   */
+  public String getReason() {
+    return m_Reason;
+  }
+
+  /**
+   * Returns the processes of the currently running outputs.
+   *
+   * @return		the processes
+   */
+  protected List<Process> getProcesses() {
+    List<Process>	result;
+    Process		process;
+
+    result = new ArrayList<>();
+    synchronized(m_Outputs) {
+      for (AbstractProcessOutput output: m_Outputs) {
+	process = output.getProcess();
+	if ((process != null) && process.isAlive())
+	  result.add(process);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Terminates the process and its descendants. The descendants get
+   * determined first, as they get re-parented once the process is gone.
+   *
+   * @param process	the process to terminate
+   * @param force	whether to kill forcibly
+   */
+  public static void destroyTree(Process process, boolean force) {
+    List<ProcessHandle>	descendants;
+
+    descendants = process.toHandle().descendants().collect(Collectors.toList());
+    for (ProcessHandle handle: descendants) {
+      if (force)
+	handle.destroyForcibly();
+      else
+	handle.destroy();
+    }
+    if (force)
+      process.destroyForcibly();
+    else
+      process.destroy();
+  }
+
+  /**
+   * Terminates all running processes of the run.
+   *
+   * @param force	whether to kill forcibly
+   */
+  protected void terminate(boolean force) {
+    for (Process process: getProcesses())
+      destroyTree(process, force);
+  }
+
+  /**
+   * Returns the total CPU time of the running processes and their
+   * descendants.
+   *
+   * @return		the CPU time in nanos, -1 if not available
+   */
+  protected long getCpuTime() {
+    long		result;
+    List<ProcessHandle>	handles;
+
+    result = -1;
+    for (Process process: getProcesses()) {
+      handles = process.toHandle().descendants().collect(Collectors.toList());
+      handles.add(process.toHandle());
+      for (ProcessHandle handle: handles) {
+	result = Math.max(0, result);
+	result += handle.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Performs a single check of the watchdog: escalates the termination of
+   * cancelled runs and cancels stalled ones. Without running processes
+   * the run is never considered stalled.
+   *
+   * @param stallTimeout	the seconds without activity before cancelling, 0 to disable
+   */
+  protected void check(int stallTimeout) {
+    long	cpu;
+
+    if (m_Cancelled) {
+      terminate(System.currentTimeMillis() - m_CancelTime > GRACE_PERIOD);
+      return;
+    }
+    if (stallTimeout <= 0)
+      return;
+
+    // only armed while processes are running, other phases don't generate output
+    if (getProcesses().isEmpty()) {
+      touch();
+      return;
+    }
+
+    cpu = getCpuTime();
+    if (cpu != m_LastCpu) {
+      m_LastCpu = cpu;
+      touch();
+    }
+    if (getIdleSeconds() >= stallTimeout)
+      cancel("stalled, no output or progress for " + stallTimeout + " seconds");
+  }
+
+  /**
+   * Starts the watchdog thread.
+   *
+   * @param name		the name of the run, used for the thread name
+   * @param stallTimeout	the seconds without activity before cancelling, 0 to disable
+   */
+  public synchronized void startWatchdog(String name, final int stallTimeout) {
+    if (m_Watchdog != null)
+      return;
+    touch();
+    m_LastCpu  = -1;
+    m_Watchdog = new Thread(() -> {
+      while (m_Finished.getCount() > 0) {
+	try {
+	  Thread.sleep(WATCHDOG_INTERVAL);
+	}
+	catch (InterruptedException e) {
+	  break;
+	}
+	check(stallTimeout);
+      }
+      // make sure nothing survives a cancelled run
+      if (m_Cancelled)
+	terminate(true);
+    }, "jrsync-watchdog-" + name);
+    m_Watchdog.setDaemon(true);
+    m_Watchdog.start();
+  }
+
+  /**
+   * Stores the result of the run and stops the watchdog.
+   *
+   * @param result	the result, null if successful, otherwise error message
+   */
+  public synchronized void finished(String result) {
+    m_Result = result;
+    m_Thread = null;
+    m_Finished.countDown();
+    if (m_Watchdog != null) {
+      m_Watchdog.interrupt();
+      m_Watchdog = null;
+    }
+  }
+
+  /**
+   * Returns whether the run has finished.
+   *
+   * @return		true if finished
+   */
+  public boolean isFinished() {
+    return (m_Finished.getCount() == 0);
+  }
+
+  /**
+   * Waits for the run to finish.
+   *
+   * @return		the result, null if successful, otherwise error message
+   * @throws InterruptedException	if interrupted while waiting
+   */
+  public String await() throws InterruptedException {
+    m_Finished.await();
+    return m_Result;
+  }
+}
@@ -0,0 +1,457 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RunHistory.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Append-only history of the executions of a session, stored as one
+ * tab-separated line per run in the history directory below
+ * {@link Configuration#configurationDirectory()}. Lines are short enough
+ * to get appended atomically, even if the same session is run from
+ * several processes.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class RunHistory {
+
+  /** the extension of history files. */
+  public final static String EXTENSION = ".tsv";
+
+  /** the number of runs to keep when compacting. */
+  public final static int MAX_RUNS = 1000;
+
+  /** the file size (in bytes) that triggers compacting. */
+  public final static long MAX_SIZE = 256 * 1024;
+
+  /** the format for the timestamps in reports. */
+  public final static String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+  /**
+   * A single run.
+   */
+  public static class Entry {
+
+    /** the start of the run (msec since epoch). */
+    protected long m_Start;
+
+    /** the end of the run (msec since epoch). */
+    protected long m_End;
+
+    /** the hash of the session's options. */
+    protected String m_OptionsHash;
+
+    /** the number of transferred files. */
+    protected long m_Files;
+
+    /** the number of transferred bytes, -1 if unknown. */
+    protected long m_Bytes;
+
+    /** the exit code, -1 if unknown. */
+    protected int m_ExitCode;
+
+    /** whether the run was successful. */
+    protected boolean m_Success;
+
+    /** whether it was a dry run. */
+    protected boolean m_DryRun;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param start	the start of the run (msec since epoch)
+     * @param end	the end of the run (msec since epoch)
+     * @param optionsHash	the hash of the session's options
+     * @param files	the number of transferred files
+     * @param bytes	the number of transferred bytes, -1 if unknown
+     * @param exitCode	the exit code, -1 if unknown
+     * @param success	whether the run was successful
+     * @param dryRun	whether it was a dry run
+     */
+    public Entry(long start, long end, String optionsHash, long files, long bytes, int exitCode, boolean success, boolean dryRun) {
+      m_Start       = start;
+      m_End         = end;
+      m_OptionsHash = optionsHash;
+      m_Files       = files;
+      m_Bytes       = bytes;
+      m_ExitCode    = exitCode;
+      m_Success     = success;
+      m_DryRun      = dryRun;
+    }
+
+    /**
+     * Returns the start of the run.
+     *
+     * @return		the start (msec since epoch)
+     */
+    public long getStart() {
+      return m_Start;
+    }
+
+    /**
+     * Returns the end of the run.
+     *
+     * @return		the end (msec since epoch)
+     */
+    public long getEnd() {
+      return m_End;
+    }
+
+    /**
+     * Returns the duration of the run.
+     *
+     * @return		the duration in msec
+     */
+    public long getDuration() {
+      return m_End - m_Start;
+    }
+
+    /**
+     * Returns the hash of the session's options.
+     *
+     * @return		the hash
+     */
+    public String getOptionsHash() {
+      return m_OptionsHash;
+    }
+
+    /**
+     * Returns the number of transferred files.
+     *
+     * @return		the number of files
+     */
+    public long getFiles() {
+      return m_Files;
+    }
+
+    /**
+     * Returns the number of transferred bytes.
+     *
+     * @return		the bytes, -1 if unknown
+     */
+    public long getBytes() {
+      return m_Bytes;
+    }
+
+    /**
+     * Returns the exit code.
+     *
+     * @return		the exit code, -1 if unknown
+     */
+    public int getExitCode() {
+      return m_ExitCode;
+    }
+
+    /**
+     * Returns whether the run was successful.
+     *
+     * @return		true if successful
+     */
+    public boolean isSuccess() {
+      return m_Success;
+    }
+
+    /**
+     * Returns whether it was a dry run.
+     *
+     * @return		true if dry run
+     */
+    public boolean isDryRun() {
+      return m_DryRun;
+    }
+
+    /**
+     * Turns the entry into a line of the history file.
+     *
+     * @return		the line (without line separator)
+     */
+    public String toLine() {
+      return m_Start + "\t" + m_End + "\t" + m_OptionsHash + "\t" + m_Files + "\t" + m_Bytes + "\t"
+	+ m_ExitCode + "\t" + (m_Success ? 1 : 0) + "\t" + (m_DryRun ? 1 : 0);
+    }
+
+    /**
+     * Parses a line of the history file.
+     *
+     * @param line	the line to parse
+     * @return		the entry, null if invalid
+     */
+    public static Entry parse(String line) {
+      String[]	parts;
+
+      parts = line.split("\t");
+      if (parts.length != 8)
+	return null;
+      try {
+	return new Entry(
+	  Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2],
+	  Long.parseLong(parts[3]), Long.parseLong(parts[4]), Integer.parseInt(parts[5]),
+	  parts[6].equals("1"), parts[7].equals("1"));
+      }
+      catch (Exception e) {
+	return null;
+      }
+    }
+  }
+
+  /** the session. */
+  protected String m_Session;
+
+  /**
+   * Initializes the history for the session.
+   *
+   * @param session	the session
+   */
+  public RunHistory(String session) {
+    m_Session = session;
+  }
+
+  /**
+   * Returns the directory the histories are stored in.
+   *
+   * @return		the directory
+   */
+  public static String historyDirectory() {
+    return Configuration.configurationDirectory() + File.separator + "history";
+  }
+
+  /**
+   * Returns the history file of the session.
+   *
+   * @return		the file
+   */
+  public File getFile() {
+    return new File(historyDirectory(), m_Session.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+  }
+
+  /**
+   * Appends the run to the history. Compacts the history to the newest
+   * {@link #MAX_RUNS} runs once it grows too large.
+   *
+   * @param entry	the run to append
+   * @return		null if successful, otherwise error message
+   */
+  public String append(Entry entry) {
+    File	file;
+
+    file = getFile();
+    try {
+      if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+	return "Failed to create history directory: " + file.getParentFile();
+      Files.write(file.toPath(), (entry.toLine() + "\n").getBytes(StandardCharsets.UTF_8),
+	StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+      if (file.length() > MAX_SIZE)
+	compact(MAX_RUNS);
+      return null;
+    }
+    catch (Exception e) {
+      System.err.println("Failed to append to history: " + file);
+      e.printStackTrace();
+      return "Failed to append to history: " + file + "\n" + e;
+    }
+  }
+
+  /**
+   * Rewrites the history with only the newest runs.
+   *
+   * @param keep	the number of runs to keep
+   * @throws IOException	if reading or writing fails
+   */
+  protected void compact(int keep) throws IOException {
+    List<Entry>		entries;
+    List<String>	lines;
+    File		tmp;
+
+    entries = read(keep);
+    lines   = new ArrayList<>();
+    for (Entry entry: entries)
+      lines.add(entry.toLine());
+    tmp = new File(getFile().getPath() + ".tmp");
+    Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(tmp.toPath(), getFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads the newest runs from the history, skipping invalid lines.
+   *
+   * @param last	the maximum number of runs to return, -1 for all
+   * @return		the runs, oldest first
+   * @throws IOException	if reading fails
+   */
+  public List<Entry> read(int last) throws IOException {
+    List<Entry>		result;
+    Entry		entry;
+    String		line;
+
+    result = new ArrayList<>();
+    if (!getFile().exists())
+      return result;
+
+    try (BufferedReader reader = Files.newBufferedReader(getFile().toPath(), StandardCharsets.UTF_8)) {
+      while ((line = reader.readLine()) != null) {
+	entry = Entry.parse(line);
+	if (entry != null)
+	  result.add(entry);
+      }
+    }
+    if ((last > -1) && (result.size() > last))
+      result = new ArrayList<>(result.subList(result.size() - last, result.size()));
+
+    return result;
+  }
+
+  /**
+   * Returns the value at the percentile (nearest rank).
+   *
+   * @param values	the values, get sorted
+   * @param percentile	the percentile (0-100)
+   * @return		the value, 0 if no values
+   */
+  public static long percentile(List<Long> values, double percentile) {
+    int		index;
+
+    if (values.isEmpty())
+      return 0;
+    Collections.sort(values);
+    index = (int) Math.ceil(percentile / 100.0 * values.size()) - 1;
+    return values.get(Math.max(0, Math.min(values.size() - 1, index)));
+  }
+
+  /**
+   * Formats the duration in seconds.
+   *
+   * @param msec	the duration in msec
+   * @return		the formatted duration
+   */
+  protected static String formatDuration(long msec) {
+    return String.format("%.1fs", msec / 1000.0);
+  }
+
+  /**
+   * Generates a report of the trends of the newest runs: percentiles of the
+   * durations, changes of the options and the runs that were slower than
+   * the baseline (the median duration of the successful runs).
+   *
+   * @param runs	the number of newest runs to analyze
+   * @param factor	the factor of the baseline above which runs are considered slow
+   * @return		the report
+   * @throws IOException	if reading the history fails
+   */
+  public String report(int runs, double factor) throws IOException {
+    StringBuilder	result;
+    List<Entry>		entries;
+    List<Long>		durations;
+    List<Long>		files;
+    List<Long>		bytes;
+    SimpleDateFormat	format;
+    Entry		prev;
+    Entry		latest;
+    long		baseline;
+    int			failed;
+    int			slow;
+
+    result  = new StringBuilder();
+    format  = new SimpleDateFormat(TIMESTAMP_FORMAT);
+    entries = new ArrayList<>();
+    for (Entry entry: read(-1)) {
+      if (!entry.isDryRun())
+	entries.add(entry);
+    }
+    if (entries.size() > runs)
+      entries = entries.subList(entries.size() - runs, entries.size());
+
+    result.append(m_Session).append("\n");
+    if (entries.isEmpty()) {
+      result.append("  no runs recorded\n");
+      return result.toString();
+    }
+
+    durations = new ArrayList<>();
+    files     = new ArrayList<>();
+    bytes     = new ArrayList<>();
+    failed    = 0;
+    for (Entry entry: entries) {
+      if (!entry.isSuccess()) {
+	failed++;
+	continue;
+      }
+      durations.add(entry.getDuration());
+      files.add(entry.getFiles());
+      if (entry.getBytes() > -1)
+	bytes.add(entry.getBytes());
+    }
+    baseline = percentile(durations, 50);
+    latest   = entries.get(entries.size() - 1);
+
+    result.append(String.format("  runs: %d, failed: %d%n", entries.size(), failed));
+    if (!durations.isEmpty()) {
+      result.append(String.format("  duration p50: %s, p95: %s, max: %s%n",
+	formatDuration(baseline), formatDuration(percentile(durations, 95)), formatDuration(percentile(durations, 100))));
+      result.append(String.format("  files p50: %d", percentile(files, 50)));
+      if (!bytes.isEmpty())
+	result.append(", bytes p50: ").append(ProgressTracker.formatBytes(percentile(bytes, 50)));
+      result.append("\n");
+    }
+    result.append(String.format("  latest: %s, %s%s%s%n",
+      format.format(new Date(latest.getStart())), formatDuration(latest.getDuration()),
+      (baseline > 0) ? String.format(" (%.1fx baseline)", (double) latest.getDuration() / baseline) : "",
+      latest.isSuccess() ? "" : ", FAILED with exit code " + latest.getExitCode()));
+
+    // option changes
+    prev = null;
+    for (Entry entry: entries) {
+      if ((prev != null) && !prev.getOptionsHash().equals(entry.getOptionsHash()))
+	result.append(String.format("  options changed: %s (%s -> %s)%n",
+	  format.format(new Date(entry.getStart())), prev.getOptionsHash(), entry.getOptionsHash()));
+      prev = entry;
+    }
+
+    // regressions
+    slow = 0;
+    if (baseline > 0) {
+      for (Entry entry: entries) {
+	if (!entry.isSuccess() || (entry.getDuration() <= baseline * factor))
+	  continue;
+	if (slow == 0)
+	  result.append(String.format("  slower than %.1fx baseline:%n", factor));
+	slow++;
+	result.append(String.format("    %s  %8s  %5.1fx  files: %d  options: %s%n",
+	  format.format(new Date(entry.getStart())), formatDuration(entry.getDuration()),
+	  (double) entry.getDuration() / baseline, entry.getFiles(), entry.getOptionsHash()));
+      }
+    }
+    if (slow == 0)
+      result.append(String.format("  no runs slower than %.1fx baseline%n", factor));
+
+    return result.toString();
+  }
+}
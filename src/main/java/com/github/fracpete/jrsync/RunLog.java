@@ -0,0 +1,204 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RunLog.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Spools the output of a single run to a log file in the logs directory
+ * below {@link Configuration#configurationDirectory()}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class RunLog
+  implements OutputListener, AutoCloseable {
+
+  /** the extension of log files. */
+  public final static String EXTENSION = ".log";
+
+  /** the prefix for lines from stderr. */
+  public final static String STDERR_PREFIX = "! ";
+
+  /** the default number of logs to keep per session. */
+  public final static int DEFAULT_KEEP = 20;
+
+  /** the format of the time stamp in the file name. */
+  public final static String TIMESTAMP_FORMAT = "yyyyMMdd-HHmmss-SSS";
+
+  /** the pattern for the file name following the prefix. */
+  public final static String SUFFIX_PATTERN = "\\d{8}-\\d{6}-\\d{3}(-sim)?" + Pattern.quote(EXTENSION);
+
+  /** the log file. */
+  protected File m_File;
+
+  /** the writer. */
+  protected BufferedWriter m_Writer;
+
+  /**
+   * Creates a new log file for the session.
+   *
+   * @param session	the session the log is for
+   * @param dryRun	whether it is a simulation
+   * @throws IOException	if creating the log file fails
+   */
+  public RunLog(String session, boolean dryRun) throws IOException {
+    File	dir;
+
+    dir = new File(logDirectory());
+    if (!dir.exists() && !dir.mkdirs())
+      throw new IOException("Failed to create log directory: " + dir);
+    m_File   = new File(dir, prefix(session) + new SimpleDateFormat(TIMESTAMP_FORMAT).format(new Date()) + (dryRun ? "-sim" : "") + EXTENSION);
+    m_Writer = Files.newBufferedWriter(m_File.toPath(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the directory the logs are stored in.
+   *
+   * @return		the directory
+   */
+  public static String logDirectory() {
+    return Configuration.configurationDirectory() + File.separator + "logs";
+  }
+
+  /**
+   * Returns the file name prefix for logs of this session. Characters other
+   * than letters, digits, '.', '_' and '-' get encoded as '%' followed by
+   * the hex code of their UTF-8 bytes, so that different sessions never
+   * share a prefix.
+   *
+   * @param session	the session
+   * @return		the prefix
+   */
+  protected static String prefix(String session) {
+    StringBuilder	result;
+
+    result = new StringBuilder();
+    for (byte b: session.getBytes(StandardCharsets.UTF_8)) {
+      if (((b >= 'A') && (b <= 'Z')) || ((b >= 'a') && (b <= 'z')) || ((b >= '0') && (b <= '9')) || (b == '.') || (b == '_') || (b == '-'))
+	result.append((char) b);
+      else
+	result.append(String.format("%%%02X", b & 0xFF));
+    }
+    result.append("-");
+
+    return result.toString();
+  }
+
+  /**
+   * Returns the log file.
+   *
+   * @return		the file
+   */
+  public File getFile() {
+    return m_File;
+  }
+
+  /**
+   * Gets called whenever rsync generates output.
+   *
+   * @param line	the generated output
+   * @param stdout	true if stdout, stderr otherwise
+   */
+  public synchronized void outputOccurred(String line, boolean stdout) {
+    if (m_Writer == null)
+      return;
+    try {
+      if (!stdout)
+	m_Writer.write(STDERR_PREFIX);
+      m_Writer.write(line);
+      m_Writer.newLine();
+    }
+    catch (IOException e) {
+      System.err.println("Failed to write to log, disabling: " + m_File);
+      e.printStackTrace();
+      close();
+    }
+  }
+
+  /**
+   * Closes the log file.
+   */
+  @Override
+  public synchronized void close() {
+    if (m_Writer == null)
+      return;
+    try {
+      m_Writer.close();
+    }
+    catch (IOException e) {
+      System.err.println("Failed to close log: " + m_File);
+      e.printStackTrace();
+    }
+    m_Writer = null;
+  }
+
+  /**
+   * Returns the log files for the session, newest first.
+   *
+   * @param session	the session to get the logs for
+   * @return		the log files
+   */
+  public static List<File> list(String session) {
+    List<File>		result;
+    File[]		files;
+    final Pattern	pattern;
+
+    result  = new ArrayList<>();
+    pattern = Pattern.compile(Pattern.quote(prefix(session)) + SUFFIX_PATTERN);
+    files   = new File(logDirectory()).listFiles((File dir, String name) -> pattern.matcher(name).matches());
+    if (files != null) {
+      // time stamps sort lexicographically
+      Arrays.sort(files, (File f1, File f2) -> f2.getName().compareTo(f1.getName()));
+      result.addAll(Arrays.asList(files));
+    }
+
+    return result;
+  }
+
+  /**
+   * Removes all but the newest logs of the session.
+   *
+   * @param session	the session to clean up
+   * @param keep	the number of logs to keep
+   */
+  public static void cleanUp(String session, int keep) {
+    List<File>	files;
+    int		i;
+
+    files = list(session);
+    for (i = keep; i < files.size(); i++) {
+      if (!files.get(i).delete())
+	System.err.println("Failed to delete old log: " + files.get(i));
+    }
+  }
+}
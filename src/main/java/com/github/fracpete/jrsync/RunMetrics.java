@@ -0,0 +1,409 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RunMetrics.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metrics of a single run of a session: durations of the hooks and the
+ * transfer, exit code and the transfer statistics parsed from rsync's
+ * --stats output. The statistics get summed up, so that runs with several
+ * rsync processes (shards) report the totals.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class RunMetrics
+  implements OutputListener {
+
+  /**
+   * The outcome of a single hook command.
+   */
+  public static class Hook {
+
+    /** the phase (pre/post). */
+    public final String phase;
+
+    /** the index of the command within the phase (1-based). */
+    public final int index;
+
+    /** the duration in msec. */
+    public final long duration;
+
+    /** the exit code, -1 if failed to execute or timed out. */
+    public final int exitCode;
+
+    /**
+     * Initializes the outcome.
+     *
+     * @param phase	the phase (pre/post)
+     * @param index	the index of the command within the phase (1-based)
+     * @param duration	the duration in msec
+     * @param exitCode	the exit code, -1 if failed to execute or timed out
+     */
+    public Hook(String phase, int index, long duration, int exitCode) {
+      this.phase    = phase;
+      this.index    = index;
+      this.duration = duration;
+      this.exitCode = exitCode;
+    }
+  }
+
+  /** the session. */
+  protected String m_Session;
+
+  /** the start of the run (msec since epoch). */
+  protected long m_Start;
+
+  /** the duration of the pre-execute command in msec. */
+  protected long m_PreDuration;
+
+  /** the duration of the transfer in msec. */
+  protected long m_TransferDuration;
+
+  /** the duration of the post-execute command in msec. */
+  protected long m_PostDuration;
+
+  /** the exit code of rsync (0 if successful, -1 if not run/unknown). */
+  protected int m_ExitCode;
+
+  /** whether the run was successful. */
+  protected boolean m_Success;
+
+  /** the number of transferred files (--stats). */
+  protected long m_FilesTransferred;
+
+  /** the total size of the files in bytes (--stats). */
+  protected long m_TotalFileSize;
+
+  /** the bytes sent (--stats). */
+  protected long m_BytesSent;
+
+  /** the bytes received (--stats). */
+  protected long m_BytesReceived;
+
+  /** whether any statistics were encountered. */
+  protected boolean m_HasStatistics;
+
+  /** the number of retries of rsync. */
+  protected int m_Retries;
+
+  /** the outcomes of the hook commands. */
+  protected List<Hook> m_Hooks;
+
+  /**
+   * Initializes the metrics.
+   *
+   * @param session	the session
+   */
+  public RunMetrics(String session) {
+    m_Session  = session;
+    m_Start    = System.currentTimeMillis();
+    m_ExitCode = -1;
+    m_Hooks    = new ArrayList<>();
+  }
+
+  /**
+   * Returns the session.
+   *
+   * @return		the session
+   */
+  public String getSession() {
+    return m_Session;
+  }
+
+  /**
+   * Returns the start of the run.
+   *
+   * @return		the start (msec since epoch)
+   */
+  public long getStart() {
+    return m_Start;
+  }
+
+  /**
+   * Sets the duration of the pre-execute command.
+   *
+   * @param value	the duration in msec
+   */
+  public void setPreDuration(long value) {
+    m_PreDuration = value;
+  }
+
+  /**
+   * Returns the duration of the pre-execute command.
+   *
+   * @return		the duration in msec
+   */
+  public long getPreDuration() {
+    return m_PreDuration;
+  }
+
+  /**
+   * Sets the duration of the transfer.
+   *
+   * @param value	the duration in msec
+   */
+  public void setTransferDuration(long value) {
+    m_TransferDuration = value;
+  }
+
+  /**
+   * Returns the duration of the transfer.
+   *
+   * @return		the duration in msec
+   */
+  public long getTransferDuration() {
+    return m_TransferDuration;
+  }
+
+  /**
+   * Sets the duration of the post-execute command.
+   *
+   * @param value	the duration in msec
+   */
+  public void setPostDuration(long value) {
+    m_PostDuration = value;
+  }
+
+  /**
+   * Returns the duration of the post-execute command.
+   *
+   * @return		the duration in msec
+   */
+  public long getPostDuration() {
+    return m_PostDuration;
+  }
+
+  /**
+   * Returns the total duration of the run.
+   *
+   * @return		the duration in msec
+   */
+  public long getTotalDuration() {
+    return m_PreDuration + m_TransferDuration + m_PostDuration;
+  }
+
+  /**
+   * Sets the exit code of rsync.
+   *
+   * @param value	the exit code
+   */
+  public void setExitCode(int value) {
+    m_ExitCode = value;
+  }
+
+  /**
+   * Returns the exit code of rsync.
+   *
+   * @return		the exit code, -1 if not run/unknown
+   */
+  public int getExitCode() {
+    return m_ExitCode;
+  }
+
+  /**
+   * Adds the outcome of a hook command.
+   *
+   * @param value	the outcome
+   */
+  public synchronized void addHook(Hook value) {
+    m_Hooks.add(value);
+  }
+
+  /**
+   * Returns the outcomes of the hook commands.
+   *
+   * @return		the outcomes
+   */
+  public synchronized List<Hook> getHooks() {
+    return new ArrayList<>(m_Hooks);
+  }
+
+  /**
+   * Increments the number of retries of rsync.
+   */
+  public synchronized void addRetry() {
+    m_Retries++;
+  }
+
+  /**
+   * Returns the number of retries of rsync.
+   *
+   * @return		the retries
+   */
+  public int getRetries() {
+    return m_Retries;
+  }
+
+  /**
+   * Sets whether the run was successful.
+   *
+   * @param value	true if successful
+   */
+  public void setSuccess(boolean value) {
+    m_Success = value;
+  }
+
+  /**
+   * Returns whether the run was successful.
+   *
+   * @return		true if successful
+   */
+  public boolean isSuccess() {
+    return m_Success;
+  }
+
+  /**
+   * Sets the number of transferred files, if not available from the statistics.
+   *
+   * @param value	the number of files
+   */
+  public void setFilesTransferred(long value) {
+    m_FilesTransferred = value;
+  }
+
+  /**
+   * Returns the number of transferred files.
+   *
+   * @return		the number of files
+   */
+  public long getFilesTransferred() {
+    return m_FilesTransferred;
+  }
+
+  /**
+   * Returns the bytes sent.
+   *
+   * @return		the bytes
+   */
+  public long getBytesSent() {
+    return m_BytesSent;
+  }
+
+  /**
+   * Returns the bytes received.
+   *
+   * @return		the bytes
+   */
+  public long getBytesReceived() {
+    return m_BytesReceived;
+  }
+
+  /**
+   * Returns the total size of the files.
+   *
+   * @return		the bytes
+   */
+  public long getTotalFileSize() {
+    return m_TotalFileSize;
+  }
+
+  /**
+   * Returns whether statistics were output by rsync.
+   *
+   * @return		true if available
+   */
+  public boolean hasStatistics() {
+    return m_HasStatistics;
+  }
+
+  /**
+   * Returns the speedup, ie the total file size divided by the bytes sent
+   * and received.
+   *
+   * @return		the speedup, 0 if not available
+   */
+  public double getSpeedup() {
+    if (m_BytesSent + m_BytesReceived == 0)
+      return 0;
+    return (double) m_TotalFileSize / (m_BytesSent + m_BytesReceived);
+  }
+
+  /**
+   * Parses the number at the start of the value (ignoring thousands separators).
+   *
+   * @param value	the value to parse
+   * @return		the number, -1 if not a number
+   */
+  protected static long parseNumber(String value) {
+    long	result;
+    char	c;
+    int		i;
+
+    result = 0;
+    value  = value.trim();
+    for (i = 0; i < value.length(); i++) {
+      c = value.charAt(i);
+      if ((c >= '0') && (c <= '9'))
+	result = result * 10 + (c - '0');
+      else if ((c != ',') && (c != '.'))
+	break;
+    }
+    if (i == 0)
+      return -1;
+
+    return result;
+  }
+
+  /**
+   * Parses the statistics lines.
+   *
+   * @param line	the generated output
+   * @param stdout	true if stdout, stderr otherwise
+   */
+  @Override
+  public void outputOccurred(String line, boolean stdout) {
+    int		pos;
+    String	key;
+    long	value;
+
+    if (!stdout)
+      return;
+    pos = line.indexOf(": ");
+    if ((pos == -1) || !(line.startsWith("Total") || line.startsWith("Number")))
+      return;
+
+    key   = line.substring(0, pos);
+    value = parseNumber(line.substring(pos + 2));
+    if (value == -1)
+      return;
+    switch (key) {
+      case "Number of regular files transferred":
+	m_FilesTransferred += value;
+	break;
+      case "Total file size":
+	m_TotalFileSize += value;
+	break;
+      case "Total bytes sent":
+	m_BytesSent += value;
+	break;
+      case "Total bytes received":
+	m_BytesReceived += value;
+	break;
+      default:
+	return;
+    }
+    m_HasStatistics = true;
+  }
+}
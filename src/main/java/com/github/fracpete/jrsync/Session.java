@@ -0,0 +1,880 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Session.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.INIConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable, typed snapshot of the settings of a single session. The
+ * section of the configuration gets read only once, avoiding repeated
+ * key concatenations and node tree lookups.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Session {
+
+  /** the name of the session. */
+  protected final String m_Name;
+
+  /** all the key/value pairs of the section. */
+  protected final Map<String,String> m_Values;
+
+  /** the source (text_source). */
+  protected final String m_Source;
+
+  /** the destination (text_dest). */
+  protected final String m_Destination;
+
+  /** the notes (text_notes). */
+  protected final String m_Notes;
+
+  /** the command to execute before rsync (text_com_before). */
+  protected final String m_CommandBefore;
+
+  /** the command to execute after rsync (text_com_after). */
+  protected final String m_CommandAfter;
+
+  /** the additional rsync options (text_addit). */
+  protected final String m_AdditionalOptions;
+
+  /** the number of parallel rsync shards (text_shards). */
+  protected final int m_Shards;
+
+  /** the cron schedule for the daemon (text_schedule). */
+  protected final String m_Schedule;
+
+  /** whether to queue overlapping/missed scheduled runs rather than skipping them (check_schedule_queue). */
+  protected final boolean m_ScheduleQueue;
+
+  /** whether to watch the source directory for changes in daemon mode (check_watch). */
+  protected final boolean m_Watch;
+
+  /** the seconds without changes before transferring (text_watch_delay). */
+  protected final int m_WatchDelay;
+
+  /** whether to use a manifest of the source tree to only transfer changed paths (check_manifest). */
+  protected final boolean m_Manifest;
+
+  /** the maximum hours between forced full runs when using the manifest (text_manifest_full_hours). */
+  protected final int m_ManifestFullHours;
+
+  /** whether to copy local sessions in-process rather than using rsync (check_native_engine). */
+  protected final boolean m_NativeEngine;
+
+  /** whether to cache the content hashes of the source when always checksumming (check_checksum_cache). */
+  protected final boolean m_ChecksumCache;
+
+  /** whether to decide on compression based on sampling the source (check_compr_auto). */
+  protected final boolean m_CompressAuto;
+
+  /** the seconds without output or progress before aborting, 0 to disable (text_stall_timeout). */
+  protected final int m_StallTimeout;
+
+  /** the maximum number of retries for transient rsync failures (text_retries). */
+  protected final int m_Retries;
+
+  /** the seconds before the first retry, doubling with each retry (text_retry_delay). */
+  protected final int m_RetryDelay;
+
+  /** the I/O timeout for rsync in seconds, 0 for none (text_timeout). */
+  protected final int m_Timeout;
+
+  /** the minutes the changes of a simulation can be reused by an execution, 0 to disable (text_dryrun_reuse). */
+  protected final int m_DryRunReuse;
+
+  /** the additional destinations to replicate the transfer to (text_fanout). */
+  protected final String m_FanOut;
+
+  /** whether to preserve modification times (check_time). */
+  protected final boolean m_PreserveTime;
+
+  /** whether to preserve permissions (check_perm). */
+  protected final boolean m_PreservePermissions;
+
+  /** whether to preserve the owner (check_owner). */
+  protected final boolean m_PreserveOwner;
+
+  /** whether to preserve the group (check_group). */
+  protected final boolean m_PreserveGroup;
+
+  /** whether to stay on one file system (check_onefs). */
+  protected final boolean m_OneFileSystem;
+
+  /** whether to output verbose information (check_verbose). */
+  protected final boolean m_Verbose;
+
+  /** whether to show the transfer progress (check_progr). */
+  protected final boolean m_Progress;
+
+  /** whether to delete extraneous files on the destination (check_delete). */
+  protected final boolean m_Delete;
+
+  /** whether to ignore existing files (check_exist). */
+  protected final boolean m_IgnoreExisting;
+
+  /** whether to only compare file sizes (check_size). */
+  protected final boolean m_SizeOnly;
+
+  /** whether to skip files that are newer on the destination (check_skipnew). */
+  protected final boolean m_SkipNewer;
+
+  /** whether to use a modification time window of 1 second (check_windows). */
+  protected final boolean m_WindowsCompatibility;
+
+  /** whether to always compare checksums (check_sum). */
+  protected final boolean m_Checksum;
+
+  /** whether to copy symlinks as symlinks (check_symlink). */
+  protected final boolean m_Symlinks;
+
+  /** whether to copy hardlinks as hardlinks (check_hardlink). */
+  protected final boolean m_Hardlinks;
+
+  /** whether to preserve devices (check_dev). */
+  protected final boolean m_Devices;
+
+  /** whether to only update existing files (check_update). */
+  protected final boolean m_OnlyUpdateExisting;
+
+  /** whether to keep partially transferred files (check_keepart). */
+  protected final boolean m_KeepPartial;
+
+  /** whether to not map uid/gid values (check_mapuser). */
+  protected final boolean m_NumericIds;
+
+  /** whether to compress file data (check_compr). */
+  protected final boolean m_Compress;
+
+  /** whether to make backups (check_backup). */
+  protected final boolean m_Backup;
+
+  /** whether to output itemized changes (check_itemized). */
+  protected final boolean m_Itemized;
+
+  /** whether to disable recursion (check_norecur). */
+  protected final boolean m_NoRecursion;
+
+  /** whether to protect remote arguments (check_protectargs). */
+  protected final boolean m_ProtectArgs;
+
+  /** whether to run as superuser (check_superuser). */
+  protected final boolean m_Superuser;
+
+  /** whether to execute the command before rsync (check_com_before). */
+  protected final boolean m_ExecuteBefore;
+
+  /** whether to halt if the command before rsync fails (check_com_halt). */
+  protected final boolean m_HaltOnFailure;
+
+  /** whether to execute the command after rsync (check_com_after). */
+  protected final boolean m_ExecuteAfter;
+
+  /** whether to execute the command after rsync only on error (check_com_onerror). */
+  protected final boolean m_AfterOnErrorOnly;
+
+  /** whether to run multiple commands before rsync in parallel (check_com_parallel). */
+  protected final boolean m_ParallelBefore;
+
+  /** the timeout for each command before/after rsync in seconds, 0 for none (text_com_timeout). */
+  protected final int m_CommandTimeout;
+
+  /** whether to browse files instead of folders (check_browse_files). */
+  protected final boolean m_BrowseFiles;
+
+  /**
+   * Initializes the snapshot from the section of the configuration.
+   *
+   * @param config	the configuration to read from
+   * @param name	the name of the session/section
+   */
+  public Session(INIConfiguration config, String name) {
+    HierarchicalConfiguration<ImmutableNode>	section;
+    Map<String,String>				values;
+    Iterator<String>				keys;
+    String					key;
+
+    section = config.getSection(name);
+    values  = new HashMap<>();
+    keys    = section.getKeys();
+    while (keys.hasNext()) {
+      key = keys.next();
+      values.put(key, section.getString(key));
+    }
+
+    m_Name   = name;
+    m_Values = Collections.unmodifiableMap(values);
+
+    m_Source               = getString("text_source", "");
+    m_Destination          = getString("text_dest", "");
+    m_Notes                = getString("text_notes", "");
+    m_CommandBefore        = getString("text_com_before", "");
+    m_CommandAfter         = getString("text_com_after", "");
+    m_AdditionalOptions    = getString("text_addit", "");
+    m_Shards               = getInt("text_shards", 1);
+    m_Schedule             = getString("text_schedule", "").trim();
+    m_ScheduleQueue        = getBoolean("check_schedule_queue", false);
+    m_Watch                = getBoolean("check_watch", false);
+    m_WatchDelay           = getInt("text_watch_delay", 5);
+    m_Manifest             = getBoolean("check_manifest", false);
+    m_ManifestFullHours    = getInt("text_manifest_full_hours", 24);
+    m_NativeEngine         = getBoolean("check_native_engine", false);
+    m_ChecksumCache        = getBoolean("check_checksum_cache", false);
+    m_CompressAuto         = getBoolean("check_compr_auto", false);
+    m_StallTimeout         = getInt("text_stall_timeout", 0);
+    m_Retries              = getInt("text_retries", 0);
+    m_RetryDelay           = getInt("text_retry_delay", 30);
+    m_Timeout              = getInt("text_timeout", 0);
+    m_DryRunReuse          = getInt("text_dryrun_reuse", 0);
+    m_FanOut               = getString("text_fanout", "").trim();
+    m_PreserveTime         = getBoolean("check_time", false);
+    m_PreservePermissions  = getBoolean("check_perm", false);
+    m_PreserveOwner        = getBoolean("check_owner", false);
+    m_PreserveGroup        = getBoolean("check_group", false);
+    m_OneFileSystem        = getBoolean("check_onefs", false);
+    m_Verbose              = getBoolean("check_verbose", false);
+    m_Progress             = getBoolean("check_progr", false);
+    m_Delete               = getBoolean("check_delete", false);
+    m_IgnoreExisting       = getBoolean("check_exist", false);
+    m_SizeOnly             = getBoolean("check_size", false);
+    m_SkipNewer            = getBoolean("check_skipnew", false);
+    m_WindowsCompatibility = getBoolean("check_windows", false);
+    m_Checksum             = getBoolean("check_sum", false);
+    m_Symlinks             = getBoolean("check_symlink", false);
+    m_Hardlinks            = getBoolean("check_hardlink", false);
+    m_Devices              = getBoolean("check_dev", false);
+    m_OnlyUpdateExisting   = getBoolean("check_update", false);
+    m_KeepPartial          = getBoolean("check_keepart", false);
+    m_NumericIds           = getBoolean("check_mapuser", false);
+    m_Compress             = getBoolean("check_compr", false);
+    m_Backup               = getBoolean("check_backup", false);
+    m_Itemized             = getBoolean("check_itemized", false);
+    m_NoRecursion          = getBoolean("check_norecur", false);
+    m_ProtectArgs          = getBoolean("check_protectargs", false);
+    m_Superuser            = getBoolean("check_superuser", false);
+    m_ExecuteBefore        = getBoolean("check_com_before", false);
+    m_HaltOnFailure        = getBoolean("check_com_halt", false);
+    m_ExecuteAfter         = getBoolean("check_com_after", false);
+    m_AfterOnErrorOnly     = getBoolean("check_com_onerror", false);
+    m_ParallelBefore       = getBoolean("check_com_parallel", false);
+    m_CommandTimeout       = getInt("text_com_timeout", 0);
+    m_BrowseFiles          = getBoolean("check_browse_files", false);
+  }
+
+  /**
+   * Returns the name of the session.
+   *
+   * @return		the name
+   */
+  public String getName() {
+    return m_Name;
+  }
+
+  /**
+   * Returns all the key/value pairs of the session.
+   *
+   * @return		the values
+   */
+  public Map<String,String> getValues() {
+    return m_Values;
+  }
+
+  /**
+   * Returns a hash of the settings that influence the transfer, ie all
+   * key/value pairs except for notes and schedule. Used for telling apart
+   * runs with different options in the history.
+   *
+   * @return		the hash (hex)
+   */
+  public String getOptionsHash() {
+    CRC32	crc;
+
+    crc = new CRC32();
+    for (Map.Entry<String,String> entry: new TreeMap<>(m_Values).entrySet()) {
+      if (entry.getKey().equals("text_notes") || entry.getKey().startsWith("text_schedule") || entry.getKey().startsWith("check_schedule"))
+	continue;
+      crc.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    return String.format("%08x", crc.getValue());
+  }
+
+  /**
+   * Returns the string value for the key.
+   *
+   * @param key		the key (without session)
+   * @param defValue	the default value if not present
+   * @return		the value
+   */
+  public String getString(String key, String defValue) {
+    String	result;
+
+    result = m_Values.get(key);
+    return (result == null) ? defValue : result;
+  }
+
+  /**
+   * Returns the boolean value for the key.
+   *
+   * @param key		the key (without session)
+   * @param defValue	the default value if not present or empty
+   * @return		the value
+   */
+  public boolean getBoolean(String key, boolean defValue) {
+    String	value;
+
+    value = m_Values.get(key);
+    if ((value == null) || value.isEmpty())
+      return defValue;
+    return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes") || value.equalsIgnoreCase("on");
+  }
+
+  /**
+   * Returns the integer value for the key.
+   *
+   * @param key		the key (without session)
+   * @param defValue	the default value if not present or not a number
+   * @return		the value
+   */
+  public int getInt(String key, int defValue) {
+    String	value;
+
+    value = m_Values.get(key);
+    if (value == null)
+      return defValue;
+    try {
+      return Integer.parseInt(value.trim());
+    }
+    catch (Exception e) {
+      return defValue;
+    }
+  }
+
+  /**
+   * Returns the source.
+   *
+   * @return		the value
+   */
+  public String getSource() {
+    return m_Source;
+  }
+
+  /**
+   * Returns the destination.
+   *
+   * @return		the value
+   */
+  public String getDestination() {
+    return m_Destination;
+  }
+
+  /**
+   * Returns the notes.
+   *
+   * @return		the value
+   */
+  public String getNotes() {
+    return m_Notes;
+  }
+
+  /**
+   * Returns the command to execute before rsync.
+   *
+   * @return		the value
+   */
+  public String getCommandBefore() {
+    return m_CommandBefore;
+  }
+
+  /**
+   * Returns the command to execute after rsync.
+   *
+   * @return		the value
+   */
+  public String getCommandAfter() {
+    return m_CommandAfter;
+  }
+
+  /**
+   * Returns the additional rsync options.
+   *
+   * @return		the value
+   */
+  public String getAdditionalOptions() {
+    return m_AdditionalOptions;
+  }
+
+  /**
+   * Returns the number of parallel rsync shards.
+   *
+   * @return		the number of shards
+   */
+  public int getShards() {
+    return m_Shards;
+  }
+
+  /**
+   * Returns the cron schedule for the daemon.
+   *
+   * @return		the schedule, empty if not scheduled
+   */
+  public String getSchedule() {
+    return m_Schedule;
+  }
+
+  /**
+   * Returns whether to queue overlapping/missed scheduled runs rather than
+   * skipping them.
+   *
+   * @return		true if to queue
+   */
+  public boolean isScheduleQueue() {
+    return m_ScheduleQueue;
+  }
+
+  /**
+   * Returns whether to watch the source directory for changes in daemon mode.
+   *
+   * @return		true if to watch
+   */
+  public boolean isWatch() {
+    return m_Watch;
+  }
+
+  /**
+   * Returns the seconds without changes before transferring.
+   *
+   * @return		the delay in seconds
+   */
+  public int getWatchDelay() {
+    return m_WatchDelay;
+  }
+
+  /**
+   * Returns whether to use a manifest of the source tree to only transfer
+   * changed paths.
+   *
+   * @return		true if to use a manifest
+   */
+  public boolean isManifest() {
+    return m_Manifest;
+  }
+
+  /**
+   * Returns the maximum hours between forced full runs when using the manifest.
+   *
+   * @return		the hours
+   */
+  public int getManifestFullHours() {
+    return m_ManifestFullHours;
+  }
+
+  /**
+   * Returns whether to copy local sessions in-process rather than using rsync.
+   *
+   * @return		true if to use the native engine
+   */
+  public boolean isNativeEngine() {
+    return m_NativeEngine;
+  }
+
+  /**
+   * Returns whether to cache the content hashes of the source when always
+   * checksumming, only transferring files whose content changed.
+   *
+   * @return		true if to use the cache
+   */
+  public boolean isChecksumCache() {
+    return m_ChecksumCache;
+  }
+
+  /**
+   * Returns whether to decide on compression and the --skip-compress list
+   * by sampling the source.
+   *
+   * @return		true if adaptive
+   */
+  public boolean isCompressAuto() {
+    return m_CompressAuto;
+  }
+
+  /**
+   * Returns the seconds without output or progress before aborting the run.
+   *
+   * @return		the seconds, 0 if disabled
+   */
+  public int getStallTimeout() {
+    return m_StallTimeout;
+  }
+
+  /**
+   * Returns the maximum number of retries for transient rsync failures.
+   *
+   * @return		the retries, 0 if disabled
+   */
+  public int getRetries() {
+    return m_Retries;
+  }
+
+  /**
+   * Returns the seconds before the first retry, doubling with each retry.
+   *
+   * @return		the seconds
+   */
+  public int getRetryDelay() {
+    return m_RetryDelay;
+  }
+
+  /**
+   * Returns the I/O timeout for rsync (--timeout).
+   *
+   * @return		the seconds, 0 if none
+   */
+  public int getTimeout() {
+    return m_Timeout;
+  }
+
+  /**
+   * Returns the minutes the changes of a simulation can be reused by an
+   * execution.
+   *
+   * @return		the minutes, 0 if disabled
+   */
+  public int getDryRunReuse() {
+    return m_DryRunReuse;
+  }
+
+  /**
+   * Returns the additional destinations to replicate the transfer to.
+   *
+   * @return		the destinations (see {@link FanOut#parse(String)}), empty if none
+   */
+  public String getFanOut() {
+    return m_FanOut;
+  }
+
+  /**
+   * Returns whether to preserve modification times.
+   *
+   * @return		true if enabled
+   */
+  public boolean isPreserveTime() {
+    return m_PreserveTime;
+  }
+
+  /**
+   * Returns whether to preserve permissions.
+   *
+   * @return		true if enabled
+   */
+  public boolean isPreservePermissions() {
+    return m_PreservePermissions;
+  }
+
+  /**
+   * Returns whether to preserve the owner.
+   *
+   * @return		true if enabled
+   */
+  public boolean isPreserveOwner() {
+    return m_PreserveOwner;
+  }
+
+  /**
+   * Returns whether to preserve the group.
+   *
+   * @return		true if enabled
+   */
+  public boolean isPreserveGroup() {
+    return m_PreserveGroup;
+  }
+
+  /**
+   * Returns whether to stay on one file system.
+   *
+   * @return		true if enabled
+   */
+  public boolean isOneFileSystem() {
+    return m_OneFileSystem;
+  }
+
+  /**
+   * Returns whether to output verbose information.
+   *
+   * @return		true if enabled
+   */
+  public boolean isVerbose() {
+    return m_Verbose;
+  }
+
+  /**
+   * Returns whether to show the transfer progress.
+   *
+   * @return		true if enabled
+   */
+  public boolean isProgress() {
+    return m_Progress;
+  }
+
+  /**
+   * Returns whether to delete extraneous files on the destination.
+   *
+   * @return		true if enabled
+   */
+  public boolean isDelete() {
+    return m_Delete;
+  }
+
+  /**
+   * Returns whether to ignore existing files.
+   *
+   * @return		true if enabled
+   */
+  public boolean isIgnoreExisting() {
+    return m_IgnoreExisting;
+  }
+
+  /**
+   * Returns whether to only compare file sizes.
+   *
+   * @return		true if enabled
+   */
+  public boolean isSizeOnly() {
+    return m_SizeOnly;
+  }
+
+  /**
+   * Returns whether to skip files that are newer on the destination.
+   *
+   * @return		true if enabled
+   */
+  public boolean isSkipNewer() {
+    return m_SkipNewer;
+  }
+
+  /**
+   * Returns whether to use a modification time window of 1 second.
+   *
+   * @return		true if enabled
+   */
+  public boolean isWindowsCompatibility() {
+    return m_WindowsCompatibility;
+  }
+
+  /**
+   * Returns whether to always compare checksums.
+   *
+   * @return		true if enabled
+   */
+  public boolean isChecksum() {
+    return m_Checksum;
+  }
+
+  /**
+   * Returns whether to copy symlinks as symlinks.
+   *
+   * @return		true if enabled
+   */
+  public boolean isSymlinks() {
+    return m_Symlinks;
+  }
+
+  /**
+   * Returns whether to copy hardlinks as hardlinks.
+   *
+   * @return		true if enabled
+   */
+  public boolean isHardlinks() {
+    return m_Hardlinks;
+  }
+
+  /**
+   * Returns whether to preserve devices.
+   *
+   * @return		true if enabled
+   */
+  public boolean isDevices() {
+    return m_Devices;
+  }
+
+  /**
+   * Returns whether to only update existing files.
+   *
+   * @return		true if enabled
+   */
+  public boolean isOnlyUpdateExisting() {
+    return m_OnlyUpdateExisting;
+  }
+
+  /**
+   * Returns whether to keep partially transferred files.
+   *
+   * @return		true if enabled
+   */
+  public boolean isKeepPartial() {
+    return m_KeepPartial;
+  }
+
+  /**
+   * Returns whether to not map uid/gid values.
+   *
+   * @return		true if enabled
+   */
+  public boolean isNumericIds() {
+    return m_NumericIds;
+  }
+
+  /**
+   * Returns whether to compress file data.
+   *
+   * @return		true if enabled
+   */
+  public boolean isCompress() {
+    return m_Compress;
+  }
+
+  /**
+   * Returns whether to make backups.
+   *
+   * @return		true if enabled
+   */
+  public boolean isBackup() {
+    return m_Backup;
+  }
+
+  /**
+   * Returns whether to output itemized changes.
+   *
+   * @return		true if enabled
+   */
+  public boolean isItemized() {
+    return m_Itemized;
+  }
+
+  /**
+   * Returns whether to disable recursion.
+   *
+   * @return		true if enabled
+   */
+  public boolean isNoRecursion() {
+    return m_NoRecursion;
+  }
+
+  /**
+   * Returns whether to protect remote arguments.
+   *
+   * @return		true if enabled
+   */
+  public boolean isProtectArgs() {
+    return m_ProtectArgs;
+  }
+
+  /**
+   * Returns whether to run as superuser.
+   *
+   * @return		true if enabled
+   */
+  public boolean isSuperuser() {
+    return m_Superuser;
+  }
+
+  /**
+   * Returns whether to execute the command before rsync.
+   *
+   * @return		true if enabled
+   */
+  public boolean isExecuteBefore() {
+    return m_ExecuteBefore;
+  }
+
+  /**
+   * Returns whether to halt if the command before rsync fails.
+   *
+   * @return		true if enabled
+   */
+  public boolean isHaltOnFailure() {
+    return m_HaltOnFailure;
+  }
+
+  /**
+   * Returns whether to execute the command after rsync.
+   *
+   * @return		true if enabled
+   */
+  public boolean isExecuteAfter() {
+    return m_ExecuteAfter;
+  }
+
+  /**
+   * Returns whether to execute the command after rsync only on error.
+   *
+   * @return		true if enabled
+   */
+  public boolean isAfterOnErrorOnly() {
+    return m_AfterOnErrorOnly;
+  }
+
+  /**
+   * Returns whether to run multiple commands before rsync in parallel.
+   *
+   * @return		true if in parallel
+   */
+  public boolean isParallelBefore() {
+    return m_ParallelBefore;
+  }
+
+  /**
+   * Returns the timeout for each command before/after rsync.
+   *
+   * @return		the seconds, 0 if none
+   */
+  public int getCommandTimeout() {
+    return m_CommandTimeout;
+  }
+
+  /**
+   * Returns whether to browse files instead of folders.
+   *
+   * @return		true if enabled
+   */
+  public boolean isBrowseFiles() {
+    return m_BrowseFiles;
+  }
+
+  /**
+   * Returns the name of the session.
+   *
+   * @return		the name
+   */
+  @Override
+  public String toString() {
+    return m_Name;
+  }
+}
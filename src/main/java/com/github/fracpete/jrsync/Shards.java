@@ -0,0 +1,183 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Shards.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits a local source directory into shards of top-level entries, balanced
+ * by the size and number of files they contain, so that they can be
+ * transferred by several rsync processes concurrently.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Shards {
+
+  /** the bytes each file counts for in addition to its size (file list, stat, open/close). */
+  public final static long FILE_COST = 32 * 1024;
+
+  /**
+   * Container for a top-level entry and its weight.
+   */
+  protected static class Entry {
+
+    /** the path. */
+    public final Path path;
+
+    /** the bytes plus the cost of the files below (and including) the path. */
+    public final long weight;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param path	the path
+     * @param weight	the weight
+     */
+    public Entry(Path path, long weight) {
+      this.path   = path;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Container for the entries of a single shard.
+   */
+  protected static class Shard {
+
+    /** the entries. */
+    public final List<String> paths = new ArrayList<>();
+
+    /** the total weight. */
+    public long weight;
+  }
+
+  /**
+   * Determines the weight of the path (including everything below it): the
+   * size of the files plus {@link #FILE_COST} for each file and directory,
+   * as the transfer time depends on both.
+   *
+   * @param path	the path to weigh
+   * @return		the weight
+   */
+  protected static long weigh(Path path) {
+    final AtomicLong	result;
+
+    result = new AtomicLong();
+    try {
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+	@Override
+	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+	  result.addAndGet(FILE_COST);
+	  return FileVisitResult.CONTINUE;
+	}
+	@Override
+	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+	  result.addAndGet(FILE_COST + (attrs.isRegularFile() ? attrs.size() : 0));
+	  return FileVisitResult.CONTINUE;
+	}
+	@Override
+	public FileVisitResult visitFileFailed(Path file, IOException exc) {
+	  result.addAndGet(FILE_COST);
+	  return FileVisitResult.CONTINUE;
+	}
+      });
+    }
+    catch (Exception e) {
+      // unreadable subtrees still need to get transferred by one of the shards
+    }
+
+    return Math.max(FILE_COST, result.get());
+  }
+
+  /**
+   * Splits the top-level entries of the source directory into (at most) the
+   * specified number of shards, using a greedy largest-first assignment.
+   * The weights of the top-level entries are determined in parallel.
+   *
+   * @param source	the source directory
+   * @param numShards	the maximum number of shards
+   * @return		the absolute paths of the entries per shard, empty shards are omitted
+   * @throws IOException	if listing the source directory fails
+   */
+  public static List<List<String>> split(File source, int numShards) throws IOException {
+    List<List<String>>		result;
+    List<Path>			children;
+    List<Entry>			entries;
+    PriorityQueue<Shard>	queue;
+    Shard			shard;
+    int				i;
+
+    try (Stream<Path> list = Files.list(source.toPath())) {
+      children = list.collect(Collectors.toList());
+    }
+    entries = children.parallelStream()
+      .map((Path p) -> new Entry(p, weigh(p)))
+      .sorted(Comparator.comparingLong((Entry e) -> e.weight).reversed())
+      .collect(Collectors.toList());
+
+    queue = new PriorityQueue<>(Comparator.comparingLong((Shard s) -> s.weight));
+    for (i = 0; i < Math.max(1, numShards); i++)
+      queue.add(new Shard());
+    for (Entry entry: entries) {
+      shard = queue.poll();
+      shard.paths.add(entry.path.toAbsolutePath().toString());
+      shard.weight += entry.weight;
+      queue.add(shard);
+    }
+
+    result = new ArrayList<>();
+    for (Shard s: queue) {
+      if (!s.paths.isEmpty())
+	result.add(s.paths);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the destination the shards have to be transferred to, taking
+   * into account rsync's trailing slash semantics of the source directory.
+   *
+   * @param source	the source directory as specified in the session
+   * @param destination	the destination as specified in the session
+   * @return		the destination for the shards
+   */
+  public static String destination(String source, String destination) {
+    if (source.endsWith("/") || source.endsWith(File.separator))
+      return destination;
+    if (destination.endsWith("/") || destination.endsWith(File.separator))
+      return destination + new File(source).getName();
+    return destination + "/" + new File(source).getName();
+  }
+}
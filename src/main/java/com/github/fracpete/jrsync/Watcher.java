@@ -0,0 +1,371 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Watcher.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.Execute.OutputListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the local source directory of a session and executes the session
+ * whenever files change, only transferring the changed paths (via rsync's
+ * --files-from). Bursts of events get debounced, i.e., the transfer only
+ * starts once no further events occurred for the session's watch delay
+ * (but at most {@link #MAX_DELAY_FACTOR} times the delay after the first
+ * event, so that constantly modified directories still get transferred).
+ * An overflow of the event queue results in a full transfer. If the
+ * directory cannot be watched, full transfers are performed periodically.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Watcher
+  implements Runnable {
+
+  /** the default polling interval in seconds if watching is not possible. */
+  public final static int POLL_INTERVAL = 300;
+
+  /** the maximum time to collect events, as multiple of the watch delay. */
+  public final static int MAX_DELAY_FACTOR = 10;
+
+  /** the msec between checks whether a session started by the daemon has finished. */
+  public final static int WAIT_INTERVAL = 1000;
+
+  /** the session to watch. */
+  protected Session m_Settings;
+
+  /** the listener for the output. */
+  protected OutputListener m_Listener;
+
+  /** the root directory. */
+  protected Path m_Root;
+
+  /** the watch service. */
+  protected WatchService m_Service;
+
+  /** the watched directories. */
+  protected Map<WatchKey,Path> m_Keys;
+
+  /** the changed paths (relative to the root). */
+  protected Set<String> m_Changed;
+
+  /** whether a full transfer is required. */
+  protected boolean m_Full;
+
+  /** whether the watcher has been stopped. */
+  protected volatile boolean m_Stopped;
+
+  /** the metrics to record the transfers in, null if not recording. */
+  protected Metrics m_Metrics;
+
+  /** the global I/O budgets, null if not used. */
+  protected List<Budget> m_Budgets;
+
+  /** the daemon to coordinate the transfers with, null if standalone. */
+  protected Daemon m_Daemon;
+
+  /**
+   * Initializes the watcher.
+   *
+   * @param settings	the session to watch
+   * @param listener	the listener for the output, null to ignore
+   */
+  public Watcher(Session settings, OutputListener listener) {
+    m_Settings = settings;
+    m_Listener = listener;
+    m_Keys     = new HashMap<>();
+    m_Changed  = new LinkedHashSet<>();
+  }
+
+  /**
+   * Sets the metrics to record the transfers in.
+   *
+   * @param value	the metrics, null to not record
+   */
+  public void setMetrics(Metrics value) {
+    m_Metrics = value;
+  }
+
+  /**
+   * Sets the global I/O budgets shared with other runs.
+   *
+   * @param value	the budgets, null to not use any
+   */
+  public void setBudgets(List<Budget> value) {
+    m_Budgets = value;
+  }
+
+  /**
+   * Sets the daemon to coordinate the transfers with, so that they don't
+   * overlap with scheduled runs of the session.
+   *
+   * @param value	the daemon, null if standalone
+   */
+  public void setDaemon(Daemon value) {
+    m_Daemon = value;
+  }
+
+  /**
+   * Outputs the message.
+   *
+   * @param msg		the message
+   */
+  protected void log(String msg) {
+    if (m_Listener != null)
+      m_Listener.outputOccurred("[watch:" + m_Settings.getName() + "] " + msg, true);
+  }
+
+  /**
+   * Registers the directory and all its sub-directories. Files already
+   * present in newly created directories are recorded as changed.
+   *
+   * @param dir		the directory to register
+   * @param created	whether the directory was just created
+   * @throws IOException	if registering fails
+   */
+  protected void register(Path dir, boolean created) throws IOException {
+    try (Stream<Path> walk = Files.walk(dir)) {
+      for (Path path: (Iterable<Path>) walk::iterator) {
+	if (Files.isDirectory(path))
+	  m_Keys.put(path.register(m_Service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), path);
+	if (created)
+	  m_Changed.add(m_Root.relativize(path).toString());
+      }
+    }
+  }
+
+  /**
+   * Processes the events of the key.
+   *
+   * @param key		the key to process
+   */
+  protected void process(WatchKey key) {
+    Path	dir;
+    Path	path;
+
+    dir = m_Keys.get(key);
+    for (WatchEvent<?> event: key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+	m_Full = true;
+	continue;
+      }
+      if (dir == null)
+	continue;
+      path = dir.resolve((Path) event.context());
+      m_Changed.add(m_Root.relativize(path).toString());
+      if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(path)) {
+	try {
+	  register(path, true);
+	}
+	catch (IOException e) {
+	  log("Failed to watch new directory, scheduling full transfer: " + path);
+	  m_Full = true;
+	}
+      }
+    }
+    if (!key.reset())
+      m_Keys.remove(key);
+  }
+
+  /**
+   * Waits until the session is not run by the daemon anymore and marks it
+   * as running.
+   *
+   * @param exec	the execution
+   * @return		true if marked as running, false if stopped while waiting
+   */
+  protected boolean begin(Execute exec) {
+    if ((m_Daemon == null) || m_Daemon.begin(m_Settings.getName(), exec))
+      return true;
+    log("Session is running, waiting for it to finish");
+    while (!m_Stopped) {
+      try {
+	Thread.sleep(WAIT_INTERVAL);
+      }
+      catch (InterruptedException e) {
+	return false;
+      }
+      if (m_Daemon.begin(m_Settings.getName(), exec))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Transfers the changed paths or everything.
+   *
+   * @param paths	the paths to transfer, null for a full transfer
+   */
+  protected void transfer(Set<String> paths) {
+    Execute	exec;
+    File	filesFrom;
+    String	msg;
+
+    filesFrom = null;
+    exec      = new Execute();
+    if (!begin(exec))
+      return;
+    try {
+      if (paths != null) {
+	filesFrom = Execute.writeFilesFrom(paths);
+	exec.setFilesFrom(filesFrom);
+	log("Transferring " + paths.size() + " changed path(s)");
+      }
+      else {
+	log("Full transfer");
+      }
+      exec.setStatistics(m_Metrics != null);
+      exec.setBudgets(m_Budgets);
+      msg = exec.execute(m_Settings, false, m_Listener);
+      if (m_Metrics != null)
+	m_Metrics.record(exec.getMetrics());
+      if (msg != null)
+	log("Transfer failed: " + msg);
+    }
+    catch (Exception e) {
+      log("Transfer failed: " + e);
+    }
+    finally {
+      if ((filesFrom != null) && !filesFrom.delete())
+	filesFrom.deleteOnExit();
+      if (m_Daemon != null)
+	m_Daemon.end(m_Settings.getName());
+    }
+  }
+
+  /**
+   * Periodically performs full transfers, used if watching is not possible.
+   */
+  protected void poll() {
+    log("Falling back to full transfers every " + POLL_INTERVAL + " seconds");
+    while (!m_Stopped) {
+      try {
+	Thread.sleep(POLL_INTERVAL * 1000L);
+      }
+      catch (InterruptedException e) {
+	break;
+      }
+      transfer(null);
+    }
+  }
+
+  /**
+   * Watches the source directory until stopped.
+   */
+  @Override
+  public void run() {
+    WatchKey	key;
+    Set<String>	paths;
+    long	delay;
+    long	first;
+    long	remaining;
+
+    if (!Execute.isLocal(m_Settings.getSource()) || !new File(m_Settings.getSource()).isDirectory()) {
+      log("Source is not a local directory, cannot watch: " + m_Settings.getSource());
+      return;
+    }
+
+    m_Root = new File(m_Settings.getSource()).toPath().toAbsolutePath();
+    delay  = Math.max(1, m_Settings.getWatchDelay()) * 1000L;
+
+    // register before getting in sync, so that changes made during the
+    // initial transfer are queued up as events
+    try {
+      m_Service = FileSystems.getDefault().newWatchService();
+      register(m_Root, false);
+    }
+    catch (Exception e) {
+      log("Failed to watch source directory: " + e);
+      transfer(null);
+      poll();
+      return;
+    }
+
+    log("Watching " + m_Keys.size() + " director(y/ies)");
+    transfer(null);
+    try {
+      while (!m_Stopped) {
+	// wait for first event, then collect until quiet (or waited too long)
+	key   = m_Service.take();
+	first = System.currentTimeMillis();
+	process(key);
+	while ((remaining = first + delay * MAX_DELAY_FACTOR - System.currentTimeMillis()) > 0) {
+	  key = m_Service.poll(Math.min(delay, remaining), TimeUnit.MILLISECONDS);
+	  if (key == null)
+	    break;
+	  process(key);
+	}
+
+	if (m_Full) {
+	  m_Full = false;
+	  m_Changed.clear();
+	  transfer(null);
+	}
+	else if (!m_Changed.isEmpty()) {
+	  paths     = m_Changed;
+	  m_Changed = new LinkedHashSet<>();
+	  transfer(paths);
+	}
+      }
+    }
+    catch (InterruptedException | ClosedWatchServiceException e) {
+      // stopped
+    }
+    finally {
+      try {
+	m_Service.close();
+      }
+      catch (IOException e) {
+	// ignored
+      }
+    }
+  }
+
+  /**
+   * Stops watching.
+   */
+  public void stop() {
+    m_Stopped = true;
+    if (m_Service != null) {
+      try {
+	m_Service.close();
+      }
+      catch (IOException e) {
+	// ignored
+      }
+    }
+  }
+}
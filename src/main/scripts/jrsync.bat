@@ -26,7 +26,7 @@ set ERROR_CODE=0
 @REM Slurp the command line arguments.  This loop allows for an unlimited number
 @REM of arguments (up to the command line limit, anyway).
 set MEMORY=512m
-set MAIN=com.github.fracpete.jrsync.Main
+set MAIN=com.github.fracpete.jrsync.Launcher
 set BASEDIR=%~dp0\..
 set CMD_LINE_ARGS=
 :Loop
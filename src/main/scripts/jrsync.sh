@@ -87,7 +87,7 @@ if $cygwin; then
 fi
 
 # check options
-MAIN=com.github.fracpete.jrsync.Main
+MAIN=com.github.fracpete.jrsync.Launcher
 ARGS=
 WHITESPACE="[[:space:]]"
 for ARG in "$@"
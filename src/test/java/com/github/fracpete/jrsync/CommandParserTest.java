@@ -0,0 +1,124 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CommandParserTest.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the parsing of hook commands.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CommandParserTest {
+
+  /**
+   * Tests splitting into commands and arguments.
+   */
+  @Test
+  public void testSplit() {
+    assertEquals(
+      Arrays.asList(Arrays.asList("echo", "a", "b"), Collections.singletonList("ls")),
+      CommandParser.parse("  echo a   b ; ls ;; ", false));
+    assertEquals(Collections.emptyList(), CommandParser.parse(" ; ", false));
+    assertEquals(
+      Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b")),
+      CommandParser.parse("a;b", false));
+  }
+
+  /**
+   * Tests single and double quotes.
+   */
+  @Test
+  public void testQuotes() {
+    assertEquals(
+      Collections.singletonList(Arrays.asList("sh", "-c", "echo a; echo b")),
+      CommandParser.parse("sh -c 'echo a; echo b'", false));
+    assertEquals(
+      Collections.singletonList(Arrays.asList("echo", "it's \"quoted\"", "")),
+      CommandParser.parse("echo \"it's \\\"quoted\\\"\" ''", false));
+    assertEquals(
+      Collections.singletonList(Collections.singletonList("ab c")),
+      CommandParser.parse("a'b c'", false));
+  }
+
+  /**
+   * Tests backslashes on POSIX systems: outside quotes only whitespace,
+   * quotes, ';' and backslashes get escaped, inside double quotes only
+   * '"', '\', '$' and '`'. All other backslashes are kept.
+   */
+  @Test
+  public void testBackslashPosix() {
+    assertEquals(
+      Collections.singletonList(Arrays.asList("touch", "a b;c", "d\\e", "f\\")),
+      CommandParser.parse("touch a\\ b\\;c d\\\\e f\\", false));
+    assertEquals(
+      Collections.singletonList(Arrays.asList("grep", "\\d+", "$x \\d")),
+      CommandParser.parse("grep \\d+ \"\\$x \\d\"", false));
+  }
+
+  /**
+   * Tests that backslashes of Windows paths are kept.
+   */
+  @Test
+  public void testBackslashWindows() {
+    List<List<String>>	parsed;
+
+    parsed = CommandParser.parse("C:\\Tools\\notify.exe \"C:\\Program Files\\x\\\" D:\\\\share\\ ; del C:\\tmp\\a", true);
+    assertEquals(2, parsed.size());
+    assertEquals(Arrays.asList("C:\\Tools\\notify.exe", "C:\\Program Files\\x\\", "D:\\\\share\\"), parsed.get(0));
+    assertEquals(Arrays.asList("del", "C:\\tmp\\a"), parsed.get(1));
+  }
+
+  /**
+   * Tests that unclosed quotes get rejected.
+   */
+  @Test
+  public void testUnclosedQuote() {
+    for (String cmd: new String[]{"echo 'a", "echo \"a", "echo \"a\\\""}) {
+      try {
+	CommandParser.parse(cmd, false);
+	fail("Expected exception for: " + cmd);
+      }
+      catch (IllegalArgumentException e) {
+	// expected
+      }
+    }
+  }
+
+  /**
+   * Tests turning arguments back into a string.
+   */
+  @Test
+  public void testToString() {
+    List<String>	args;
+
+    args = Arrays.asList("echo", "a b", "it's", "", "x=1,y/z");
+    assertEquals("echo 'a b' 'it'\\''s' '' x=1,y/z", CommandParser.toString(args));
+    assertEquals(Collections.singletonList(args), CommandParser.parse(CommandParser.toString(args), false));
+  }
+}
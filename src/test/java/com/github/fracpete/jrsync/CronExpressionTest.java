@@ -0,0 +1,144 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CronExpressionTest.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the parsing and matching of cron expressions.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CronExpressionTest {
+
+  /**
+   * Returns the time stamp.
+   *
+   * @param day		the day in October 2026 (Oct 19 is a Monday)
+   * @param hour	the hour
+   * @param minute	the minute
+   * @return		the time stamp
+   */
+  protected static LocalDateTime time(int day, int hour, int minute) {
+    return LocalDateTime.of(2026, 10, day, hour, minute);
+  }
+
+  /**
+   * Tests values, ranges, lists and steps in minutes and hours.
+   */
+  @Test
+  public void testTime() {
+    CronExpression	cron;
+
+    cron = new CronExpression("*/15 9-17 * * *");
+    assertTrue(cron.matches(time(19, 9, 0)));
+    assertTrue(cron.matches(time(19, 17, 45)));
+    assertFalse(cron.matches(time(19, 9, 10)));
+    assertFalse(cron.matches(time(19, 18, 0)));
+
+    cron = new CronExpression("5,35 0-12/6 * * *");
+    assertTrue(cron.matches(time(19, 0, 5)));
+    assertTrue(cron.matches(time(19, 6, 35)));
+    assertTrue(cron.matches(time(19, 12, 5)));
+    assertFalse(cron.matches(time(19, 18, 5)));
+    assertFalse(cron.matches(time(19, 6, 6)));
+
+    cron = new CronExpression("30/10 * * * *");
+    assertTrue(cron.matches(time(19, 1, 30)));
+    assertTrue(cron.matches(time(19, 1, 50)));
+    assertFalse(cron.matches(time(19, 1, 20)));
+  }
+
+  /**
+   * Tests that either day of month or day of week has to match, if both
+   * are restricted.
+   */
+  @Test
+  public void testDaysRestricted() {
+    CronExpression	cron;
+
+    cron = new CronExpression("0 3 1 * 1");
+    assertTrue(cron.matches(time(1, 3, 0)));
+    assertTrue(cron.matches(time(19, 3, 0)));
+    assertFalse(cron.matches(time(21, 3, 0)));
+  }
+
+  /**
+   * Tests that steps starting with '*' in day of month/week don't count as
+   * restricted, ie both fields have to match (like cron).
+   */
+  @Test
+  public void testDayStep() {
+    CronExpression	cron;
+
+    // Mondays with an odd day of month
+    cron = new CronExpression("0 3 */2 * 1");
+    assertTrue(cron.matches(time(19, 3, 0)));
+    assertFalse(cron.matches(time(26, 3, 0)));
+    assertFalse(cron.matches(time(21, 3, 0)));
+
+    // Sunday/Tuesday/Thursday/Saturday, on the 15th
+    cron = new CronExpression("0 3 15 * */2");
+    assertTrue(cron.matches(time(15, 3, 0)));
+    assertFalse(cron.matches(time(18, 3, 0)));
+    assertFalse(cron.matches(LocalDateTime.of(2026, 6, 15, 3, 0)));
+
+    // every other day of month, any day of week
+    cron = new CronExpression("0 3 */2 * *");
+    assertTrue(cron.matches(time(19, 3, 0)));
+    assertFalse(cron.matches(time(18, 3, 0)));
+  }
+
+  /**
+   * Tests that 0 and 7 both denote Sunday.
+   */
+  @Test
+  public void testSunday() {
+    assertTrue(new CronExpression("0 3 * * 0").matches(time(18, 3, 0)));
+    assertTrue(new CronExpression("0 3 * * 7").matches(time(18, 3, 0)));
+    assertTrue(new CronExpression("0 3 * * 5-7").matches(time(18, 3, 0)));
+    assertFalse(new CronExpression("0 3 * * 7").matches(time(19, 3, 0)));
+  }
+
+  /**
+   * Tests that invalid expressions get rejected.
+   */
+  @Test
+  public void testInvalid() {
+    for (String expr: new String[]{"* * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "5-1 * * * *", "*/0 * * * *", "a * * * *", "* * * * 8"}) {
+      try {
+	new CronExpression(expr);
+	fail("Expected exception for: " + expr);
+      }
+      catch (IllegalArgumentException e) {
+	// expected
+      }
+    }
+    assertEquals("0 3 * * *", new CronExpression(" 0 3 * * * ").toString());
+  }
+}
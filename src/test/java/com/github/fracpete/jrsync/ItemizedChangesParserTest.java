@@ -0,0 +1,170 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ItemizedChangesParserTest.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the parsing of rsync's --itemize-changes output.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ItemizedChangesParserTest {
+
+  /**
+   * Parses the lines and returns copies of the changes (the parser reuses
+   * its change object).
+   *
+   * @param lines	the lines to parse (stdout)
+   * @return		the changes as "type|filetype|path|ambiguous"
+   */
+  protected List<String> parse(String... lines) {
+    List<String>		result;
+    ItemizedChangesParser	parser;
+
+    result = new ArrayList<>();
+    parser = new ItemizedChangesParser((ItemizedChange change) ->
+      result.add(change.getType() + "|" + change.getFileType() + "|" + change.getPath() + "|" + change.isAmbiguous()));
+    for (String line: lines)
+      parser.outputOccurred(line, true);
+
+    return result;
+  }
+
+  /**
+   * Tests created, updated and unchanged files and directories.
+   */
+  @Test
+  public void testFiles() {
+    List<String>	changes;
+
+    changes = parse(
+      ">f+++++++++ dir/new file.txt",
+      ">f.st...... dir/changed.txt",
+      ".d..t...... dir/",
+      ".f          same.txt",
+      "cd+++++++++ newdir/");
+    assertEquals(5, changes.size());
+    assertEquals("CREATED|FILE|dir/new file.txt|false", changes.get(0));
+    assertEquals("UPDATED|FILE|dir/changed.txt|false", changes.get(1));
+    assertEquals("ATTRIBUTES|DIRECTORY|dir/|false", changes.get(2));
+    assertEquals("UNCHANGED|FILE|same.txt|false", changes.get(3));
+    assertEquals("CREATED|DIRECTORY|newdir/|false", changes.get(4));
+  }
+
+  /**
+   * Tests the attributes and the transferred flag.
+   */
+  @Test
+  public void testAttributes() {
+    ItemizedChangesParser	parser;
+
+    parser = new ItemizedChangesParser();
+    parser.outputOccurred(">f.st.og... file.txt", true);
+    assertEquals(1, parser.getStatistics().getTotal());
+    assertEquals(1, parser.getStatistics().getTransferred());
+    assertEquals(1, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_SIZE));
+    assertEquals(1, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_TIME));
+    assertEquals(0, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_PERMS));
+    assertEquals(1, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_OWNER));
+    assertEquals(1, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_GROUP));
+
+    parser.outputOccurred(".f...p..... file.txt", true);
+    assertEquals(2, parser.getStatistics().getTotal());
+    assertEquals(1, parser.getStatistics().getTransferred());
+    assertEquals(1, parser.getStatistics().getAttributeCount(ItemizedChange.ATTR_PERMS));
+  }
+
+  /**
+   * Tests that the targets of links are not part of the path.
+   */
+  @Test
+  public void testLinks() {
+    List<String>	changes;
+
+    changes = parse(
+      "cL+++++++++ link -> ../target",
+      "cL+++++++++ odd -> name -> target",
+      "hf+++++++++ copy.txt => orig.txt",
+      "cL+++++++++ no target");
+    assertEquals(4, changes.size());
+    assertEquals("CREATED|SYMLINK|link|false", changes.get(0));
+    assertEquals("CREATED|SYMLINK|odd|true", changes.get(1));
+    assertEquals("HARDLINK|FILE|copy.txt|false", changes.get(2));
+    assertEquals("CREATED|SYMLINK|no target|false", changes.get(3));
+  }
+
+  /**
+   * Tests the deletions.
+   */
+  @Test
+  public void testDeleting() {
+    List<String>	changes;
+
+    changes = parse(
+      "*deleting   old/file.txt",
+      "*deleting   old/",
+      "*deleting");
+    assertEquals(2, changes.size());
+    assertEquals("DELETED|UNKNOWN|old/file.txt|false", changes.get(0));
+    assertEquals("DELETED|DIRECTORY|old/|false", changes.get(1));
+  }
+
+  /**
+   * Tests that other output gets ignored.
+   */
+  @Test
+  public void testOtherLines() {
+    ItemizedChangesParser	parser;
+
+    parser = new ItemizedChangesParser();
+    parser.outputOccurred("sending incremental file list", true);
+    parser.outputOccurred("", true);
+    parser.outputOccurred("sent 1,234 bytes  received 56 bytes  2,580.00 bytes/sec", true);
+    parser.outputOccurred("          1,234 100%    1.18MB/s    0:00:00 (xfr#1, to-chk=0/2)", true);
+    parser.outputOccurred(">f+++++++++ stderr.txt", false);
+    parser.outputOccurred("xf+++++++++ invalid.txt", true);
+    parser.outputOccurred(">x+++++++++ invalid.txt", true);
+    assertEquals(0, parser.getStatistics().getTotal());
+  }
+
+  /**
+   * Tests unescaping of non-printable characters.
+   */
+  @Test
+  public void testUnescape() {
+    assertEquals("plain.txt", ItemizedChange.unescape("plain.txt"));
+    assertEquals("café.txt", ItemizedChange.unescape("caf\\#303\\#251.txt"));
+    assertEquals("a\nb", ItemizedChange.unescape("a\\#012b"));
+    assertEquals("not\\#an escape", ItemizedChange.unescape("not\\#an escape"));
+    assertNull(ItemizedChange.unescape("invalid\\#377"));
+    assertTrue(parse(">f+++++++++ caf\\#303\\#251.txt").get(0).endsWith("|caf\\#303\\#251.txt|false"));
+    assertFalse(parse(">f+++++++++ caf\\#303\\#251.txt").get(0).contains("é"));
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ProgressTrackerTest.java
+ * Copyright (C) 2025 FracPete
+ */
+
+package com.github.fracpete.jrsync;
+
+import com.github.fracpete.jrsync.ProgressTracker.Snapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the parsing of rsync's --progress and --info=progress2 output.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ProgressTrackerTest {
+
+  /**
+   * Tests the totals output by --info=progress2.
+   */
+  @Test
+  public void testProgress2() {
+    ProgressTracker	tracker;
+    Snapshot		snapshot;
+
+    tracker = new ProgressTracker(true);
+    assertEquals(-1, tracker.getSnapshot().getLastUpdate());
+
+    tracker.outputOccurred("        524,288  25%    1.00MB/s    0:00:01 (xfr#1, ir-chk=1000/1010)", true);
+    snapshot = tracker.getSnapshot();
+    assertEquals(524288, snapshot.getBytesTransferred());
+    assertEquals(1024 * 1024, snapshot.getBytesPerSecond(), 0.001);
+    assertEquals(1, snapshot.getFilesTransferred());
+    assertEquals(1000, snapshot.getFilesRemaining());
+    assertEquals(1010, snapshot.getFilesTotal());
+    assertEquals(1, snapshot.getETA());
+    assertTrue(snapshot.getLastUpdate() > -1);
+
+    // intermediate line without file counts
+    tracker.outputOccurred("      1,048,576  50%    2.00MB/s    0:00:01  ", true);
+    snapshot = tracker.getSnapshot();
+    assertEquals(1048576, snapshot.getBytesTransferred());
+    assertEquals(2 * 1024 * 1024, snapshot.getBytesPerSecond(), 0.001);
+    assertEquals(1, snapshot.getFilesTransferred());
+
+    tracker.outputOccurred("      2,097,152 100%    2.00MB/s    0:00:02 (xfr#20, to-chk=0/1010)", true);
+    snapshot = tracker.getSnapshot();
+    assertEquals(2097152, snapshot.getBytesTransferred());
+    assertEquals(20, snapshot.getFilesTransferred());
+    assertEquals(0, snapshot.getFilesRemaining());
+    assertEquals(0, snapshot.getETA());
+  }
+
+  /**
+   * Tests the per-file output of --progress, which gets accumulated.
+   */
+  @Test
+  public void testProgress() {
+    ProgressTracker	tracker;
+    Snapshot		snapshot;
+
+    tracker = new ProgressTracker(false);
+    tracker.outputOccurred("         16,384  50%   16.00kB/s    0:00:01", true);
+    assertEquals(16384, tracker.getSnapshot().getBytesTransferred());
+    assertEquals(16 * 1024, tracker.getSnapshot().getBytesPerSecond(), 0.001);
+
+    tracker.outputOccurred("         32,768 100%   16.00kB/s    0:00:02 (xfr#1, to-chk=3/5)", true);
+    snapshot = tracker.getSnapshot();
+    assertEquals(32768, snapshot.getBytesTransferred());
+    assertEquals(1, snapshot.getFilesTransferred());
+    assertEquals(3, snapshot.getFilesRemaining());
+    assertEquals(5, snapshot.getFilesTotal());
+
+    // next file adds to the completed one
+    tracker.outputOccurred("          8,192  25%    8.00kB/s    0:00:03", true);
+    assertEquals(40960, tracker.getSnapshot().getBytesTransferred());
+    tracker.outputOccurred("         32,768 100%    8.00kB/s    0:00:04 (xfr#2, to-chk=2/5)", true);
+    assertEquals(65536, tracker.getSnapshot().getBytesTransferred());
+    assertEquals(2, tracker.getSnapshot().getFilesTransferred());
+  }
+
+  /**
+   * Tests that other output doesn't change the progress.
+   */
+  @Test
+  public void testOtherLines() {
+    ProgressTracker	tracker;
+    Snapshot		snapshot;
+
+    tracker  = new ProgressTracker(true);
+    snapshot = tracker.getSnapshot();
+    tracker.outputOccurred("sending incremental file list", true);
+    tracker.outputOccurred("dir/file.txt", true);
+    tracker.outputOccurred(">f+++++++++ 100% done.txt", true);
+    tracker.outputOccurred("sent 1,234 bytes  received 56 bytes  2,580.00 bytes/sec", true);
+    tracker.outputOccurred("  total size is 1,234  speedup is 0.96 (100%)", true);
+    tracker.outputOccurred("        524,288  25%    1.00MB/s    0:00:01", false);
+    assertSame(snapshot, tracker.getSnapshot());
+  }
+
+  /**
+   * Tests the formatting of bytes.
+   */
+  @Test
+  public void testFormatBytes() {
+    assertEquals("512.0B", ProgressTracker.formatBytes(512).replace(',', '.'));
+    assertEquals("1.5kB", ProgressTracker.formatBytes(1536).replace(',', '.'));
+    assertEquals("2.0GB", ProgressTracker.formatBytes(2.0 * 1024 * 1024 * 1024).replace(',', '.'));
+  }
+}